@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import io.scif.config.SCIFIOConfig;
+
+/**
+ * Utility methods for reading the options of the formats of this package from
+ * a {@link SCIFIOConfig}.
+ */
+final class ConfigUtils {
+
+	private ConfigUtils() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Gets the boolean value of the given key from the given configuration, or
+	 * {@code defaultValue} if it is not set.
+	 */
+	static boolean getBoolean(final SCIFIOConfig config, final String key,
+		final boolean defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Boolean ? (Boolean) value : defaultValue;
+	}
+
+	/**
+	 * Gets the numeric value of the given key from the given configuration, or
+	 * {@code defaultValue} if it is not set.
+	 */
+	static double getDouble(final SCIFIOConfig config, final String key,
+		final double defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Number ? ((Number) value).doubleValue()
+			: defaultValue;
+	}
+
+	/**
+	 * Gets the numeric value of the given key from the given configuration, or
+	 * {@code defaultValue} if it is not set.
+	 */
+	static long getLong(final SCIFIOConfig config, final String key,
+		final long defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Number ? ((Number) value).longValue()
+			: defaultValue;
+	}
+}
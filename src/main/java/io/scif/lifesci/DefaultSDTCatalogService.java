@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default {@link SDTCatalogService} implementation. Headers are read in
+ * metadata-only mode (see {@link SDTInfo#SDTInfo(DataHandle, io.scif.MetaTable,
+ * boolean)}) on a fixed pool of threads, one file per task.
+ */
+@Plugin(type = Service.class)
+public class DefaultSDTCatalogService extends AbstractService implements
+	SDTCatalogService
+{
+
+	// -- Fields --
+
+	@Parameter
+	private DataHandleService dataHandleService;
+
+	@Parameter
+	private LogService log;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// -- SDTCatalogService API Methods --
+
+	@Override
+	public SDTCatalog scan(final File root, final SDTCatalog previous)
+		throws IOException
+	{
+		final List<File> files = new ArrayList<>();
+		try (final Stream<Path> paths = Files.walk(root.toPath())) {
+			paths.filter(Files::isRegularFile).filter(p -> p.getFileName()
+				.toString().toLowerCase().endsWith(".sdt")).forEach(p -> files.add(p
+					.toFile()));
+		}
+
+		final SDTCatalog catalog = new SDTCatalog();
+		final List<Future<SDTCatalog.Entry>> pending = new ArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+			parallelism));
+		try {
+			for (final File file : files) {
+				final SDTCatalog.Entry entry = previous == null ? null : previous.get(
+					file);
+				if (entry != null && entry.isCurrent(file)) catalog.put(entry);
+				else pending.add(executor.submit(() -> readEntry(file)));
+			}
+			for (final Future<SDTCatalog.Entry> future : pending) {
+				final SDTCatalog.Entry entry = future.get();
+				if (entry != null) catalog.put(entry);
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while cataloging " + root);
+		}
+		catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return catalog;
+	}
+
+	@Override
+	public SDTCatalog update(final File root, final File index)
+		throws IOException
+	{
+		SDTCatalog previous = null;
+		if (index.isFile()) {
+			try {
+				previous = SDTCatalog.load(index);
+			}
+			catch (final IOException e) {
+				log.warn("Rebuilding unreadable SDT catalog " + index, e);
+			}
+		}
+		final SDTCatalog catalog = scan(root, previous);
+		catalog.save(index);
+		return catalog;
+	}
+
+	@Override
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	@Override
+	public void setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " +
+				parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Reads the catalog entry of the given file, or returns null if it is not a
+	 * readable SDT file.
+	 */
+	private SDTCatalog.Entry readEntry(final File file) {
+		try (final DataHandle<Location> handle = dataHandleService.create(
+			new FileLocation(file)))
+		{
+			handle.setLittleEndian(true);
+			return new SDTCatalog.Entry(file, measurements(handle, new SDTInfo(
+				handle, null, true)));
+		}
+		catch (final IOException | RuntimeException e) {
+			// NB: a corrupt header can fail in many ways; skip the file either way
+			log.warn("Cannot catalog " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the headers of the measurements of a file, like the images made of
+	 * them by the {@link SDTFormat} reader: one per measurement description
+	 * block with data blocks, or just the file header if there is none.
+	 */
+	private static List<SDTInfo> measurements(
+		final DataHandle<Location> handle, final SDTInfo info) throws IOException
+	{
+		final List<SDTInfo> infos = new ArrayList<>();
+		if (info.noOfMeasDescBlocks > 1) {
+			final SDTBlockIndex blockIndex = SDTBlockIndex.build(handle, info);
+			for (int no = 0; no < info.noOfMeasDescBlocks; no++) {
+				final SDTBlockIndex blocks = blockIndex.select(no);
+				if (blocks.size() == 0) continue;
+				infos.add(info.forMeasDescBlock(handle, no, blocks.size(), true));
+			}
+		}
+		if (infos.isEmpty()) infos.add(info);
+		return infos;
+	}
+}
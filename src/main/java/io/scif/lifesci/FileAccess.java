@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Positional (pread-style) access to the bytes of a file, safe for use by
+ * several threads at once. Local files are read through a {@link FileChannel},
+ * whose positional reads do not share a file pointer; any other source falls
+ * back to seeking the shared {@link DataHandle} under its lock.
+ */
+class FileAccess implements Closeable {
+
+	// -- Fields --
+
+	private final DataHandle<Location> handle;
+
+	/** Channel for positional reads, or null if the source is not a file. */
+	private final FileChannel channel;
+
+	// -- Constructor --
+
+	public FileAccess(final DataHandle<Location> handle)
+		throws IOException
+	{
+		this.handle = handle;
+		final Location location = handle.get();
+		channel = location instanceof FileLocation ? FileChannel.open(
+			((FileLocation) location).getFile().toPath(), StandardOpenOption.READ)
+			: null;
+	}
+
+	// -- FileAccess methods --
+
+	/** Gets the channel of the underlying local file, or null if none. */
+	public FileChannel channel() {
+		return channel;
+	}
+
+	/** Gets the length of the source in bytes. */
+	public long length() throws IOException {
+		return channel == null ? handle.length() : channel.size();
+	}
+
+	/**
+	 * Reads up to {@code len} bytes starting at file offset {@code pos} into
+	 * {@code b}. Fewer bytes are read only at the end of the file.
+	 * 
+	 * @return the number of bytes read.
+	 */
+	public int read(final long pos, final byte[] b, final int off,
+		final int len) throws IOException
+	{
+		if (channel == null) {
+			synchronized (handle) {
+				handle.seek(pos);
+				int total = 0;
+				while (total < len) {
+					final int n = handle.read(b, off + total, len - total);
+					if (n <= 0) break;
+					total += n;
+				}
+				return total;
+			}
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, pos + buffer.position() - off) < 0) break;
+		}
+		return buffer.position() - off;
+	}
+
+	// -- Closeable methods --
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) channel.close();
+	}
+}
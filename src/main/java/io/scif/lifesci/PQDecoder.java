@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+/**
+ * Decoder of the 32-bit T3 records of PicoQuant TTTR files (".ptu" and
+ * ".pt3"). Each record is a photon, with its sync count, detection channel
+ * and start-stop time (dtime), a marker, or a sync counter overflow. The
+ * decoder keeps the accumulated overflow, so that records decoded one chunk
+ * after the other get absolute sync counts; a chunk can be decoded on its own
+ * given the overflow at its start.
+ */
+class PQDecoder {
+
+	// -- Constants --
+
+	/** Record type of PicoHarp 300 T3 records. */
+	public static final int PICOHARP_T3 = 0x00010303;
+
+	/** Record type of HydraHarp 400 T3 records, version 1. */
+	public static final int HYDRAHARP_T3 = 0x00010304;
+
+	/** Record type of HydraHarp 400 T3 records, version 2. */
+	public static final int HYDRAHARP2_T3 = 0x01010304;
+
+	/** Record type of TimeHarp 260 N T3 records. */
+	public static final int TIMEHARP260N_T3 = 0x00010305;
+
+	/** Record type of TimeHarp 260 P T3 records. */
+	public static final int TIMEHARP260P_T3 = 0x00010306;
+
+	/** Record type of MultiHarp T3 records. */
+	public static final int MULTIHARP_T3 = 0x00010307;
+
+	/** Length of each record. */
+	public static final int RECORD_BYTES = 4;
+
+	/** Sync count covered by one overflow of PicoHarp records. */
+	private static final long PICOHARP_WRAP = 65536;
+
+	/** Sync count covered by one overflow of the other records. */
+	private static final long HYDRAHARP_WRAP = 1024;
+
+	// -- Nested types --
+
+	/** Receives the decoded records. */
+	interface Handler {
+
+		/** Called for each marker record, with its marker bits. */
+		void marker(long sync, int markers);
+
+		/** Called for each photon, with its 0-based channel and its dtime. */
+		void photon(long sync, int channel, int dtime);
+	}
+
+	// -- Fields --
+
+	private final boolean picoHarp;
+
+	/** Whether each overflow record is a single overflow. */
+	private final boolean singleOverflows;
+
+	/** Sync count accumulated by the overflows so far. */
+	private long overflow;
+
+	// -- Constructor --
+
+	/**
+	 * @param overflow - Sync count accumulated by the overflows before the first
+	 *          record to decode.
+	 */
+	public PQDecoder(final int recordType, final long overflow) {
+		if (!isSupported(recordType)) {
+			throw new IllegalArgumentException("Unsupported record type: 0x" +
+				Integer.toHexString(recordType));
+		}
+		picoHarp = recordType == PICOHARP_T3;
+		singleOverflows = recordType == HYDRAHARP_T3;
+		this.overflow = overflow;
+	}
+
+	// -- PQDecoder methods --
+
+	/** Gets the sync count accumulated by the overflows so far. */
+	public long getOverflow() {
+		return overflow;
+	}
+
+	/** Decodes the {@code n / 4} records of {@code buf}. */
+	public void decode(final byte[] buf, final int n, final Handler handler) {
+		for (int i = 0; i + RECORD_BYTES <= n; i += RECORD_BYTES) {
+			final int r = (buf[i] & 0xff) | (buf[i + 1] & 0xff) << 8 |
+				(buf[i + 2] & 0xff) << 16 | buf[i + 3] << 24;
+			if (picoHarp) {
+				final int channel = r >>> 28;
+				final int dtime = (r >>> 16) & 0xfff;
+				final int nsync = r & 0xffff;
+				if (channel == 0xf) {
+					if (dtime == 0) overflow += PICOHARP_WRAP;
+					else handler.marker(overflow + nsync, dtime & 0xf);
+				}
+				else if (channel > 0) {
+					handler.photon(overflow + nsync, channel - 1, dtime);
+				}
+			}
+			else {
+				final int channel = (r >>> 25) & 0x3f;
+				final int dtime = (r >>> 10) & 0x7fff;
+				final int nsync = r & 0x3ff;
+				if (r >= 0) handler.photon(overflow + nsync, channel, dtime);
+				else if (channel == 0x3f) {
+					overflow += singleOverflows || nsync == 0 ? HYDRAHARP_WRAP
+						: HYDRAHARP_WRAP * nsync;
+				}
+				else if (channel <= 15) {
+					handler.marker(overflow + nsync, channel);
+				}
+			}
+		}
+	}
+
+	// -- Static utility methods --
+
+	/** Whether records of the given type can be decoded. */
+	public static boolean isSupported(final int recordType) {
+		switch (recordType) {
+			case PICOHARP_T3:
+			case HYDRAHARP_T3:
+			case HYDRAHARP2_T3:
+			case TIMEHARP260N_T3:
+			case TIMEHARP260P_T3:
+			case MULTIHARP_T3:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Gets the number of bits of the dtime of the given record type. */
+	public static int dtimeBits(final int recordType) {
+		return recordType == PICOHARP_T3 ? 12 : 15;
+	}
+}
@@ -0,0 +1,761 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.AbstractChecker;
+import io.scif.AbstractFormat;
+import io.scif.AbstractMetadata;
+import io.scif.AbstractParser;
+import io.scif.ByteArrayPlane;
+import io.scif.ByteArrayReader;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.MetaTable;
+import io.scif.config.SCIFIOConfig;
+import io.scif.img.axes.SCIFIOAxes;
+import io.scif.util.FormatTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.Interval;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+import org.scijava.plugin.Plugin;
+
+/**
+ * PQFormat is the file format reader for the time-tagged time-resolved (TTTR)
+ * photon streams of PicoQuant instruments, in the unified ".ptu" format and
+ * the older PicoHarp ".pt3" format. Photons of T3 streams are histogrammed
+ * into lifetime images laid out as those of {@link SDTFormat}: a
+ * {@link SCIFIOAxes#LIFETIME}, X and Y plane for each detection channel along
+ * {@link SCIFIOAxes#SPECTRA}, summed over all frames.
+ * <p>
+ * The stream is scanned once, sequentially, to resolve the frame and line
+ * markers into the sync counts of each line and the decoder state at the
+ * start of each chunk of records. Histograms are then built from contiguous
+ * runs of chunks on several threads, each into its own accumulators, which
+ * are summed at the end.
+ * </p>
+ */
+@Plugin(type = Format.class)
+public class PQFormat extends AbstractFormat {
+
+	// -- Constants --
+
+	/**
+	 * {@link SCIFIOConfig} key for the maximum number of time bins. Adjacent
+	 * dtimes are summed into each time bin as needed to stay within it. Values
+	 * are {@link Number}s.
+	 */
+	public static final String TIME_BINS_KEY = "pq.timeBins";
+
+	/** Default value for {@link #TIME_BINS_KEY}. */
+	public static final int DEFAULT_TIME_BINS = 256;
+
+	/**
+	 * {@link SCIFIOConfig} key for the image width. Values are {@link Number}s;
+	 * the default is the width in the image header of ".ptu" files, or else the
+	 * number of lines per frame.
+	 */
+	public static final String WIDTH_KEY = "pq.width";
+
+	/**
+	 * {@link SCIFIOConfig} key for the maximum number of bytes the {@link Reader}
+	 * may use to keep the histograms of all channels after decoding the stream
+	 * once, and to give each thread its own accumulators. Larger images are
+	 * decoded again for each plane read, keeping only the requested region.
+	 * Values are {@link Number}s.
+	 */
+	public static final String CACHE_SIZE_KEY = "pq.cacheSize";
+
+	/** Default value for {@link #CACHE_SIZE_KEY}: 256 MiB. */
+	public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * {@link SCIFIOConfig} key controlling whether histograms are built on
+	 * several threads. Value is a {@link Boolean}; true by default.
+	 */
+	public static final String PARALLEL_KEY = "pq.parallel";
+
+	private static final String PTU_MAGIC = "PQTTTR";
+
+	private static final String PT3_MAGIC = "PicoHarp 300";
+
+	// -- PTU tag types --
+
+	private static final int TY_EMPTY8 = 0xFFFF0008;
+
+	private static final int TY_BOOL8 = 0x00000008;
+
+	private static final int TY_INT8 = 0x10000008;
+
+	private static final int TY_BIT_SET64 = 0x11000008;
+
+	private static final int TY_COLOR8 = 0x12000008;
+
+	private static final int TY_FLOAT8 = 0x20000008;
+
+	private static final int TY_TDATE_TIME = 0x21000008;
+
+	private static final int TY_FLOAT8_ARRAY = 0x2001FFFF;
+
+	private static final int TY_ANSI_STRING = 0x4001FFFF;
+
+	private static final int TY_WIDE_STRING = 0x4002FFFF;
+
+	private static final int TY_BINARY_BLOB = 0xFFFFFFFF;
+
+	// -- Format API Methods --
+
+	@Override
+	public String getFormatName() {
+		return "PicoQuant TTTR Data";
+	}
+
+	@Override
+	protected String[] makeSuffixArray() {
+		return new String[] { "ptu", "pt3" };
+	}
+
+	// -- Nested Classes --
+
+	/** Checks for PicoQuant TTTR files by suffix and by their identifier. */
+	public static class Checker extends AbstractChecker {
+
+		// -- Checker API Methods --
+
+		@Override
+		public boolean suffixSufficient() {
+			return false;
+		}
+
+		@Override
+		public boolean isFormat(final DataHandle<Location> handle)
+			throws IOException
+		{
+			if (handle.length() < 16) return false;
+			handle.seek(0);
+			final String ident = handle.readString(16);
+			return ident.startsWith(PTU_MAGIC) || ident.startsWith(PT3_MAGIC);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class Metadata extends AbstractMetadata {
+
+		// -- Fields --
+
+		/** Type of the TTTR records. */
+		private int recordType;
+
+		/** Offset of the first record. */
+		private long dataOffset;
+
+		private long records;
+
+		/** Duration of one dtime, in ns. */
+		private double resolution;
+
+		/** Time between syncs, in ns. */
+		private double syncPeriod;
+
+		private int width;
+
+		/** Number of lines per frame. */
+		private int height;
+
+		/** Number of detection channels. */
+		private int channels;
+
+		/** Number of time bins in lifetime histogram. */
+		private int timeBins;
+
+		/** Number of dtimes in each time bin. */
+		private int timeBinning = 1;
+
+		/** Whether odd lines are scanned from right to left. */
+		private boolean bidirectional;
+
+		/** Lines and chunks of the record stream. */
+		private PQLayout layout;
+
+		// -- PQ field getters/setters --
+
+		public int getRecordType() {
+			return recordType;
+		}
+
+		public void setRecordType(final int recordType) {
+			this.recordType = recordType;
+		}
+
+		public long getDataOffset() {
+			return dataOffset;
+		}
+
+		public void setDataOffset(final long dataOffset) {
+			this.dataOffset = dataOffset;
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		public void setRecords(final long records) {
+			this.records = records;
+		}
+
+		public double getResolution() {
+			return resolution;
+		}
+
+		public void setResolution(final double resolution) {
+			this.resolution = resolution;
+		}
+
+		public double getSyncPeriod() {
+			return syncPeriod;
+		}
+
+		public void setSyncPeriod(final double syncPeriod) {
+			this.syncPeriod = syncPeriod;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public void setWidth(final int width) {
+			this.width = width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public void setHeight(final int height) {
+			this.height = height;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		public void setChannels(final int channels) {
+			this.channels = channels;
+		}
+
+		public int getTimeBins() {
+			return timeBins;
+		}
+
+		public void setTimeBins(final int timeBins) {
+			this.timeBins = timeBins;
+		}
+
+		public int getTimeBinning() {
+			return timeBinning;
+		}
+
+		public void setTimeBinning(final int timeBinning) {
+			this.timeBinning = timeBinning;
+		}
+
+		public boolean isBidirectional() {
+			return bidirectional;
+		}
+
+		public void setBidirectional(final boolean bidirectional) {
+			this.bidirectional = bidirectional;
+		}
+
+		public PQLayout getLayout() {
+			return layout;
+		}
+
+		void setLayout(final PQLayout layout) {
+			this.layout = layout;
+		}
+
+		// -- Metadata API Methods --
+
+		@Override
+		public void populateImageMetadata() {
+			createImageMetadata(1);
+
+			final ImageMetadata iMeta = get(0);
+			iMeta.addAxis(SCIFIOAxes.LIFETIME, timeBins);
+			final CalibratedAxis axis = iMeta.getAxis(SCIFIOAxes.LIFETIME);
+			axis.setUnit("ns");
+			FormatTools.calibrate(axis, resolution * timeBinning, 0.0);
+			iMeta.addAxis(Axes.X, width);
+			iMeta.addAxis(Axes.Y, height);
+			iMeta.addAxis(SCIFIOAxes.SPECTRA, channels);
+			iMeta.setPlanarAxisCount(3);
+			iMeta.setPixelType(FormatTools.UINT16);
+			iMeta.setLittleEndian(true);
+			iMeta.setIndexed(false);
+			iMeta.setFalseColor(false);
+			iMeta.setMetadataComplete(true);
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			if (!fileOnly) {
+				recordType = width = height = channels = timeBins = 0;
+				timeBinning = 1;
+				dataOffset = records = 0;
+				resolution = syncPeriod = 0;
+				bidirectional = false;
+				layout = null;
+			}
+		}
+	}
+
+	/**
+	 * Parser for PicoQuant TTTR files. The header gives the record type and the
+	 * timing resolution; the records are then scanned once, at disk speed and
+	 * in memory proportional to the number of lines, for the layout of the
+	 * scanned image.
+	 */
+	public static class Parser extends AbstractParser<Metadata> {
+
+		// -- Parser API methods --
+
+		@Override
+		protected void typedParse(final DataHandle<Location> stream,
+			final Metadata meta, final SCIFIOConfig config) throws IOException,
+			FormatException
+		{
+			stream.setLittleEndian(true);
+			stream.seek(0);
+			final Header header = new Header();
+			if (stream.readString(16).startsWith(PTU_MAGIC)) {
+				parsePTU(stream, meta, header);
+			}
+			else parsePT3(stream, meta, header);
+
+			if (!PQDecoder.isSupported(meta.getRecordType())) {
+				throw new FormatException("Unsupported TTTR record type: 0x" +
+					Integer.toHexString(meta.getRecordType()) +
+					" (only T3 records can be imaged)");
+			}
+			final long available = (stream.length() - meta.getDataOffset()) /
+				PQDecoder.RECORD_BYTES;
+			if (meta.getRecords() <= 0 || meta.getRecords() > available) {
+				meta.setRecords(Math.max(0, available));
+			}
+			final int maxTimeBins = (int) ConfigUtils.getLong(config, TIME_BINS_KEY,
+				DEFAULT_TIME_BINS);
+			if (maxTimeBins < 1) {
+				throw new IllegalArgumentException("Invalid number of time bins: " +
+					maxTimeBins);
+			}
+
+			log().info("Scanning TTTR records");
+			final PQLayout layout;
+			try (final FileAccess access = new FileAccess(stream)) {
+				layout = PQLayout.scan(access, meta.getDataOffset(), meta
+					.getRecords(), meta.getRecordType(), marker(header.lineStart),
+					marker(header.lineStop), marker(header.frame));
+			}
+			if (layout.lines() == 0) {
+				throw new FormatException("No line markers in TTTR records");
+			}
+
+			final int dtimes = Math.max(1, layout.dtimes());
+			final int binning = (dtimes + maxTimeBins - 1) / maxTimeBins;
+			meta.setLayout(layout);
+			meta.setHeight(header.pixY > 0 ? header.pixY : layout.maxRows());
+			meta.setWidth((int) ConfigUtils.getLong(config, WIDTH_KEY,
+				header.pixX > 0 ? header.pixX : meta.getHeight()));
+			meta.setChannels(Math.max(1, layout.channels()));
+			meta.setTimeBinning(binning);
+			meta.setTimeBins((dtimes + binning - 1) / binning);
+
+			final MetaTable table = meta.getTable();
+			table.put("frames", layout.frames());
+			table.put("lines", layout.lines());
+			table.put("photons", layout.photons());
+		}
+
+		// -- Helper methods --
+
+		/** Parses the tagged header of a ".ptu" file. */
+		private static void parsePTU(final DataHandle<Location> stream,
+			final Metadata meta, final Header header) throws IOException,
+			FormatException
+		{
+			final MetaTable table = meta.getTable();
+			stream.seek(16);
+			while (true) {
+				if (stream.offset() + 48 > stream.length()) {
+					throw new FormatException("Truncated PTU header");
+				}
+				final String ident = cString(stream.readString(32));
+				final int idx = stream.readInt();
+				final int type = stream.readInt();
+				final long value = stream.readLong();
+				if (ident.equals("Header_End")) break;
+
+				final String key = idx < 0 ? ident : ident + "(" + idx + ")";
+				switch (type) {
+					case TY_EMPTY8:
+						break;
+					case TY_BOOL8:
+						table.put(key, value != 0);
+						break;
+					case TY_INT8:
+					case TY_BIT_SET64:
+					case TY_COLOR8:
+						table.put(key, value);
+						break;
+					case TY_FLOAT8:
+					case TY_TDATE_TIME:
+						table.put(key, Double.longBitsToDouble(value));
+						break;
+					case TY_ANSI_STRING:
+					case TY_WIDE_STRING:
+						final byte[] b = new byte[(int) value];
+						stream.readFully(b);
+						table.put(key, cString(new String(b, type == TY_ANSI_STRING
+							? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16LE)));
+						break;
+					case TY_FLOAT8_ARRAY:
+					case TY_BINARY_BLOB:
+						stream.seek(stream.offset() + value);
+						break;
+					default:
+						throw new FormatException("Unknown PTU tag type: 0x" + Integer
+							.toHexString(type));
+				}
+
+				switch (ident) {
+					case "TTResultFormat_TTTRRecType":
+						meta.setRecordType((int) value);
+						break;
+					case "TTResult_NumberOfRecords":
+						meta.setRecords(value);
+						break;
+					case "MeasDesc_GlobalResolution":
+						meta.setSyncPeriod(Double.longBitsToDouble(value) * 1e9);
+						break;
+					case "MeasDesc_Resolution":
+						meta.setResolution(Double.longBitsToDouble(value) * 1e9);
+						break;
+					case "ImgHdr_PixX":
+						header.pixX = (int) value;
+						break;
+					case "ImgHdr_PixY":
+						header.pixY = (int) value;
+						break;
+					case "ImgHdr_BiDirect":
+						meta.setBidirectional(value != 0);
+						break;
+					case "ImgHdr_LineStart":
+						header.lineStart = (int) value;
+						break;
+					case "ImgHdr_LineStop":
+						header.lineStop = (int) value;
+						break;
+					case "ImgHdr_Frame":
+						header.frame = (int) value;
+						break;
+				}
+			}
+			meta.setDataOffset(stream.offset());
+		}
+
+		/**
+		 * Parses the fixed header of a PicoHarp 300 ".pt3" file. Its image
+		 * header differs between instruments, so the image is laid out from the
+		 * default markers alone.
+		 */
+		private static void parsePT3(final DataHandle<Location> stream,
+			final Metadata meta, final Header header) throws IOException,
+			FormatException
+		{
+			final MetaTable table = meta.getTable();
+			stream.seek(16);
+			table.put("format version", cString(stream.readString(6)));
+			table.put("creator name", cString(stream.readString(18)));
+			table.put("creator version", cString(stream.readString(12)));
+			table.put("file time", cString(stream.readString(18)));
+
+			stream.seek(340);
+			final int boards = stream.readInt();
+			// NB: ActiveCurve lies between NumberOfBoards and MeasurementMode
+			stream.seek(348);
+			final int mode = stream.readInt();
+			if (mode != 3) {
+				throw new FormatException("Unsupported PT3 measurement mode: " +
+					mode + " (only T3 mode can be imaged)");
+			}
+			stream.seek(584);
+			meta.setResolution(stream.readFloat());
+
+			// NB: the TTTR header follows the board headers
+			final long tttr = 536 + 156L * boards;
+			stream.seek(tttr + 12);
+			final int syncRate = stream.readInt();
+			if (syncRate > 0) meta.setSyncPeriod(1e9 / syncRate);
+			stream.seek(tttr + 28);
+			meta.setRecords(stream.readInt() & 0xffffffffL);
+			final int imgHdrSize = stream.readInt();
+			meta.setDataOffset(tttr + 36 + 4L * imgHdrSize);
+			meta.setRecordType(PQDecoder.PICOHARP_T3);
+
+			table.put("number of boards", boards);
+			table.put("resolution", meta.getResolution());
+			table.put("sync rate", syncRate);
+		}
+
+		/** Gets the marker bits of the given 1-based marker, or 0 if none. */
+		private static int marker(final int marker) {
+			return marker > 0 ? 1 << (marker - 1) : 0;
+		}
+
+		/** Gets the given string up to its first NUL character. */
+		private static String cString(final String s) {
+			final int end = s.indexOf('\0');
+			return (end < 0 ? s : s.substring(0, end)).trim();
+		}
+
+		// -- Helper classes --
+
+		/** Image header values that do not go into the metadata. */
+		private static class Header {
+
+			private int pixX, pixY;
+
+			/** 1-based markers of line starts, line stops and frames. */
+			private int lineStart = 1, lineStop = 2, frame = 3;
+		}
+	}
+
+	/**
+	 * Reader for PicoQuant TTTR files. Planes are histogrammed from the records
+	 * when read; if the histograms of all channels fit within
+	 * {@link #CACHE_SIZE_KEY}, they are all built by the first read and kept.
+	 */
+	public static class Reader extends ByteArrayReader<Metadata> {
+
+		// -- Fields --
+
+		/** Thread-safe positional access to the file. */
+		private volatile FileAccess access;
+
+		/** Histograms of all channels, once built. */
+		private volatile short[][] histogram;
+
+		// -- AbstractReader Methods --
+
+		@Override
+		protected String[] createDomainArray() {
+			return new String[] { FormatTools.FLIM_DOMAIN };
+		}
+
+		// -- Reader API Methods --
+
+		@Override
+		public ByteArrayPlane openPlane(final int imageIndex, final long planeIndex,
+			final ByteArrayPlane plane, final Interval bounds,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final byte[] buf = plane.getBytes();
+			FormatTools.checkPlaneForReading(m, imageIndex, planeIndex, buf.length,
+				bounds);
+
+			final ImageMetadata iMeta = m.get(imageIndex);
+			final int lifetime = iMeta.getAxisIndex(SCIFIOAxes.LIFETIME);
+			final int t0 = (int) bounds.min(lifetime), //
+					t1 = (int) bounds.max(lifetime) + 1, //
+					x = (int) bounds.min(iMeta.getAxisIndex(Axes.X)), //
+					y = (int) bounds.min(iMeta.getAxisIndex(Axes.Y)), //
+					w = (int) bounds.dimension(iMeta.getAxisIndex(Axes.X)), //
+					h = (int) bounds.dimension(iMeta.getAxisIndex(Axes.Y));
+			final int channel = (int) planeIndex;
+			final ShortBuffer out = ByteBuffer.wrap(buf).order(
+				ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+
+			final short[][] all = getHistogram(config);
+			if (all != null) {
+				final short[] counts = all[channel];
+				final int timeBins = m.getTimeBins();
+				for (int row = 0; row < h; row++) {
+					for (int col = 0; col < w; col++) {
+						out.put(counts, ((y + row) * m.getWidth() + x + col) * timeBins +
+							t0, t1 - t0);
+					}
+				}
+				return plane;
+			}
+
+			final PQHistogram region = histogram(x, y, w, h, t0, t1, channel,
+				channel + 1, config);
+			for (final int count : region.get(channel)) {
+				out.put(saturate(count));
+			}
+			return plane;
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			histogram = null;
+			if (access != null) {
+				access.close();
+				access = null;
+			}
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Gets the histograms of all channels, building them on first use, or
+		 * null if they do not fit within the configured {@link #CACHE_SIZE_KEY}.
+		 */
+		private short[][] getHistogram(final SCIFIOConfig config)
+			throws IOException
+		{
+			short[][] all = histogram;
+			if (all != null) return all;
+
+			final Metadata m = getMetadata();
+			final int w = m.getWidth(), h = m.getHeight(), t = m.getTimeBins(),
+					c = m.getChannels();
+			final long size = PQHistogram.size(w, h, t, c, 2);
+			final long maxSize = ConfigUtils.getLong(config, CACHE_SIZE_KEY,
+				DEFAULT_CACHE_SIZE);
+			if (size > maxSize || size / 2 / c > Integer.MAX_VALUE) return null;
+
+			synchronized (this) {
+				if (histogram == null) {
+					log().debug("Histogramming " + m.getLayout().photons() +
+						" photons");
+					final PQHistogram counts = histogram(0, 0, w, h, 0, t, 0, c,
+						config);
+					final short[][] shorts = new short[c][];
+					for (int channel = 0; channel < c; channel++) {
+						final int[] ints = counts.get(channel);
+						shorts[channel] = new short[ints.length];
+						for (int i = 0; i < ints.length; i++) {
+							shorts[channel][i] = saturate(ints[i]);
+						}
+					}
+					histogram = shorts;
+				}
+				all = histogram;
+			}
+			return all;
+		}
+
+		/**
+		 * Histograms pixels [x, x + w) of rows [y, y + h), time bins [t0, t1)
+		 * and channels [c0, c1). The chunks of records are split into as many
+		 * contiguous runs as there are processors, or as there are accumulators
+		 * that fit within {@link #CACHE_SIZE_KEY}; each run is decoded on its
+		 * own thread, from the decoder state the layout recorded for its first
+		 * chunk, and the accumulators are then summed.
+		 */
+		private PQHistogram histogram(final int x, final int y, final int w,
+			final int h, final int t0, final int t1, final int c0, final int c1,
+			final SCIFIOConfig config) throws IOException
+		{
+			final Metadata m = getMetadata();
+			final PQLayout layout = m.getLayout();
+			final int chunks = layout.chunks();
+			int runs = 1;
+			if (ConfigUtils.getBoolean(config, PARALLEL_KEY, true)) {
+				final long size = Math.max(1, PQHistogram.size(w, h, t1 - t0, c1 -
+					c0, 4));
+				final long budget = ConfigUtils.getLong(config, CACHE_SIZE_KEY,
+					DEFAULT_CACHE_SIZE);
+				runs = (int) Math.max(1, Math.min(Math.min(Runtime.getRuntime()
+					.availableProcessors(), chunks), budget / size));
+			}
+
+			final FileAccess a = getAccess();
+			final PQHistogram[] parts = new PQHistogram[runs];
+			final int n = runs;
+			try {
+				IntStream.range(0, n).parallel().forEach(run -> {
+					final int first = (int) ((long) chunks * run / n), //
+							last = (int) ((long) chunks * (run + 1) / n);
+					final PQHistogram part = new PQHistogram(m, first, x, y, w, h, t0,
+						t1, c0, c1);
+					try {
+						layout.decode(a, m.getDataOffset(), m.getRecords(), m
+							.getRecordType(), first, last, part);
+					}
+					catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					parts[run] = part;
+				});
+			}
+			catch (final UncheckedIOException e) {
+				throw e.getCause();
+			}
+			for (int run = 1; run < n; run++) {
+				parts[0].add(parts[run]);
+				parts[run] = null;
+			}
+			return parts[0];
+		}
+
+		/** Gets the positional access to the file, opening it on first use. */
+		private FileAccess getAccess() throws IOException {
+			FileAccess a = access;
+			if (a == null) {
+				synchronized (this) {
+					if (access == null) access = new FileAccess(getHandle());
+					a = access;
+				}
+			}
+			return a;
+		}
+
+		/** Gets the given count as an unsigned 16-bit value, saturated. */
+		private static short saturate(final int count) {
+			return (short) Math.min(count, 0xffff);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+/**
+ * Accumulates the photons of part of a PicoQuant TTTR record stream into
+ * lifetime histograms, as they are decoded. Photons are placed in the scanned
+ * image by the lines of a {@link PQLayout}: the row is that of the current
+ * line, and the pixel is found from the sync count elapsed since the start of
+ * the line, in proportion to its duration. Photons outside of any line, such
+ * as those of the flyback, are dropped. All frames are summed.
+ * <p>
+ * Only the photons within a region of X, Y, time bin and channel are kept.
+ * Counts are plain 32-bit accumulators, so that the histograms of chunks
+ * decoded in parallel can be summed with {@link #add}; they are stored as in
+ * the planes of {@link PQFormat}, with the time bin varying fastest, then X
+ * and then Y.
+ * </p>
+ */
+class PQHistogram implements PQDecoder.Handler {
+
+	// -- Fields --
+
+	private final PQLayout layout;
+
+	private final int width;
+
+	/** Whether odd rows are scanned from right to left. */
+	private final boolean bidirectional;
+
+	/** Number of dtimes in each time bin. */
+	private final int binning;
+
+	private final int x0, y0, w, h, t0, t1, c0, c1;
+
+	/** Counts of each channel of the region. */
+	private final int[][] counts;
+
+	/** Number of lines started so far. */
+	private int lines;
+
+	// -- Constructor --
+
+	/**
+	 * Creates histograms of pixels [x0, x0 + w) of rows [y0, y0 + h), time bins
+	 * [t0, t1) and channels [c0, c1) of the given image, for records decoded
+	 * from the start of the given chunk.
+	 */
+	public PQHistogram(final PQFormat.Metadata meta, final int chunk,
+		final int x0, final int y0, final int w, final int h, final int t0,
+		final int t1, final int c0, final int c1)
+	{
+		layout = meta.getLayout();
+		width = meta.getWidth();
+		bidirectional = meta.isBidirectional();
+		binning = meta.getTimeBinning();
+		this.x0 = x0;
+		this.y0 = y0;
+		this.w = w;
+		this.h = h;
+		this.t0 = t0;
+		this.t1 = t1;
+		this.c0 = c0;
+		this.c1 = c1;
+		counts = new int[c1 - c0][w * h * (t1 - t0)];
+		lines = layout.linesBefore(chunk);
+	}
+
+	// -- PQHistogram methods --
+
+	/** Gets the counts of the given channel. */
+	public int[] get(final int channel) {
+		return counts[channel - c0];
+	}
+
+	/** Adds the counts of the given histogram, of the same region, to these. */
+	public void add(final PQHistogram other) {
+		for (int c = 0; c < counts.length; c++) {
+			final int[] a = counts[c], b = other.counts[c];
+			for (int i = 0; i < a.length; i++) {
+				a[i] += b[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes needed for the given region, at {@code bytes}
+	 * bytes per count.
+	 */
+	public static long size(final int w, final int h, final int timeBins,
+		final int channels, final int bytes)
+	{
+		return (long) w * h * timeBins * channels * bytes;
+	}
+
+	// -- Handler methods --
+
+	@Override
+	public void marker(final long sync, final int markers) {
+		if ((markers & layout.lineStartMarker()) != 0) lines++;
+	}
+
+	@Override
+	public void photon(final long sync, final int channel, final int dtime) {
+		if (channel < c0 || channel >= c1 || lines == 0) return;
+		final int line = lines - 1;
+		final int y = layout.row(line);
+		if (y < y0 || y >= y0 + h) return;
+		final long start = layout.start(line), stop = layout.stop(line);
+		if (sync < start || sync >= stop) return;
+		int x = (int) ((sync - start) * width / (stop - start));
+		if (bidirectional && (y & 1) != 0) x = width - 1 - x;
+		if (x < x0 || x >= x0 + w) return;
+		final int t = dtime / binning;
+		if (t < t0 || t >= t1) return;
+		counts[channel - c0][((y - y0) * w + x - x0) * (t1 - t0) + t - t0]++;
+	}
+}
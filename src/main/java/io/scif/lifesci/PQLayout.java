@@ -0,0 +1,252 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Scan layout of a PicoQuant TTTR record stream, found by one sequential pass
+ * over its records: the start and stop sync count and row of each line, as
+ * given by the line and frame markers, and the decoder state at the start of
+ * each chunk of {@link #CHUNK_RECORDS} records, so that chunks can then be
+ * histogrammed in parallel.
+ */
+class PQLayout implements PQDecoder.Handler {
+
+	// -- Constants --
+
+	/** Number of records in each chunk. */
+	public static final int CHUNK_RECORDS = 1024 * 1024;
+
+	// -- Fields --
+
+	private final int lineStartMarker, lineStopMarker, frameMarker;
+
+	/** Sync count of the start and stop of each line. */
+	private long[] starts = new long[1024], stops = new long[1024];
+
+	/** Row of each line within its frame. */
+	private int[] rows = new int[1024];
+
+	private int lines;
+
+	/** Row of the current line; -1 before the first line of a frame. */
+	private int row = -1;
+
+	private int frames, maxRows, maxChannel = -1, maxDtime = -1;
+
+	private long photons;
+
+	/** Shortest time between consecutive line starts. */
+	private long minLineTime = Long.MAX_VALUE;
+
+	private long[] chunkOverflows = new long[16];
+
+	private int[] chunkLines = new int[16];
+
+	private int chunks;
+
+	// -- Constructor --
+
+	/**
+	 * @param lineStartMarker - Marker bits of line starts.
+	 * @param lineStopMarker - Marker bits of line stops, or 0 if lines have no
+	 *          stop markers, in which case each line lasts for the shortest
+	 *          time between line starts.
+	 * @param frameMarker - Marker bits of frame starts.
+	 */
+	private PQLayout(final int lineStartMarker, final int lineStopMarker,
+		final int frameMarker)
+	{
+		this.lineStartMarker = lineStartMarker;
+		this.lineStopMarker = lineStopMarker;
+		this.frameMarker = frameMarker;
+	}
+
+	// -- PQLayout methods --
+
+	/** Gets the marker bits of line starts. */
+	public int lineStartMarker() {
+		return lineStartMarker;
+	}
+
+	/** Gets the number of lines. */
+	public int lines() {
+		return lines;
+	}
+
+	/** Gets the sync count of the start of the given line. */
+	public long start(final int line) {
+		return starts[line];
+	}
+
+	/** Gets the sync count of the stop of the given line. */
+	public long stop(final int line) {
+		return stops[line];
+	}
+
+	/** Gets the row of the given line within its frame. */
+	public int row(final int line) {
+		return rows[line];
+	}
+
+	/** Gets the number of frame markers. */
+	public int frames() {
+		return frames;
+	}
+
+	/** Gets the largest number of lines in a frame. */
+	public int maxRows() {
+		return maxRows;
+	}
+
+	/** Gets the number of channels that detected photons. */
+	public int channels() {
+		return maxChannel + 1;
+	}
+
+	/** Gets the number of dtimes up to the largest one detected. */
+	public int dtimes() {
+		return maxDtime + 1;
+	}
+
+	public long photons() {
+		return photons;
+	}
+
+	/** Gets the number of chunks. */
+	public int chunks() {
+		return chunks;
+	}
+
+	/**
+	 * Decodes chunks [first, last) of the given records, starting from the
+	 * decoder state recorded for chunk {@code first}. The handler is told how
+	 * many lines started before the first chunk by {@code linesBefore}.
+	 */
+	public void decode(final FileAccess access, final long dataOffset,
+		final long records, final int recordType, final int first, final int last,
+		final PQDecoder.Handler handler) throws IOException
+	{
+		final PQDecoder decoder = new PQDecoder(recordType, chunkOverflows[first]);
+		final byte[] buf = new byte[CHUNK_RECORDS * PQDecoder.RECORD_BYTES];
+		for (int chunk = first; chunk < last; chunk++) {
+			final long record = (long) chunk * CHUNK_RECORDS;
+			final int n = access.read(dataOffset + record * PQDecoder.RECORD_BYTES,
+				buf, 0, (int) Math.min(CHUNK_RECORDS, records - record) *
+					PQDecoder.RECORD_BYTES);
+			decoder.decode(buf, n, handler);
+		}
+	}
+
+	/** Gets the number of lines started before the given chunk. */
+	public int linesBefore(final int chunk) {
+		return chunkLines[chunk];
+	}
+
+	// -- Handler methods --
+
+	@Override
+	public void marker(final long sync, final int markers) {
+		if ((markers & frameMarker) != 0) {
+			frames++;
+			row = -1;
+		}
+		if ((markers & lineStopMarker) != 0 && lines > 0 &&
+			stops[lines - 1] < 0)
+		{
+			stops[lines - 1] = sync;
+		}
+		if ((markers & lineStartMarker) != 0) {
+			if (lines > 0 && sync > starts[lines - 1]) {
+				minLineTime = Math.min(minLineTime, sync - starts[lines - 1]);
+			}
+			if (lines == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * lines);
+				stops = Arrays.copyOf(stops, 2 * lines);
+				rows = Arrays.copyOf(rows, 2 * lines);
+			}
+			starts[lines] = sync;
+			stops[lines] = -1;
+			rows[lines] = ++row;
+			lines++;
+			maxRows = Math.max(maxRows, row + 1);
+		}
+	}
+
+	@Override
+	public void photon(final long sync, final int channel, final int dtime) {
+		photons++;
+		if (channel > maxChannel) maxChannel = channel;
+		if (dtime > maxDtime) maxDtime = dtime;
+	}
+
+	// -- Static utility methods --
+
+	/**
+	 * Scans the given records for their layout, reading them one chunk at a
+	 * time.
+	 */
+	public static PQLayout scan(final FileAccess access,
+		final long dataOffset, final long records, final int recordType,
+		final int lineStartMarker, final int lineStopMarker,
+		final int frameMarker) throws IOException
+	{
+		final PQLayout layout = new PQLayout(lineStartMarker, lineStopMarker,
+			frameMarker);
+		final PQDecoder decoder = new PQDecoder(recordType, 0);
+		final byte[] buf = new byte[CHUNK_RECORDS * PQDecoder.RECORD_BYTES];
+		for (long record = 0; record < records; record += CHUNK_RECORDS) {
+			layout.startChunk(decoder.getOverflow());
+			final int n = access.read(dataOffset + record * PQDecoder.RECORD_BYTES,
+				buf, 0, (int) Math.min(CHUNK_RECORDS, records - record) *
+					PQDecoder.RECORD_BYTES);
+			decoder.decode(buf, n, layout);
+		}
+		layout.finish();
+		return layout;
+	}
+
+	// -- Helper methods --
+
+	private void startChunk(final long overflow) {
+		if (chunks == chunkOverflows.length) {
+			chunkOverflows = Arrays.copyOf(chunkOverflows, 2 * chunks);
+			chunkLines = Arrays.copyOf(chunkLines, 2 * chunks);
+		}
+		chunkOverflows[chunks] = overflow;
+		chunkLines[chunks++] = lines;
+	}
+
+	/** Ends the lines without stop markers after the usual line time. */
+	private void finish() {
+		final long lineTime = minLineTime == Long.MAX_VALUE ? 1 : minLineTime;
+		for (int line = 0; line < lines; line++) {
+			if (stops[line] < 0) stops[line] = starts[line] + lineTime;
+		}
+	}
+}
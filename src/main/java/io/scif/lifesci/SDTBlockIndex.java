@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * SDTBlockIndex records where each data block of a Becker &amp; Hickl SDT file
+ * is stored, so that a block can be reached with a single seek rather than by
+ * following the chain of block headers from the first one.
+ */
+public class SDTBlockIndex {
+
+	// -- Fields --
+
+	/** Offset of the pixel data of each block, just past its header. */
+	private final long[] dataOffsets;
+
+	/** Length in bytes of the pixel data of each block. */
+	private final long[] lengths;
+
+	/** Measurement description block number of each block. */
+	private final short[] measDescBlockNos;
+
+	/** Block type of each block. */
+	private final int[] blockTypes;
+
+	// -- Constructors --
+
+	public SDTBlockIndex(final long[] dataOffsets, final long[] lengths,
+		final short[] measDescBlockNos)
+	{
+		this(dataOffsets, lengths, measDescBlockNos, new int[dataOffsets.length]);
+	}
+
+	public SDTBlockIndex(final long[] dataOffsets, final long[] lengths,
+		final short[] measDescBlockNos, final int[] blockTypes)
+	{
+		if (dataOffsets.length != lengths.length ||
+			dataOffsets.length != measDescBlockNos.length ||
+			dataOffsets.length != blockTypes.length)
+		{
+			throw new IllegalArgumentException("Mismatched block index arrays");
+		}
+		this.dataOffsets = dataOffsets;
+		this.lengths = lengths;
+		this.measDescBlockNos = measDescBlockNos;
+		this.blockTypes = blockTypes;
+	}
+
+	// -- SDTBlockIndex methods --
+
+	/** Gets the number of indexed data blocks. */
+	public int size() {
+		return dataOffsets.length;
+	}
+
+	/** Gets the file offset of the pixel data of the given block. */
+	public long getDataOffset(final int block) {
+		return dataOffsets[block];
+	}
+
+	/** Gets the length in bytes of the pixel data of the given block. */
+	public long getLength(final int block) {
+		return lengths[block];
+	}
+
+	/**
+	 * Gets the number of the measurement description block corresponding to the
+	 * given data block.
+	 */
+	public short getMeasDescBlockNo(final int block) {
+		return measDescBlockNos[block];
+	}
+
+	/** Gets the block type of the given block. */
+	public int getBlockType(final int block) {
+		return blockTypes[block];
+	}
+
+	/**
+	 * Whether the given block is stored compressed, as a zip archive holding
+	 * the pixel data.
+	 */
+	public boolean isCompressed(final int block) {
+		return (blockTypes[block] & SDTInfo.DATA_ZIPPED) != 0;
+	}
+
+	/** Whether any block is stored compressed. */
+	public boolean hasCompressed() {
+		for (int i = 0; i < blockTypes.length; i++) {
+			if (isCompressed(i)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the index of just the blocks of the given measurement description
+	 * block, in file order.
+	 */
+	public SDTBlockIndex select(final int measDescBlockNo) {
+		int n = 0;
+		for (int i = 0; i < measDescBlockNos.length; i++) {
+			if (measDescBlockNos[i] == measDescBlockNo) n++;
+		}
+		final long[] offsets = new long[n];
+		final long[] lens = new long[n];
+		final short[] nos = new short[n];
+		final int[] types = new int[n];
+		for (int i = 0, j = 0; i < measDescBlockNos.length; i++) {
+			if (measDescBlockNos[i] != measDescBlockNo) continue;
+			offsets[j] = dataOffsets[i];
+			lens[j] = lengths[i];
+			nos[j] = measDescBlockNos[i];
+			types[j++] = blockTypes[i];
+		}
+		return new SDTBlockIndex(offsets, lens, nos, types);
+	}
+
+	// -- Static utility methods --
+
+	/**
+	 * Walks the chain of data block headers, starting at
+	 * {@link SDTInfo#dataBlockOffs}, and records the location of every block.
+	 * The given {@link SDTInfo} is not modified. If the chain ends early (e.g.
+	 * for an aborted acquisition), only the blocks actually present are indexed.
+	 * <p>
+	 * Block headers store offsets as 32-bit values, which wrap around in files
+	 * larger than 4 GiB. The full 64-bit offset of each following block is
+	 * recovered from the end of the current block where possible, and otherwise
+	 * by assuming that blocks are stored in increasing file order.
+	 * </p>
+	 */
+	public static SDTBlockIndex build(final DataHandle<Location> handle,
+		final SDTInfo info) throws IOException
+	{
+		final long length = handle.length();
+		// NB: the count comes from the header, which may be corrupt; each block
+		// takes at least its header, which bounds how many the file can hold
+		final long maxCount = Math.max(0, length - info.dataBlockOffs) /
+			SDTInfo.BLOCK_HEADER_LENGTH;
+		final int count = (int) Math.min(Math.min(info.getDataBlockCount(),
+			maxCount), Integer.MAX_VALUE);
+
+		final long[] dataOffsets = new long[count];
+		final long[] lengths = new long[count];
+		final short[] measDescBlockNos = new short[count];
+		final int[] blockTypes = new int[count];
+
+		long headerOffs = info.dataBlockOffs;
+		int n = 0;
+		while (n < count && headerOffs > 0 &&
+			headerOffs + SDTInfo.BLOCK_HEADER_LENGTH <= length)
+		{
+			// NB: Same layout as SDTInfo#readBlockHeader, but read into locals so
+			// that the header state of the SDTInfo is left untouched.
+			handle.seek(headerOffs);
+			handle.readShort(); // blockNo
+			handle.readInt(); // dataOffs
+			final long nextLow = 0xffffffffL & handle.readInt();
+			blockTypes[n] = handle.readUnsignedShort();
+			measDescBlockNos[n] = handle.readShort();
+			handle.readInt(); // lblockNo
+			final long blockLength = 0xffffffffL & handle.readInt();
+
+			dataOffsets[n] = headerOffs + SDTInfo.BLOCK_HEADER_LENGTH;
+			final long nextBlockOffs = nextLow == 0 ? 0 : unwrap(nextLow,
+				dataOffsets[n], blockLength);
+			if (blockLength > 0) lengths[n] = blockLength;
+			else if (nextBlockOffs > headerOffs) {
+				lengths[n] = nextBlockOffs - dataOffsets[n];
+			}
+			else lengths[n] = length - dataOffsets[n];
+			n++;
+
+			headerOffs = nextBlockOffs;
+		}
+
+		if (n == count) {
+			return new SDTBlockIndex(dataOffsets, lengths, measDescBlockNos,
+				blockTypes);
+		}
+		return new SDTBlockIndex(Arrays.copyOf(dataOffsets, n), Arrays.copyOf(
+			lengths, n), Arrays.copyOf(measDescBlockNos, n), Arrays.copyOf(
+				blockTypes, n));
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Recovers the 64-bit offset of the next block header from its lower 32
+	 * bits, given the data offset and length of the current block.
+	 */
+	private static long unwrap(final long nextLow, final long dataOffset,
+		final long blockLength)
+	{
+		final long end = dataOffset + blockLength;
+		if (blockLength > 0 && (end & 0xffffffffL) == nextLow) return end;
+		long next = (dataOffset & ~0xffffffffL) | nextLow;
+		if (next < dataOffset) next += 1L << 32;
+		return next;
+	}
+}
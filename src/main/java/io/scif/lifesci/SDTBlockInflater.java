@@ -0,0 +1,287 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.FormatException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses SDT data blocks flagged as {@link SDTInfo#DATA_ZIPPED}, each
+ * holding a zip archive with a single entry of pixel data. Blocks are inflated
+ * on demand in fixed-size chunks through one reusable {@link Inflater}, which
+ * resumes where it stopped; recently used chunks are kept.
+ */
+class SDTBlockInflater implements Closeable {
+
+	// -- Constants --
+
+	/** Default size of the chunks into which blocks are inflated. */
+	static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+	/** Signature of a zip local file header. */
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+	/** Length of the fixed part of a zip local file header. */
+	private static final int LOCAL_HEADER_LENGTH = 30;
+
+	/** Zip compression method of entries stored uncompressed. */
+	private static final int STORED = 0;
+
+	/** Zip compression method of deflated entries. */
+	private static final int DEFLATED = 8;
+
+	/** Size of the window through which compressed bytes are streamed. */
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	// -- Fields --
+
+	private final FileAccess access;
+
+	private final int chunkSize;
+
+	/**
+	 * Decompressed chunks, keyed by the file offset of the data of their block
+	 * plus their number. Keys are unique, as each chunk takes at least one byte
+	 * of the compressed data of its block.
+	 */
+	private final SDTChunkCache chunks;
+
+	/** Inflater for raw deflate data, reused for every block. */
+	private final Inflater inflater = new Inflater(true);
+
+	/** Window of compressed input, reused for every block. */
+	private final byte[] window = new byte[WINDOW_SIZE];
+
+	/** File offset of the data of the block being inflated, or -1. */
+	private long cursorBlock = -1;
+
+	/** Number of the next chunk of the block being inflated. */
+	private long cursorChunk;
+
+	/** File offsets of the next and the end of the compressed input. */
+	private long cursorPos, cursorEnd;
+
+	/** Whether the padding byte that raw inflation may need has been given. */
+	private boolean padded;
+
+	// -- Constructor --
+
+	/**
+	 * @param capacity - Maximum number of bytes of decompressed chunks to keep.
+	 *          The most recently used chunk is always kept.
+	 */
+	public SDTBlockInflater(final FileAccess access, final long capacity) {
+		this(access, capacity, CHUNK_SIZE);
+	}
+
+	/** @param chunkSize - Size of the chunks into which blocks are inflated. */
+	SDTBlockInflater(final FileAccess access, final long capacity,
+		final int chunkSize)
+	{
+		this.access = access;
+		this.chunkSize = chunkSize;
+		chunks = new SDTChunkCache(capacity);
+	}
+
+	// -- SDTBlockInflater methods --
+
+	/**
+	 * Reads {@code len} bytes of the decompressed contents of the given block of
+	 * the index, starting {@code pos} bytes into them, into {@code b}.
+	 * 
+	 * @throws FormatException if the block is corrupt, or holds fewer than
+	 *           {@code pos + len} bytes.
+	 */
+	public void read(final SDTBlockIndex index, final int block, final long pos,
+		final byte[] b, final int off, final int len) throws FormatException,
+		IOException
+	{
+		int done = 0;
+		while (done < len) {
+			final long p = pos + done;
+			final long chunkNo = p / chunkSize;
+			final byte[] chunk = chunk(index, block, chunkNo);
+			final int start = (int) (p - chunkNo * chunkSize);
+			if (chunk == null || start >= chunk.length) {
+				throw new FormatException("Compressed data block " + block +
+					" holds only " + p + " bytes");
+			}
+			final int n = Math.min(len - done, chunk.length - start);
+			System.arraycopy(chunk, start, b, off + done, n);
+			done += n;
+		}
+	}
+
+	// -- Closeable methods --
+
+	@Override
+	public synchronized void close() {
+		chunks.clear();
+		inflater.end();
+		cursorBlock = -1;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the given chunk of the decompressed contents of the given block, or
+	 * null if the block ends before it. Entries stored uncompressed are read as
+	 * they are, without caching.
+	 */
+	private byte[] chunk(final SDTBlockIndex index, final int block,
+		final long chunkNo) throws FormatException, IOException
+	{
+		final long key = index.getDataOffset(block);
+		final byte[] cached = chunks.get(key + chunkNo);
+		if (cached != null) return cached;
+		synchronized (this) {
+			// another thread may have inflated the chunk in the meantime
+			byte[] chunk = chunks.get(key + chunkNo);
+			if (chunk != null) return chunk;
+			if (cursorBlock != key || cursorChunk > chunkNo) {
+				final long[] entry = entry(index, block);
+				if (entry[0] == STORED) {
+					final long start = entry[1] + chunkNo * chunkSize;
+					if (start >= entry[2]) return null;
+					chunk = new byte[(int) Math.min(chunkSize, entry[2] - start)];
+					if (access.read(start, chunk, 0, chunk.length) < chunk.length) {
+						throw new FormatException("Compressed data block " + block +
+							" is truncated");
+					}
+					return chunk;
+				}
+				// (re)start inflating the block from its beginning
+				inflater.reset();
+				cursorBlock = key;
+				cursorChunk = 0;
+				cursorPos = entry[1];
+				cursorEnd = entry[2];
+				padded = false;
+			}
+			while (cursorChunk <= chunkNo && !inflater.finished()) {
+				chunk = inflateChunk(block);
+				chunks.put(key + cursorChunk++, chunk);
+			}
+			return cursorChunk > chunkNo ? chunk : null;
+		}
+	}
+
+	/**
+	 * Reads the zip local file header of the given block.
+	 * 
+	 * @return the compression method, and the file offsets of the start and
+	 *         end of the entry data.
+	 */
+	private long[] entry(final SDTBlockIndex index, final int block)
+		throws FormatException, IOException
+	{
+		final long offset = index.getDataOffset(block);
+		final byte[] header = new byte[LOCAL_HEADER_LENGTH];
+		if (access.read(offset, header, 0,
+			LOCAL_HEADER_LENGTH) < LOCAL_HEADER_LENGTH)
+		{
+			throw new FormatException("Compressed data block " + block +
+				" is truncated");
+		}
+		final ByteBuffer buf = ByteBuffer.wrap(header).order(
+			ByteOrder.LITTLE_ENDIAN);
+		if (buf.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new FormatException("Compressed data block " + block +
+				" does not hold a zip entry");
+		}
+		final int method = buf.getShort(8) & 0xffff;
+		final long compressedSize = buf.getInt(18) & 0xffffffffL;
+		final int nameLength = buf.getShort(26) & 0xffff;
+		final int extraLength = buf.getShort(28) & 0xffff;
+		if (method != STORED && method != DEFLATED) {
+			throw new FormatException("Unsupported zip compression method " +
+				method + " in data block " + block);
+		}
+
+		final long start = offset + LOCAL_HEADER_LENGTH + nameLength + extraLength;
+		// sizes are zero when they follow the data in a data descriptor
+		final long blockEnd = Math.min(offset + index.getLength(block), access
+			.length());
+		final long end = compressedSize > 0 ? start + compressedSize : blockEnd;
+		return new long[] { method, start, Math.max(start, Math.min(end,
+			blockEnd)) };
+	}
+
+	/**
+	 * Inflates the next chunk of the block being inflated: {@code chunkSize}
+	 * bytes, or fewer at the end of the block.
+	 */
+	private byte[] inflateChunk(final int block) throws FormatException,
+		IOException
+	{
+		final byte[] chunk = new byte[chunkSize];
+		int n = 0;
+		try {
+			while (n < chunk.length && !inflater.finished()) {
+				if (inflater.needsInput()) {
+					if (cursorPos < cursorEnd) {
+						final int len = access.read(cursorPos, window, 0, (int) Math.min(
+							window.length, cursorEnd - cursorPos));
+						if (len <= 0) cursorEnd = cursorPos;
+						else {
+							inflater.setInput(window, 0, len);
+							cursorPos += len;
+						}
+					}
+					else if (!padded) {
+						// raw inflation may need one extra byte to finish the stream
+						inflater.setInput(new byte[1]);
+						padded = true;
+					}
+					else {
+						cursorBlock = -1;
+						throw new FormatException("Compressed data block " + block +
+							" is truncated");
+					}
+					continue;
+				}
+				n += inflater.inflate(chunk, n, chunk.length - n);
+				if (inflater.needsDictionary()) {
+					cursorBlock = -1;
+					throw new FormatException("Compressed data block " + block +
+						" requires a preset dictionary");
+				}
+			}
+		}
+		catch (final DataFormatException e) {
+			cursorBlock = -1;
+			throw new FormatException("Corrupt compressed data block " + block, e);
+		}
+		return n == chunk.length ? chunk : Arrays.copyOf(chunk, n);
+	}
+}
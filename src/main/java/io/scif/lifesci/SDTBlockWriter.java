@@ -0,0 +1,364 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * Streams the data blocks of an SDT file to its output handle, one block after
+ * the other, through one large buffer. Blocks may be stored compressed, as a
+ * zip archive with a single deflated entry, the layout that
+ * {@link SDTBlockInflater} reads. Block headers, and the zip local headers of
+ * compressed blocks, are patched with the lengths of each block when it ends.
+ */
+class SDTBlockWriter implements Closeable {
+
+	// -- Constants --
+
+	/**
+	 * Compression level that stores blocks uncompressed, as opposed to the
+	 * {@link Deflater} levels of compressed blocks.
+	 */
+	public static final int STORED = -2;
+
+	/** Size of the output buffer. */
+	private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	/** Length of the fixed part of a zip local file header. */
+	private static final int LOCAL_HEADER_LENGTH = 30;
+
+	/** Zip version needed to extract deflated entries. */
+	private static final short ZIP_VERSION = 20;
+
+	private static final short DEFLATED = 8;
+
+	/** Name of the zip entry of compressed blocks. */
+	private static final byte[] ENTRY_NAME = "data_block".getBytes(
+		StandardCharsets.US_ASCII);
+
+	// -- Fields --
+
+	private final DataHandle<Location> out;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** Number of bytes in {@link #buffer}. */
+	private int buffered;
+
+	/** File offset of the first byte of {@link #buffer}. */
+	private long bufferOffs;
+
+	/** Deflater of compressed blocks, or null if blocks are not compressed. */
+	private final Deflater deflater;
+
+	private final CRC32 crc = new CRC32();
+
+	/** Header of the current block, or null between blocks. */
+	private SDTInfo block;
+
+	/** File offset of the header of the current block. */
+	private long blockOffs;
+
+	/** Number of bytes of block data written to the current block. */
+	private long blockSize;
+
+	/** Header of the block ended last, or null before the first one ends. */
+	private SDTInfo lastBlock;
+
+	/** File offset of the header of the block ended last. */
+	private long lastBlockOffs;
+
+	// -- Constructor --
+
+	/**
+	 * @param out - Handle to write to, from its current offset on.
+	 * @param compressionLevel - {@link Deflater} level of compressed blocks, or
+	 *          {@link #STORED} to store blocks uncompressed.
+	 */
+	public SDTBlockWriter(final DataHandle<Location> out,
+		final int compressionLevel) throws IOException
+	{
+		this.out = out;
+		bufferOffs = out.offset();
+		deflater = compressionLevel == STORED ? null : new Deflater(
+			compressionLevel, true);
+	}
+
+	// -- SDTBlockWriter methods --
+
+	/** Whether blocks are stored compressed. */
+	public boolean isCompressed() {
+		return deflater != null;
+	}
+
+	/** Gets the file offset of the next byte to be written. */
+	public long offset() {
+		return bufferOffs + buffered;
+	}
+
+	/** Writes the given bytes as they are, outside of any block. */
+	public void write(final byte[] b) throws IOException {
+		put(b, 0, b.length);
+	}
+
+	/**
+	 * Writes the bytes of the given buffer up to its position, outside of any
+	 * block.
+	 */
+	public void write(final ByteBuffer b) throws IOException {
+		put(b.array(), b.arrayOffset(), b.position());
+	}
+
+	/**
+	 * Starts a data block, writing the given block header. Its data offset,
+	 * next block offset and block length are set when the block ends.
+	 */
+	public void startBlock(final SDTInfo header) throws IOException {
+		if (block != null) throw new IllegalStateException("Block not ended");
+		block = header;
+		blockOffs = offset();
+		blockSize = 0;
+		block.dataOffs = blockOffs + SDTInfo.BLOCK_HEADER_LENGTH;
+		block.nextBlockOffs = 0;
+		block.blockLength = 0;
+		write(blockHeader(block));
+		if (deflater != null) {
+			deflater.reset();
+			crc.reset();
+			write(localHeader(0, 0, 0));
+		}
+	}
+
+	/** Writes {@code len} bytes of data to the current block. */
+	public void writeBlock(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		blockSize += len;
+		if (deflater == null) {
+			put(b, off, len);
+			return;
+		}
+		crc.update(b, off, len);
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			deflate();
+		}
+	}
+
+	/** Writes {@code len} zero bytes of data to the current block. */
+	public void padBlock(final int len) throws IOException {
+		final byte[] zeros = new byte[Math.min(len, 4096)];
+		for (int n = 0; n < len; n += zeros.length) {
+			writeBlock(zeros, 0, Math.min(zeros.length, len - n));
+		}
+	}
+
+	/**
+	 * Ends the current block, completing its zip archive if compressed, and
+	 * patches its headers with its actual lengths.
+	 * 
+	 * @param last - Whether no block follows, so the block header points to no
+	 *          next block.
+	 * @return the length of the block data, past its block header.
+	 */
+	public long endBlock(final boolean last) throws IOException {
+		final long dataOffs = block.dataOffs;
+		if (deflater != null) {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			final long compressedSize = offset() - dataOffs - LOCAL_HEADER_LENGTH -
+				ENTRY_NAME.length;
+			if (blockSize > 0xffffffffL || compressedSize > 0xffffffffL) {
+				throw new IOException("Compressed data block of " + blockSize +
+					" bytes is too large");
+			}
+			final int crc32 = (int) crc.getValue();
+			final long centralOffs = offset() - dataOffs;
+			write(centralHeader(crc32, compressedSize, blockSize));
+			write(endRecord(offset() - dataOffs - centralOffs, centralOffs));
+			patch(dataOffs, localHeader(crc32, compressedSize, blockSize));
+		}
+		final long length = offset() - dataOffs;
+		if (!last) block.nextBlockOffs = offset();
+		// NB: lengths of 4 GiB and more do not fit; readers then fall back to
+		// the next block offset or the end of the file
+		block.blockLength = length > 0xffffffffL ? 0 : length;
+		patch(blockOffs, blockHeader(block));
+		lastBlock = block;
+		lastBlockOffs = blockOffs;
+		block = null;
+		return length;
+	}
+
+	/**
+	 * Makes the block ended last point to no next block, e.g. when fewer blocks
+	 * are written than planned.
+	 */
+	public void endChain() throws IOException {
+		if (lastBlock == null || lastBlock.nextBlockOffs == 0) return;
+		lastBlock.nextBlockOffs = 0;
+		patch(lastBlockOffs, blockHeader(lastBlock));
+	}
+
+	/**
+	 * Overwrites bytes already written, at the given file offset, with the
+	 * given ones.
+	 */
+	public void patch(final long pos, final ByteBuffer b) throws IOException {
+		if (pos >= bufferOffs) {
+			System.arraycopy(b.array(), b.arrayOffset(), buffer, (int) (pos -
+				bufferOffs), b.position());
+			return;
+		}
+		flush();
+		out.seek(pos);
+		out.write(b.array(), b.arrayOffset(), b.position());
+		out.seek(bufferOffs);
+	}
+
+	/** Writes the buffered bytes to the output handle. */
+	public void flush() throws IOException {
+		if (buffered == 0) return;
+		out.seek(bufferOffs);
+		out.write(buffer, 0, buffered);
+		bufferOffs += buffered;
+		buffered = 0;
+	}
+
+	// -- Closeable methods --
+
+	/** Flushes the buffered bytes and releases the deflater. */
+	@Override
+	public void close() throws IOException {
+		flush();
+		if (deflater != null) deflater.end();
+	}
+
+	// -- Helper methods --
+
+	private void put(final byte[] b, final int off, final int len)
+		throws IOException
+	{
+		int n = 0;
+		while (n < len) {
+			if (buffered == buffer.length) flush();
+			final int count = Math.min(len - n, buffer.length - buffered);
+			System.arraycopy(b, off + n, buffer, buffered, count);
+			buffered += count;
+			n += count;
+		}
+	}
+
+	/** Deflates pending input straight into the output buffer. */
+	private void deflate() throws IOException {
+		if (buffered == buffer.length) flush();
+		buffered += deflater.deflate(buffer, buffered, buffer.length - buffered);
+	}
+
+	private static ByteBuffer blockHeader(final SDTInfo header) {
+		final ByteBuffer b = allocate(SDTInfo.BLOCK_HEADER_LENGTH);
+		header.writeBlockHeader(b);
+		return b;
+	}
+
+	private static ByteBuffer localHeader(final int crc32,
+		final long compressedSize, final long size)
+	{
+		final ByteBuffer b = allocate(LOCAL_HEADER_LENGTH + ENTRY_NAME.length);
+		b.putInt(LOCAL_HEADER_SIGNATURE);
+		b.putShort(ZIP_VERSION);
+		b.putShort((short) 0); // flags
+		b.putShort(DEFLATED);
+		b.putInt(0); // modification time and date
+		b.putInt(crc32);
+		b.putInt((int) compressedSize);
+		b.putInt((int) size);
+		b.putShort((short) ENTRY_NAME.length);
+		b.putShort((short) 0); // extra field length
+		b.put(ENTRY_NAME);
+		return b;
+	}
+
+	private static ByteBuffer centralHeader(final int crc32,
+		final long compressedSize, final long size)
+	{
+		final ByteBuffer b = allocate(46 + ENTRY_NAME.length);
+		b.putInt(CENTRAL_HEADER_SIGNATURE);
+		b.putShort(ZIP_VERSION); // version made by
+		b.putShort(ZIP_VERSION); // version needed to extract
+		b.putShort((short) 0); // flags
+		b.putShort(DEFLATED);
+		b.putInt(0); // modification time and date
+		b.putInt(crc32);
+		b.putInt((int) compressedSize);
+		b.putInt((int) size);
+		b.putShort((short) ENTRY_NAME.length);
+		b.putShort((short) 0); // extra field length
+		b.putShort((short) 0); // comment length
+		b.putShort((short) 0); // disk number
+		b.putShort((short) 0); // internal attributes
+		b.putInt(0); // external attributes
+		b.putInt(0); // offset of the local header
+		b.put(ENTRY_NAME);
+		return b;
+	}
+
+	private static ByteBuffer endRecord(final long centralSize,
+		final long centralOffs)
+	{
+		final ByteBuffer b = allocate(22);
+		b.putInt(END_SIGNATURE);
+		b.putShort((short) 0); // disk number
+		b.putShort((short) 0); // disk with the central directory
+		b.putShort((short) 1); // entries on this disk
+		b.putShort((short) 1); // entries
+		b.putInt((int) centralSize);
+		b.putInt((int) centralOffs);
+		b.putShort((short) 0); // comment length
+		return b;
+	}
+
+	private static ByteBuffer allocate(final int length) {
+		return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
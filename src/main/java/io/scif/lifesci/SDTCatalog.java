@@ -0,0 +1,430 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * A catalog of SDT files: the dimensions, acquisition details and data layout
+ * of each measurement of each file, as read from its headers, keyed by the
+ * absolute path of the file. Catalogs can be saved to and loaded from a
+ * compact binary index file.
+ * 
+ * @see SDTCatalogService
+ */
+public class SDTCatalog {
+
+	// -- Constants --
+
+	/** Magic number of catalog index files: "SDTC". */
+	private static final int MAGIC = 0x53445443;
+
+	private static final int VERSION = 2;
+
+	// -- Nested classes --
+
+	/** How the pixel data of an SDT measurement is stored. */
+	public enum Layout {
+			/** All planes in a single data block. */
+			SINGLE_BLOCK,
+			/** FIFO image mode: one or more whole planes per data block. */
+			FIFO_IMAGE,
+			/** One data block per pixel, holding the decays of all channels. */
+			BLOCK_PER_PIXEL
+	}
+
+	/**
+	 * Catalog entry of a single measurement of an SDT file, which the reader
+	 * presents as one image.
+	 */
+	public static class Measurement {
+
+		private final int width, height, timeBins, channels;
+		private final short measMode;
+		private final String modSerNo, date, time;
+		private final float tacR;
+		private final short tacG;
+		private final long dataBlocks;
+		private final Layout layout;
+
+		/**
+		 * @param info - Header of the measurement, as given by
+		 *          {@link SDTInfo#forMeasDescBlock} for files that hold several
+		 *          measurements.
+		 */
+		public Measurement(final SDTInfo info) {
+			width = info.width;
+			height = info.height;
+			timeBins = info.timeBins;
+			channels = info.channels;
+			measMode = info.measMode;
+			modSerNo = info.modSerNo;
+			date = info.date;
+			time = info.time;
+			tacR = info.tacR;
+			tacG = info.tacG;
+			dataBlocks = info.getDataBlockCount();
+			if (info.measMode == SDTInfo.FIFO_IMAGE_MODE) layout = Layout.FIFO_IMAGE;
+			else if (info.isBlockPerPixel()) layout = Layout.BLOCK_PER_PIXEL;
+			else layout = Layout.SINGLE_BLOCK;
+		}
+
+		private Measurement(final DataInputStream in) throws IOException {
+			width = in.readInt();
+			height = in.readInt();
+			timeBins = in.readInt();
+			channels = in.readInt();
+			measMode = in.readShort();
+			modSerNo = readString(in);
+			date = readString(in);
+			time = readString(in);
+			tacR = in.readFloat();
+			tacG = in.readShort();
+			dataBlocks = in.readLong();
+			layout = Layout.values()[in.readByte()];
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getTimeBins() {
+			return timeBins;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		public short getMeasMode() {
+			return measMode;
+		}
+
+		public String getModSerNo() {
+			return modSerNo;
+		}
+
+		public String getDate() {
+			return date;
+		}
+
+		public String getTime() {
+			return time;
+		}
+
+		public float getTacR() {
+			return tacR;
+		}
+
+		public short getTacG() {
+			return tacG;
+		}
+
+		/** Gets the full range of the lifetime axis, in ns. */
+		public double getTimeBase() {
+			return 1e9 * tacR / tacG;
+		}
+
+		/** Gets the number of data blocks of this measurement. */
+		public long getDataBlocks() {
+			return dataBlocks;
+		}
+
+		public Layout getLayout() {
+			return layout;
+		}
+
+		private void write(final DataOutputStream out) throws IOException {
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(timeBins);
+			out.writeInt(channels);
+			out.writeShort(measMode);
+			writeString(out, modSerNo);
+			writeString(out, date);
+			writeString(out, time);
+			out.writeFloat(tacR);
+			out.writeShort(tacG);
+			out.writeLong(dataBlocks);
+			out.writeByte(layout.ordinal());
+		}
+	}
+
+	/**
+	 * Catalog entry of a single SDT file: its measurements, in the order of
+	 * the images the reader makes of them. The measurement getters of the
+	 * entry itself describe its first measurement.
+	 */
+	public static class Entry {
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final List<Measurement> measurements;
+
+		public Entry(final File file, final SDTInfo info) {
+			this(file, Collections.singletonList(info));
+		}
+
+		/**
+		 * @param infos - Headers of the measurements of the file, at least one.
+		 */
+		public Entry(final File file, final List<SDTInfo> infos) {
+			if (infos.isEmpty()) {
+				throw new IllegalArgumentException("No measurements: " + file);
+			}
+			path = file.getAbsolutePath();
+			size = file.length();
+			lastModified = file.lastModified();
+			final List<Measurement> list = new ArrayList<>(infos.size());
+			for (final SDTInfo info : infos) {
+				list.add(new Measurement(info));
+			}
+			measurements = Collections.unmodifiableList(list);
+		}
+
+		private Entry(final DataInputStream in) throws IOException {
+			path = in.readUTF();
+			size = in.readLong();
+			lastModified = in.readLong();
+			final int count = in.readInt();
+			if (count < 1) throw new IOException("Invalid measurement count");
+			final List<Measurement> list = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				list.add(new Measurement(in));
+			}
+			measurements = Collections.unmodifiableList(list);
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/** Gets the measurements of the file, one per image. */
+		public List<Measurement> getMeasurements() {
+			return measurements;
+		}
+
+		public int getWidth() {
+			return measurements.get(0).getWidth();
+		}
+
+		public int getHeight() {
+			return measurements.get(0).getHeight();
+		}
+
+		public int getTimeBins() {
+			return measurements.get(0).getTimeBins();
+		}
+
+		public int getChannels() {
+			return measurements.get(0).getChannels();
+		}
+
+		public short getMeasMode() {
+			return measurements.get(0).getMeasMode();
+		}
+
+		public String getModSerNo() {
+			return measurements.get(0).getModSerNo();
+		}
+
+		public String getDate() {
+			return measurements.get(0).getDate();
+		}
+
+		public String getTime() {
+			return measurements.get(0).getTime();
+		}
+
+		public float getTacR() {
+			return measurements.get(0).getTacR();
+		}
+
+		public short getTacG() {
+			return measurements.get(0).getTacG();
+		}
+
+		/** Gets the full range of the lifetime axis, in ns. */
+		public double getTimeBase() {
+			return measurements.get(0).getTimeBase();
+		}
+
+		/** Gets the number of data blocks of the whole file. */
+		public long getDataBlocks() {
+			long blocks = 0;
+			for (final Measurement measurement : measurements) {
+				blocks += measurement.getDataBlocks();
+			}
+			return blocks;
+		}
+
+		public Layout getLayout() {
+			return measurements.get(0).getLayout();
+		}
+
+		/**
+		 * Whether this entry is up to date with the given file: its size and
+		 * modification time are unchanged.
+		 */
+		public boolean isCurrent(final File file) {
+			return file.length() == size && file.lastModified() == lastModified;
+		}
+
+		private void write(final DataOutputStream out) throws IOException {
+			out.writeUTF(path);
+			out.writeLong(size);
+			out.writeLong(lastModified);
+			out.writeInt(measurements.size());
+			for (final Measurement measurement : measurements) {
+				measurement.write(out);
+			}
+		}
+	}
+
+	// -- Fields --
+
+	/** Entries by absolute path. */
+	private final Map<String, Entry> entries = new TreeMap<>();
+
+	// -- SDTCatalog methods --
+
+	/** Gets the number of cataloged files. */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Gets all entries, ordered by path. */
+	public Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/** Gets the entry of the given file, or null if it is not cataloged. */
+	public Entry get(final File file) {
+		return entries.get(file.getAbsolutePath());
+	}
+
+	/** Gets the entries matching the given condition, ordered by path. */
+	public List<Entry> find(final Predicate<? super Entry> condition) {
+		final List<Entry> found = new ArrayList<>();
+		for (final Entry entry : entries.values()) {
+			if (condition.test(entry)) found.add(entry);
+		}
+		return found;
+	}
+
+	/** Adds the given entry, replacing any entry of the same file. */
+	public void put(final Entry entry) {
+		entries.put(entry.getPath(), entry);
+	}
+
+	/** Removes the entry of the given file, if any. */
+	public void remove(final File file) {
+		entries.remove(file.getAbsolutePath());
+	}
+
+	/** Saves this catalog to the given index file, replacing it atomically. */
+	public void save(final File file) throws IOException {
+		final File temp = new File(file.getPath() + ".tmp");
+		try {
+			try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (final Entry entry : entries.values()) {
+					entry.write(out);
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/** Loads a catalog from the given index file. */
+	public static SDTCatalog load(final File file) throws IOException {
+		try (final DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an SDT catalog: " + file);
+			}
+			final SDTCatalog catalog = new SDTCatalog();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				catalog.put(new Entry(in));
+			}
+			return catalog;
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void writeString(final DataOutputStream out,
+		final String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null) out.writeUTF(s);
+	}
+
+	private static String readString(final DataInputStream in)
+		throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
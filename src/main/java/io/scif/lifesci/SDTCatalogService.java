@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.service.SciJavaService;
+
+/**
+ * Interface for services that catalog collections of SDT files.
+ * 
+ * @see SDTCatalog
+ */
+public interface SDTCatalogService extends SciJavaService {
+
+	/**
+	 * Catalogs every {@code .sdt} file in the given directory tree, reading the
+	 * headers of several files at once. Entries of {@code previous} whose files
+	 * are unchanged are reused without reading their headers again; files that
+	 * cannot be read are left out.
+	 * 
+	 * @param previous - Catalog to update, or null to read every file.
+	 */
+	SDTCatalog scan(File root, SDTCatalog previous) throws IOException;
+
+	/**
+	 * Updates the catalog saved in the given index file, if any, with the
+	 * current contents of the given directory tree, and saves it back.
+	 */
+	SDTCatalog update(File root, File index) throws IOException;
+
+	/** Gets the maximum number of headers read at once. */
+	int getParallelism();
+
+	/** Sets the maximum number of headers read at once. */
+	void setParallelism(int parallelism);
+}
@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.ImageMetadata;
+import io.scif.config.SCIFIOConfig;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Fills the cells of a cached cell image of an SDT image, one block of a
+ * single plane at a time, reading the values straight into the storage array
+ * of each cell.
+ * 
+ * @see SDTFormat.Reader#openCachedImg
+ */
+class SDTCellLoader implements CellLoader<UnsignedShortType> {
+
+	// -- Fields --
+
+	private final SDTFormat.Reader reader;
+
+	private final int imageIndex;
+
+	private final SCIFIOConfig config;
+
+	// -- Constructor --
+
+	public SDTCellLoader(final SDTFormat.Reader reader, final int imageIndex,
+		final SCIFIOConfig config)
+	{
+		this.reader = reader;
+		this.imageIndex = imageIndex;
+		this.config = config;
+	}
+
+	// -- CellLoader methods --
+
+	@Override
+	public void load(final SingleCellArrayImg<UnsignedShortType, ?> cell)
+		throws Exception
+	{
+		final ImageMetadata iMeta = reader.getMetadata().get(imageIndex);
+		final int planar = iMeta.getPlanarAxisCount();
+		final long[] lengths = iMeta.getAxesLengths();
+
+		// bounds within the plane
+		final long[] min = new long[planar];
+		final long[] max = new long[planar];
+		for (int d = 0; d < planar; d++) {
+			min[d] = cell.min(d);
+			max[d] = cell.max(d);
+		}
+
+		// cells are one plane deep along the non-planar axes
+		long planeIndex = 0;
+		for (int d = lengths.length - 1; d >= planar; d--) {
+			planeIndex = planeIndex * lengths[d] + cell.min(d);
+		}
+
+		final short[] values = (short[]) ((ArrayDataAccess<?>) cell.update(null))
+			.getCurrentStorageArray();
+		reader.openShortPlane(imageIndex, planeIndex, new FinalInterval(min, max),
+			values, config);
+	}
+}
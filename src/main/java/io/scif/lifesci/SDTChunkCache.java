@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used cache of chunks of SDT file data, such as rows or pixel
+ * blocks, keyed by their offset in the file and bounded by their total size.
+ * Safe for concurrent use.
+ */
+class SDTChunkCache {
+
+	// -- Fields --
+
+	/** Maximum total size of the cached chunks, in bytes. */
+	private final long capacity;
+
+	/** Total size of the cached chunks, in bytes. */
+	private long size;
+
+	/** Cached chunks, least recently used first. */
+	private final LinkedHashMap<Long, byte[]> chunks =
+		new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+
+	// -- Constructor --
+
+	public SDTChunkCache(final long capacity) {
+		this.capacity = capacity;
+	}
+
+	// -- SDTChunkCache methods --
+
+	/** Gets the chunk at the given offset, or null if it is not cached. */
+	public synchronized byte[] get(final long offset) {
+		return chunks.get(offset);
+	}
+
+	/**
+	 * Caches the chunk at the given offset, evicting the least recently used
+	 * chunks as needed. The newest chunk is always kept, even if it is larger
+	 * than the whole cache, so that it can at least be reused by the next
+	 * request.
+	 */
+	public synchronized void put(final long offset, final byte[] chunk) {
+		final byte[] old = chunks.put(offset, chunk);
+		if (old != null) size -= old.length;
+		size += chunk.length;
+		final Iterator<byte[]> iter = chunks.values().iterator();
+		while (size > capacity && chunks.size() > 1) {
+			size -= iter.next().length;
+			iter.remove();
+		}
+	}
+
+	/** Discards all cached chunks. */
+	public synchronized void clear() {
+		chunks.clear();
+		size = 0;
+	}
+}
@@ -25,28 +25,56 @@
 
 package io.scif.lifesci;
 
+import io.scif.AbstractChecker;
 import io.scif.AbstractFormat;
 import io.scif.AbstractMetadata;
 import io.scif.AbstractParser;
+import io.scif.AbstractWriter;
 import io.scif.ByteArrayPlane;
 import io.scif.ByteArrayReader;
 import io.scif.Format;
 import io.scif.FormatException;
 import io.scif.ImageMetadata;
+import io.scif.MetaTable;
+import io.scif.MetadataLevel;
+import io.scif.Plane;
+import io.scif.common.Constants;
 import io.scif.config.SCIFIOConfig;
 import io.scif.img.axes.SCIFIOAxes;
 import io.scif.util.FormatTools;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
 import net.imagej.axis.CalibratedAxis;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.DiskCachedCellImgOptions.CacheType;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.BytesLocation;
+import org.scijava.io.location.FileLocation;
 import org.scijava.io.location.Location;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
-import org.scijava.util.Bytes;
 
 /**
  * SDTReader is the file format reader for Becker &amp; Hickl SPC-Image SDT
@@ -58,6 +86,105 @@ import org.scijava.util.Bytes;
 @Plugin(type = Format.class)
 public class SDTFormat extends AbstractFormat {
 
+	// -- Constants --
+
+	/**
+	 * {@link SCIFIOConfig} key for the maximum number of bytes the {@link Reader}
+	 * may use to cache data stored as one block per pixel, and to keep chunks
+	 * of decompressed data blocks. Values are {@link Number}s; a size of 0
+	 * disables the per-pixel cache and keeps only the last decompressed chunk.
+	 */
+	public static final String CACHE_SIZE_KEY = "sdt.cacheSize";
+
+	/** Default value for {@link #CACHE_SIZE_KEY}: 256 MiB. */
+	public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * {@link SCIFIOConfig} key enabling memory-mapped reading of single-block
+	 * files on local disk. Value is a {@link Boolean}; false by default.
+	 */
+	public static final String MEMORY_MAP_KEY = "sdt.memoryMap";
+
+	/**
+	 * {@link SCIFIOConfig} key for the first lifetime bin summed into merged
+	 * intensity planes, counted in bins of the {@link SCIFIOAxes#LIFETIME} axis
+	 * (i.e. after any time binning). Values are {@link Number}s; 0 by default.
+	 * To gate the
+	 * decays of unmerged planes, restrict the {@link SCIFIOAxes#LIFETIME} bounds
+	 * of the requested {@link Interval} instead.
+	 */
+	public static final String GATE_START_KEY = "sdt.gateStart";
+
+	/**
+	 * {@link SCIFIOConfig} key for the lifetime bin after the last one summed
+	 * into merged intensity planes, counted in bins of the
+	 * {@link SCIFIOAxes#LIFETIME} axis. Values are {@link Number}s; the number
+	 * of bins by default.
+	 */
+	public static final String GATE_END_KEY = "sdt.gateEnd";
+
+	/**
+	 * {@link SCIFIOConfig} key for the harmonic of the repetition frequency at
+	 * which {@link ImageMode#PHASOR} coordinates are computed. Values are
+	 * {@link Number}s; 1 by default.
+	 */
+	public static final String PHASOR_HARMONIC_KEY = "sdt.phasorHarmonic";
+
+	/**
+	 * {@link SCIFIOConfig} key for the excitation repetition period, in ns, of
+	 * {@link ImageMode#PHASOR} coordinates. Values are {@link Number}s; the time
+	 * base (the full range of the {@link SCIFIOAxes#LIFETIME} axis) by default.
+	 */
+	public static final String PHASOR_PERIOD_KEY = "sdt.phasorPeriod";
+
+	/**
+	 * {@link SCIFIOConfig} key controlling whether derived planes are computed on
+	 * several threads, one row at a time. Value is a {@link Boolean}; true by
+	 * default.
+	 */
+	public static final String PARALLEL_KEY = "sdt.parallel";
+
+	/**
+	 * {@link SCIFIOConfig} key for a directory in which to keep an index of the
+	 * header of each SDT file opened from local disk. Files whose path, size
+	 * and modification time match their index are reopened without reading
+	 * their headers again. Value is a {@link File} or a path {@link String}; no
+	 * index is kept by default.
+	 */
+	public static final String INDEX_CACHE_KEY = "sdt.indexCache";
+
+	/**
+	 * Axis of {@link ImageMode#PHASOR} images, holding the G, S and intensity
+	 * components in that order.
+	 */
+	public static final AxisType PHASOR = Axes.get("Phasor");
+
+	/** Kinds of image that can be read from the lifetime decays. */
+	public enum ImageMode {
+			/** Unmodified decays, along a {@link SCIFIOAxes#LIFETIME} axis. */
+			DECAY,
+			/** Decays summed into single intensity values. */
+			INTENSITY,
+			/**
+			 * {@link FormatTools#FLOAT} phasor coordinates G and S of each decay,
+			 * plus its intensity, along the {@link #PHASOR} axis.
+			 */
+			PHASOR,
+			/**
+			 * {@link FormatTools#FLOAT} mean photon arrival time of each decay, in
+			 * ns from the start of the time gate: the first moment of the decay.
+			 */
+			MEAN_ARRIVAL_TIME,
+			/**
+			 * {@link FormatTools#FLOAT} lifetime of each decay, in ns, by rapid
+			 * lifetime determination: the time gate is split into two equal halves
+			 * D0 and D1, and the lifetime is {@code dt / ln(D0 / D1)} for halves
+			 * {@code dt} wide. Decays whose second half is empty or not dimmer
+			 * than the first (D1 == 0 or D0 <= D1) have a lifetime of 0.
+			 */
+			RAPID_LIFETIME
+	}
+
 	// -- Format API Methods --
 
 	@Override
@@ -72,6 +199,29 @@ public class SDTFormat extends AbstractFormat {
 
 	// -- Nested Classes --
 
+	/**
+	 * Checks for SDT files by suffix, or else by the checksum or validity flag
+	 * of the 42-byte file header.
+	 */
+	public static class Checker extends AbstractChecker {
+
+		// -- Checker API Methods --
+
+		@Override
+		public boolean suffixNecessary() {
+			return false;
+		}
+
+		@Override
+		public boolean isFormat(final DataHandle<Location> handle)
+			throws IOException
+		{
+			if (handle.length() < SDTInfo.HEADER_LENGTH) return false;
+			handle.setLittleEndian(true);
+			return SDTInfo.readFileHeader(handle).isHeaderValid();
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -82,8 +232,20 @@ public class SDTFormat extends AbstractFormat {
 		/** Object containing SDT header information. */
 		private SDTInfo info;
 
+		/** Location of each data block in the file. */
+		private SDTBlockIndex blockIndex;
+
+		/**
+		 * Header of each image, for files holding several measurements; null if
+		 * the file is read as a single image.
+		 */
+		private SDTInfo[] imageInfos;
+
+		/** Data blocks of each image, for files holding several measurements. */
+		private SDTBlockIndex[] imageBlockIndices;
+
 		/** Offset to binary data. */
-		private int binOffset;
+		private long binOffset;
 
 		/** Number of time bins in lifetime histogram. */
 		private int timeBins;
@@ -91,11 +253,23 @@ public class SDTFormat extends AbstractFormat {
 		/** Number of spectral channels. */
 		private int channels;
 
-		/** Whether to combine lifetime bins into single intensity image planes. */
-		private boolean mergeIntensity = false;
+		/** Kind of image planes read from the decays. */
+		private ImageMode imageMode = ImageMode.DECAY;
+
+		/** Pixel type of merged intensity image planes. */
+		private int intensityPixelType = FormatTools.UINT16;
+
+		/** Number of adjacent lifetime bins combined into each reported bin. */
+		private int timeBinning = 1;
+
+		/** Width and height of the pixel blocks combined into each pixel. */
+		private int spatialBinning = 1;
 
 		private double timeBase;
 
+		/** Whether the header fields have yet to be put into the table. */
+		private volatile boolean tablePending;
+
 		// -- SDT field getters/setters --
 
 		public double getTimeBase() {
@@ -114,11 +288,51 @@ public class SDTFormat extends AbstractFormat {
 			this.info = info;
 		}
 
-		public int getBinOffset() {
+		public SDTBlockIndex getBlockIndex() {
+			return blockIndex;
+		}
+
+		public void setBlockIndex(final SDTBlockIndex blockIndex) {
+			this.blockIndex = blockIndex;
+		}
+
+		/**
+		 * Gets the header of the given image: for files holding several
+		 * measurements, the header with the measurement description of that
+		 * image, and otherwise the header of the file.
+		 */
+		public SDTInfo getSDTInfo(final int imageIndex) {
+			return imageInfos == null ? info : imageInfos[imageIndex];
+		}
+
+		/**
+		 * Gets the index of the data blocks of the given image, or null if it has
+		 * not been built yet.
+		 */
+		public SDTBlockIndex getBlockIndex(final int imageIndex) {
+			return imageBlockIndices == null ? blockIndex
+				: imageBlockIndices[imageIndex];
+		}
+
+		/**
+		 * Splits the file into one image per measurement, each with its own
+		 * header and data blocks.
+		 */
+		public void setImages(final SDTInfo[] imageInfos,
+			final SDTBlockIndex[] imageBlockIndices)
+		{
+			if (imageInfos.length != imageBlockIndices.length) {
+				throw new IllegalArgumentException("Mismatched image arrays");
+			}
+			this.imageInfos = imageInfos;
+			this.imageBlockIndices = imageBlockIndices;
+		}
+
+		public long getBinOffset() {
 			return binOffset;
 		}
 
-		public void setBinOffset(final int binOffset) {
+		public void setBinOffset(final long binOffset) {
 			this.binOffset = binOffset;
 		}
 
@@ -134,42 +348,192 @@ public class SDTFormat extends AbstractFormat {
 			return channels;
 		}
 
+		/** Gets the number of time bins of the given image. */
+		public int getTimeBins(final int imageIndex) {
+			return imageInfos == null ? timeBins : imageInfos[imageIndex].timeBins;
+		}
+
+		/** Gets the number of spectral channels of the given image. */
+		public int getChannels(final int imageIndex) {
+			return imageInfos == null ? channels : imageInfos[imageIndex].channels;
+		}
+
+		/** Gets the time base, in ns, of the given image. */
+		public double getTimeBase(final int imageIndex) {
+			if (imageInfos == null) return timeBase;
+			final SDTInfo image = imageInfos[imageIndex];
+			return 1e9 * image.tacR / image.tacG;
+		}
+
 		public void setChannels(final int channels) {
 			this.channels = channels;
 		}
 
 		public boolean mergeIntensity() {
-			return mergeIntensity;
+			return imageMode == ImageMode.INTENSITY;
 		}
 
 		public void setMergeIntensity(final boolean mergeIntensity) {
-			if (mergeIntensity != this.mergeIntensity) {
-				this.mergeIntensity = mergeIntensity;
+			setImageMode(mergeIntensity ? ImageMode.INTENSITY : ImageMode.DECAY);
+		}
+
+		public ImageMode getImageMode() {
+			return imageMode;
+		}
+
+		public void setImageMode(final ImageMode imageMode) {
+			if (imageMode != this.imageMode) {
+				this.imageMode = imageMode;
+				// re-populate imageMetadata
+				populateImageMetadata();
+			}
+		}
+
+		public int getIntensityPixelType() {
+			return intensityPixelType;
+		}
+
+		/**
+		 * @param pixelType - Pixel type of merged intensity planes: one of
+		 *          {@link FormatTools#UINT16} (saturating),
+		 *          {@link FormatTools#UINT32} or {@link FormatTools#FLOAT}.
+		 */
+		public void setIntensityPixelType(final int pixelType) {
+			checkIntensityPixelType(pixelType);
+			if (pixelType != intensityPixelType) {
+				intensityPixelType = pixelType;
+				// re-populate imageMetadata
+				if (mergeIntensity()) populateImageMetadata();
+			}
+		}
+
+		public int getTimeBinning() {
+			return timeBinning;
+		}
+
+		/**
+		 * @param timeBinning - Number of adjacent lifetime bins to combine into
+		 *          each bin of the {@link SCIFIOAxes#LIFETIME} axis. Trailing bins
+		 *          that do not fill a whole group are dropped. Like the binning
+		 *          given to the {@link Parser}, it is clamped to the number of
+		 *          time bins, so that the axis is never empty.
+		 */
+		public void setTimeBinning(final int timeBinning) {
+			checkTimeBinning(timeBinning);
+			final int binning = Math.min(timeBinning, maxTimeBinning());
+			if (binning != this.timeBinning) {
+				this.timeBinning = binning;
 				// re-populate imageMetadata
 				populateImageMetadata();
 			}
 		}
 
+		public int getSpatialBinning() {
+			return spatialBinning;
+		}
+
+		/**
+		 * @param spatialBinning - Width and height of the blocks of neighbouring
+		 *          pixels whose decays are summed into each reported pixel.
+		 *          Trailing rows and columns that do not fill a whole block are
+		 *          dropped. Like the binning given to the {@link Parser}, it is
+		 *          clamped to the width and height of the image.
+		 */
+		public void setSpatialBinning(final int spatialBinning) {
+			checkSpatialBinning(spatialBinning);
+			final int binning = Math.min(spatialBinning, maxSpatialBinning());
+			if (binning != this.spatialBinning) {
+				this.spatialBinning = binning;
+				// re-populate imageMetadata
+				populateImageMetadata();
+			}
+		}
+
+		/**
+		 * Gets the length of the {@link SCIFIOAxes#LIFETIME} axis: the number of
+		 * time bins after time binning.
+		 */
+		public int getBinnedTimeBins() {
+			return getTimeBins() / timeBinning;
+		}
+
+		/**
+		 * Gets the length of the {@link SCIFIOAxes#LIFETIME} axis of the given
+		 * image.
+		 */
+		public int getBinnedTimeBins(final int imageIndex) {
+			return getTimeBins(imageIndex) / timeBinning;
+		}
+
 		// -- Metadat API Methods --
 
+		/**
+		 * Gets the metadata table, putting the header fields into it on first use.
+		 */
+		@Override
+		public MetaTable getTable() {
+			final MetaTable table = super.getTable();
+			if (tablePending) populateTable(table);
+			return table;
+		}
+
 		@Override
 		public void populateImageMetadata() {
-			createImageMetadata(1);
+			createImageMetadata(imageInfos == null ? 1 : imageInfos.length);
+			for (int i = 0; i < getImageCount(); i++) {
+				populateImageMetadata(i);
+			}
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			if (!fileOnly) {
+				binOffset = timeBins = channels = 0;
+				info = null;
+				blockIndex = null;
+				imageInfos = null;
+				imageBlockIndices = null;
+				tablePending = false;
+			}
+		}
+
+		// -- Helper methods --
 
-			final ImageMetadata iMeta = get(0);
-			if (!mergeIntensity()) {
-				iMeta.addAxis(SCIFIOAxes.LIFETIME, getSDTInfo().timeBins);
+		/** Populates the metadata of the given image from its header. */
+		private void populateImageMetadata(final int imageIndex) {
+			final ImageMetadata iMeta = get(imageIndex);
+			final SDTInfo image = getSDTInfo(imageIndex);
+			final ImageMode mode = getImageMode();
+			if (mode == ImageMode.DECAY) {
+				iMeta.addAxis(SCIFIOAxes.LIFETIME, getBinnedTimeBins(imageIndex));
 				CalibratedAxis axis = iMeta.getAxis(SCIFIOAxes.LIFETIME);
 				axis.setUnit("ns");
-				double scale = getTimeBase() / getSDTInfo().timeBins;
+				double scale = getTimeBase(imageIndex) * timeBinning / image.timeBins;
 				FormatTools.calibrate(iMeta.getAxis(SCIFIOAxes.LIFETIME), scale, 0.0);
 				iMeta.setPlanarAxisCount(3);
 			}
-			iMeta.addAxis(Axes.X, getSDTInfo().width);
-			iMeta.addAxis(Axes.Y, getSDTInfo().height);
-			iMeta.addAxis(SCIFIOAxes.SPECTRA, channels);
-
-			iMeta.setPixelType(FormatTools.UINT16);
+			iMeta.addAxis(Axes.X, image.width / spatialBinning);
+			iMeta.addAxis(Axes.Y, image.height / spatialBinning);
+			if (mode == ImageMode.PHASOR) {
+				// G, S and intensity are computed together, so read them together
+				iMeta.addAxis(PHASOR, 3);
+				iMeta.setPlanarAxisCount(3);
+			}
+			iMeta.addAxis(SCIFIOAxes.SPECTRA, getChannels(imageIndex));
+
+			switch (mode) {
+				case INTENSITY:
+					iMeta.setPixelType(intensityPixelType);
+					break;
+				case PHASOR:
+				case MEAN_ARRIVAL_TIME:
+				case RAPID_LIFETIME:
+					iMeta.setPixelType(FormatTools.FLOAT);
+					break;
+				default:
+					iMeta.setPixelType(FormatTools.UINT16);
+			}
 
 			iMeta.setLittleEndian(true);
 			iMeta.setIndexed(false);
@@ -177,13 +541,27 @@ public class SDTFormat extends AbstractFormat {
 			iMeta.setMetadataComplete(true);
 		}
 
-		@Override
-		public void close(final boolean fileOnly) throws IOException {
-			super.close(fileOnly);
-			if (!fileOnly) {
-				binOffset = timeBins = channels = 0;
-				info = null;
-			}
+		private synchronized void populateTable(final MetaTable table) {
+			if (!tablePending) return;
+			tablePending = false;
+			info.populate(table);
+			table.put("time bins", timeBins);
+			table.put("channels", channels);
+			table.put("time base", timeBase);
+		}
+
+		/** Gets the largest time binning that leaves at least one time bin. */
+		private int maxTimeBinning() {
+			return info == null ? Integer.MAX_VALUE : Math.max(1, info.timeBins);
+		}
+
+		/**
+		 * Gets the largest spatial binning that leaves at least one pixel in each
+		 * dimension.
+		 */
+		private int maxSpatialBinning() {
+			return info == null ? Integer.MAX_VALUE : Math.max(1, Math.min(
+				info.width, info.height));
 		}
 	}
 
@@ -194,8 +572,20 @@ public class SDTFormat extends AbstractFormat {
 
 		// -- Fields --
 
-		/** Whether to combine lifetime bins into single intensity image planes. */
-		private boolean mergeIntensity = false;
+		@Parameter
+		private DataHandleService dataHandleService;
+
+		/** Kind of image planes read from the decays. */
+		private ImageMode imageMode = ImageMode.DECAY;
+
+		/** Pixel type of merged intensity image planes. */
+		private int intensityPixelType = FormatTools.UINT16;
+
+		/** Number of adjacent lifetime bins combined into each reported bin. */
+		private int timeBinning = 1;
+
+		/** Width and height of the pixel blocks combined into each pixel. */
+		private int spatialBinning = 1;
 
 		// -- SDTParser API Methods --
 
@@ -204,7 +594,7 @@ public class SDTFormat extends AbstractFormat {
 		 *         intensity plane.
 		 */
 		public boolean mergeIntensity() {
-			return mergeIntensity;
+			return imageMode == ImageMode.INTENSITY;
 		}
 
 		/**
@@ -212,7 +602,76 @@ public class SDTFormat extends AbstractFormat {
 		 *          to a single intensity plane.
 		 */
 		public void setMergeIntensity(final boolean mergeIntensity) {
-			this.mergeIntensity = mergeIntensity;
+			imageMode = mergeIntensity ? ImageMode.INTENSITY : ImageMode.DECAY;
+		}
+
+		/**
+		 * @return the kind of image planes read from the decays.
+		 */
+		public ImageMode getImageMode() {
+			return imageMode;
+		}
+
+		/**
+		 * @param imageMode - Kind of image planes to read from the decays, e.g.
+		 *          {@link ImageMode#PHASOR} to read phasor maps without reading
+		 *          the full decays.
+		 */
+		public void setImageMode(final ImageMode imageMode) {
+			this.imageMode = imageMode;
+		}
+
+		/**
+		 * @return the pixel type of merged intensity planes.
+		 */
+		public int getIntensityPixelType() {
+			return intensityPixelType;
+		}
+
+		/**
+		 * @param pixelType - Pixel type of merged intensity planes: one of
+		 *          {@link FormatTools#UINT16} (saturating),
+		 *          {@link FormatTools#UINT32} or {@link FormatTools#FLOAT}. Wider
+		 *          types avoid clipping when summing many bright bins.
+		 */
+		public void setIntensityPixelType(final int pixelType) {
+			checkIntensityPixelType(pixelType);
+			this.intensityPixelType = pixelType;
+		}
+
+		/**
+		 * @return the number of adjacent lifetime bins combined into each bin.
+		 */
+		public int getTimeBinning() {
+			return timeBinning;
+		}
+
+		/**
+		 * @param timeBinning - Number of adjacent lifetime bins to combine into
+		 *          each bin of the {@link SCIFIOAxes#LIFETIME} axis while reading,
+		 *          e.g. 4 to read 256-bin data as 64 bins.
+		 */
+		public void setTimeBinning(final int timeBinning) {
+			checkTimeBinning(timeBinning);
+			this.timeBinning = timeBinning;
+		}
+
+		/**
+		 * @return the width and height of the pixel blocks combined into each
+		 *         pixel.
+		 */
+		public int getSpatialBinning() {
+			return spatialBinning;
+		}
+
+		/**
+		 * @param spatialBinning - Width and height of the blocks of neighbouring
+		 *          pixels whose decays are summed into each pixel while reading,
+		 *          e.g. 2 for 2x2 binning.
+		 */
+		public void setSpatialBinning(final int spatialBinning) {
+			checkSpatialBinning(spatialBinning);
+			this.spatialBinning = spatialBinning;
 		}
 
 		// -- Parser API methods --
@@ -226,161 +685,1543 @@ public class SDTFormat extends AbstractFormat {
 
 			log().info("Reading SDT header");
 
-			// read file header information
-			final SDTInfo info = new SDTInfo(stream, meta.getTable());
+			final SDTIndexCache cache = getIndexCache(config);
+			final File file = stream.get() instanceof FileLocation
+				? ((FileLocation) stream.get()).getFile() : null;
+
+			SDTInfo info = null;
+			SDTBlockIndex blockIndex = null;
+			if (cache != null && file != null) {
+				try {
+					final SDTIndexCache.Entry entry = cache.load(file);
+					if (entry != null) {
+						log().debug("Using cached SDT header index for " + file);
+						// parse the cached header exactly as the file's own
+						try (final DataHandle<Location> header = dataHandleService
+							.create(new BytesLocation(entry.header)))
+						{
+							header.setLittleEndian(true);
+							info = new SDTInfo(header, null);
+						}
+						blockIndex = entry.blockIndex;
+					}
+				}
+				catch (final IOException e) {
+					log().debug("Cannot read SDT header index for " + file, e);
+					info = null;
+				}
+			}
+			if (info == null && minimal(config)) {
+				// read just enough of the header for the image dimensions; the
+				// block index is built by the reader if pixels are read
+				info = new SDTInfo(stream, null, true);
+			}
+			else if (info == null) {
+				// read file header information
+				info = new SDTInfo(stream, null);
+				blockIndex = SDTBlockIndex.build(stream, info);
+				if (cache != null && file != null) {
+					try {
+						cache.save(file, stream, info, blockIndex);
+					}
+					catch (final IOException e) {
+						log().debug("Cannot write SDT header index for " + file, e);
+					}
+				}
+			}
+			if (!info.isHeaderValid()) {
+				// older files may have neither; they are read all the same
+				log().debug("SDT file header is not marked valid or checksummed");
+			}
+			if (info.noOfMeasDescBlocks > 1) {
+				// each measurement becomes an image, which needs the block index
+				if (blockIndex == null) blockIndex = SDTBlockIndex.build(stream, info);
+				setImages(stream, meta, info, blockIndex, minimal(config));
+			}
 			meta.setSDTInfo(info);
-			meta.setBinOffset(info.dataBlockOffs + 22);
+			meta.setBlockIndex(blockIndex);
+			meta.setBinOffset(info.dataBlockOffs + SDTInfo.BLOCK_HEADER_LENGTH);
 			meta.setTimeBins(info.timeBins);
 			meta.setChannels(info.channels);
 
-			meta.getTable().put("time bins", meta.getTimeBins());
-			meta.getTable().put("channels", meta.getChannels());
+			meta.timeBase = 1e9 * info.tacR / info.tacG;
+
+			// the header fields are put into the table when it is first read
+			meta.tablePending = true;
+			meta.imageMode = imageMode;
+			meta.intensityPixelType = intensityPixelType;
+			meta.timeBinning = Math.min(timeBinning, meta.maxTimeBinning());
+			meta.spatialBinning = Math.min(spatialBinning, meta
+				.maxSpatialBinning());
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Makes an image of each measurement description block that has data
+		 * blocks, in block number order, reading its measurement description and
+		 * selecting its data blocks by their {@code measDescBlockNo}. Files in
+		 * which no block refers to a valid measurement are left as one image.
+		 */
+		private static void setImages(final DataHandle<Location> stream,
+			final Metadata meta, final SDTInfo info,
+			final SDTBlockIndex blockIndex, final boolean minimal)
+			throws IOException
+		{
+			final List<SDTInfo> infos = new ArrayList<>();
+			final List<SDTBlockIndex> indices = new ArrayList<>();
+			for (int no = 0; no < info.noOfMeasDescBlocks; no++) {
+				final SDTBlockIndex blocks = blockIndex.select(no);
+				if (blocks.size() == 0) continue;
+				infos.add(info.forMeasDescBlock(stream, no, blocks.size(), minimal));
+				indices.add(blocks);
+			}
+			if (infos.isEmpty()) return;
+			meta.setImages(infos.toArray(new SDTInfo[infos.size()]), indices
+				.toArray(new SDTBlockIndex[indices.size()]));
+		}
+
+		/**
+		 * Whether only the metadata needed for the image dimensions is to be
+		 * parsed, i.e. the configured metadata level is
+		 * {@link MetadataLevel#MINIMUM}.
+		 */
+		private static boolean minimal(final SCIFIOConfig config) {
+			return config != null && config.parserGetLevel() == MetadataLevel.MINIMUM;
+		}
 
-			final double timeBase = 1e9 * info.tacR / info.tacG;
-			meta.getTable().put("time base", timeBase);
-			meta.timeBase = timeBase;
-			meta.mergeIntensity = mergeIntensity;
+		/**
+		 * Gets the header index cache in the directory configured by
+		 * {@link #INDEX_CACHE_KEY}, or null if none is configured.
+		 */
+		private static SDTIndexCache getIndexCache(final SCIFIOConfig config) {
+			final Object dir = config == null ? null : config.get(INDEX_CACHE_KEY);
+			if (dir instanceof File) return new SDTIndexCache((File) dir);
+			if (dir instanceof String) return new SDTIndexCache(new File(
+				(String) dir));
+			return null;
 		}
 	}
 
 	/**
-	 *
+	 * Reader for SDT files. Planes may be read from several threads at once: all
+	 * pixel data is read with positional reads, and no header state is modified
+	 * while reading.
 	 */
 	public static class Reader extends ByteArrayReader<Metadata> {
 
-		// -- AbstractReader Methods --
+		// -- Constants --
 
-		@Override
-		protected String[] createDomainArray() {
-			return new String[] { FormatTools.FLIM_DOMAIN };
-		}
+		/** Capacity of the cache of {@link #readDecay}, in bytes. */
+		private static final long DECAY_CACHE_SIZE = 16L * 1024 * 1024;
 
-		// -- Reader API Methods --
+		// -- Fields --
 
-		@Override
-		public ByteArrayPlane openPlane(final int imageIndex, final long planeIndex,
-			final ByteArrayPlane plane, final Interval bounds,
-			final SCIFIOConfig config) throws FormatException, IOException
-		{
-			final Metadata m = getMetadata();
-			final byte[] buf = plane.getBytes();
-			FormatTools.checkPlaneForReading(m, imageIndex, planeIndex, buf.length,
-				bounds);
+		/** Thread-safe positional access to the file. */
+		private volatile FileAccess access;
 
-			final int sizeX = (int) m.get(imageIndex).getAxisLength(Axes.X);
-			final int sizeY = (int) m.get(imageIndex).getAxisLength(Axes.Y);
-			final int bpp = FormatTools.getBytesPerPixel(m.get(imageIndex)
-				.getPixelType());
-			final boolean little = m.get(imageIndex).isLittleEndian();
+		/**
+		 * De-interleaved copy of per-pixel block ("Csarseven") data, by image;
+		 * at most one image is cached.
+		 */
+		private volatile SDTPlaneCache[] planeCaches;
 
-			final int paddedWidth = sizeX + ((4 - (sizeX % 4)) % 4);
-			final int planeSize = paddedWidth * sizeY * m.getTimeBins() * bpp;
+		/** Memory mapping of the pixel data of single-block images, by image. */
+		private volatile SDTMappedData[] mappedData;
 
-			final int x = (int) bounds.min(m.get(imageIndex).getAxisIndex(Axes.X)), //
-					y = (int) bounds.min(m.get(imageIndex).getAxisIndex(Axes.Y)), //
-					w = (int) bounds.dimension(m.get(imageIndex).getAxisIndex(Axes.X)), //
-					h = (int) bounds.dimension(m.get(imageIndex).getAxisIndex(Axes.Y));
+		/** Decompressor and cache of compressed data blocks. */
+		private volatile SDTBlockInflater inflater;
 
-			final boolean merge = m.mergeIntensity();
-			// Csarseven data has to read the entire image, so we may need to crop out
-			// the undesired region
-			byte[] b = !merge ? buf : new byte[sizeY * sizeX * m.getTimeBins() * bpp];
+		/** Rows and pixel blocks recently read by {@link #readDecay}. */
+		private final SDTChunkCache decayCache = new SDTChunkCache(
+			DECAY_CACHE_SIZE);
 
-			final SDTInfo info = m.getSDTInfo();
+		// -- SDTReader API Methods --
 
-			// FIFO support
-			if (info.measMode == 13) {
-				// Contains multiple data blocks. Each data block contains one or more
-				// complete planes. Planes are assumed to be stored as they would be
-				// for single block datasets.
-				int tmpOff = info.dataBlockOffs;
-				getHandle().seek(tmpOff);
-				info.readBlockHeader(getHandle());
-				// Compute channel + block indices from the requested plane index.
-				final int channelIndex = (int) (planeIndex % info.noOfDataBlocks);
-				final int blockIndex = (int) (planeIndex / info.noOfDataBlocks);
-				// Seek to the data block for this plane index
-				for (int i = 0; i < blockIndex; i++) {
-					tmpOff = info.nextBlockOffs;
-					getHandle().seek(tmpOff);
-					info.readBlockHeader(getHandle());
-				}
-				// Skip to the requested plane and row offset
-				getHandle().skip(channelIndex * planeSize + y * paddedWidth * bpp * m
-					.getTimeBins());
-			}
-			// Csarseven support
-			else if (info.noOfDataBlocks > 1) {
-				int tmpOff = info.dataBlockOffs;
-				final boolean crop = x == 0 && y == 0 && w == sizeX && y == sizeY;
-				if (crop && !merge) {
-					b = new byte[sizeY * sizeX * m.getTimeBins() * bpp];
-				}
-				// Data is stored by row, bottom row first
-				for (int row = h - 1; row >= 0; row--) {
-					for (int col = 0; col < w; col++) {
-
-						getHandle().seek(tmpOff);
-						info.readBlockHeader(getHandle());
-						// Skip to the desired plane (channel)
-						// Assuming channels are interleaved
-						getHandle().skip(planeIndex * m.getTimeBins() * bpp);
-						// Reads the current data block. Each data block contains all
-						// the time bins for a single pixel position.
-						getHandle().read(b, ((row * w) + col) * m.getTimeBins() * bpp, m
-							.getTimeBins() * bpp);
-						// Update offset to point to the next data block (pixel)
-						tmpOff = info.nextBlockOffs;
-					}
-				}
-				if (crop) {
-					// We always have to read the entire plane since we go from pixel to
-					// pixel, so now we can crop out what we didn't need.
-					for (int row = 0; row < h; row++) {
-						System.arraycopy(b, ((row * sizeX) + x) * bpp * m.getTimeBins(),
-							buf, row * w * bpp * m.getTimeBins(), w * m.getTimeBins() * bpp);
-					}
-				}
-			}
-			// Standard offset
-			else {
-				// binOffset points to the start of the pixels, then we skip the
-				// required number of planes and rows.
-				getHandle().seek(m.getBinOffset() + planeIndex * planeSize + y *
-					paddedWidth * bpp * m.getTimeBins());
+		/**
+		 * Reads {@code len} bytes of the lifetime decays of the given plane,
+		 * starting {@code offset} bytes into the plane, into {@code buf}. Planes
+		 * are packed as {@code sizeX * sizeY} decays of {@code timeBins} 16-bit
+		 * values each, so a plane too large for a single array can be read in
+		 * successive chunks.
+		 */
+		public void readPlane(final int imageIndex, final long planeIndex,
+			final long offset, final byte[] buf, final int off, final int len)
+			throws FormatException, IOException
+		{
+			final SDTInfo info = getMetadata().getSDTInfo(imageIndex);
+			final long rowBytes = (long) info.width * getMetadata().getTimeBins(
+				imageIndex) * FormatTools.getBytesPerPixel(FormatTools.UINT16);
+			long pos = offset;
+			int done = 0;
+			while (done < len) {
+				final int y = (int) (pos / rowBytes);
+				final long start = pos % rowBytes;
+				final int n = (int) Math.min(len - done, rowBytes - start);
+				readRow(imageIndex, planeIndex, y, start, n, buf, off + done, false,
+					null);
+				pos += n;
+				done += n;
 			}
+		}
 
-			// For the SDT subtypes with complete planes per data block, we can read
-			// the requested plane data now.
-			if (info.measMode == 13 || info.noOfDataBlocks == 1) {
-				for (int row = 0; row < h; row++) {
-					getHandle().skipBytes(x * bpp * m.getTimeBins());
-					getHandle().read(b, row * bpp * m.getTimeBins() * w, w * m
-						.getTimeBins() * bpp);
-					getHandle().skipBytes(bpp * m.getTimeBins() * (paddedWidth - x - w));
-				}
-			}
+		/**
+		 * Reads the given plane as unsigned 16-bit values.
+		 * 
+		 * @see #openShortPlane(int, long, Interval, short[], SCIFIOConfig)
+		 */
+		public short[] openShortPlane(final int imageIndex, final long planeIndex)
+			throws FormatException, IOException
+		{
+			final Interval bounds = new FinalInterval(getMetadata().get(imageIndex)
+				.getAxesLengthsPlanar());
+			return openShortPlane(imageIndex, planeIndex, bounds, null,
+				new SCIFIOConfig());
+		}
 
-			// no pixel merging required
-			if (!merge) {
-				return plane;
+		/**
+		 * Reads the given region of a plane directly into a {@code short[]},
+		 * decoding little-endian rows in bulk rather than sample by sample. Values
+		 * are unsigned 16-bit; mask them with {@code 0xffff}. Only available when
+		 * the image pixel type is {@link FormatTools#UINT16}.
+		 * 
+		 * @param dest - Array to fill, or null to allocate one. A new array is also
+		 *          allocated if {@code dest} is too small.
+		 * @return the filled array, with values ordered as in {@link #openPlane}.
+		 */
+		public short[] openShortPlane(final int imageIndex, final long planeIndex,
+			final Interval bounds, final short[] dest, final SCIFIOConfig config)
+			throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final ImageMetadata iMeta = m.get(imageIndex);
+			if (iMeta.getPixelType() != FormatTools.UINT16) {
+				throw new FormatException("Cannot read " + FormatTools
+					.getPixelTypeString(iMeta.getPixelType()) + " data as short values");
+			}
+			final int x = (int) bounds.min(iMeta.getAxisIndex(Axes.X)), //
+					y = (int) bounds.min(iMeta.getAxisIndex(Axes.Y)), //
+					w = (int) bounds.dimension(iMeta.getAxisIndex(Axes.X)), //
+					h = (int) bounds.dimension(iMeta.getAxisIndex(Axes.Y));
+			final int[] gate = getGate(imageIndex, iMeta, bounds, config);
+			final int gateBins = gate[1] - gate[0];
+			final int factor = m.getTimeBinning();
+			final boolean merge = m.mergeIntensity();
+			final long length = (long) w * h * (merge ? 1 : gateBins / factor);
+			if (length * 2 > Integer.MAX_VALUE) {
+				throw new FormatException("Requested region of " + length +
+					" values is too large for one array; use smaller bounds");
+			}
+			FormatTools.checkPlaneForReading(m, imageIndex, planeIndex,
+				(int) length * 2, bounds);
+			final short[] values = dest != null && dest.length >= length ? dest
+				: new short[(int) length];
+
+			final int spatial = m.getSpatialBinning();
+			final int rowValues = merge ? w : w * gateBins / factor;
+			final int rowBytes = w * gateBins * 2;
+			final boolean mapped = ConfigUtils.getBoolean(config, MEMORY_MAP_KEY,
+				false) && canMap(imageIndex);
+			final boolean direct = mapped && gateBins == m.getTimeBins(imageIndex) &&
+				factor == 1 && spatial == 1;
+
+			final SDTMerger merger = SDTMerger.get();
+			final byte[] raw = merger.rawRow(rowBytes);
+			final byte[] out = spatial == 1 ? null : new byte[rowValues * 2];
+			for (int row = 0; row < h; row++) {
+				if (direct && !merge) {
+					// decode straight from the mapping, with no intermediate copy
+					getMappedData(imageIndex).row(planeIndex, y + row, x, w)
+						.asShortBuffer().get(values, row * rowValues, rowValues);
+					continue;
+				}
+				if (spatial > 1) {
+					// binned rows span several raw rows, so decode the finished row
+					readOutputRow(imageIndex, planeIndex, y + row, x, w, gate,
+						FormatTools.UINT16, mapped, config, out, 0);
+					ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+						.get(values, row * rowValues, rowValues);
+					continue;
+				}
+				readDecays(imageIndex, planeIndex, y + row, x, w, gate[0], gate[1],
+					raw, 0, mapped, config);
+				if (merge) {
+					merger.merge(w, gateBins, values, row * w);
+				}
+				else if (factor > 1) {
+					merger.bin(w, gateBins, factor, values, row * rowValues);
+				}
+				else {
+					ByteBuffer.wrap(raw, 0, rowBytes).order(ByteOrder.LITTLE_ENDIAN)
+						.asShortBuffer().get(values, row * rowValues, rowValues);
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * Reads the lifetime decay of one pixel.
+		 * 
+		 * @see #readDecay(int, long, int, int, short[])
+		 */
+		public short[] readDecay(final int imageIndex, final long channel,
+			final int x, final int y) throws FormatException, IOException
+		{
+			return readDecay(imageIndex, channel, x, y, null);
+		}
+
+		/**
+		 * Reads the full, unbinned lifetime decay of pixel (x, y) of the given
+		 * channel, for interactive probing of single pixels. Coordinates are
+		 * those of the file, regardless of any spatial binning. The decay is read
+		 * from its exact offset in the file, and the row or pixel block holding
+		 * it is kept in a small least-recently-used cache, so that probing
+		 * neighbouring pixels does no further I/O.
+		 * 
+		 * @param dest - Array to fill, or null to allocate one. A new array is also
+		 *          allocated if {@code dest} is too small.
+		 * @return {@code timeBins} unsigned 16-bit values; mask them with
+		 *         {@code 0xffff}.
+		 */
+		public short[] readDecay(final int imageIndex, final long channel,
+			final int x, final int y, final short[] dest) throws FormatException,
+			IOException
+		{
+			final Metadata m = getMetadata();
+			final SDTInfo info = m.getSDTInfo(imageIndex);
+			if (x < 0 || x >= info.width || y < 0 || y >= info.height ||
+				channel < 0 || channel >= m.getChannels(imageIndex))
+			{
+				throw new FormatException("Invalid pixel (" + x + ", " + y +
+					") of channel " + channel);
+			}
+			final int timeBins = m.getTimeBins(imageIndex);
+			final int pixelBytes = timeBins * FormatTools.getBytesPerPixel(
+				FormatTools.UINT16);
+			final short[] decay = dest != null && dest.length >= timeBins ? dest
+				: new short[timeBins];
+
+			final byte[] chunk;
+			final int pos;
+			if (info.isBlockPerPixel()) {
+				// one block per pixel, holding the decays of all channels
+				final SDTPlaneCache cache = planeCache(imageIndex);
+				if (cache != null) {
+					chunk = new byte[pixelBytes];
+					cache.copy((int) channel, y, (long) x * pixelBytes, pixelBytes, chunk,
+						0);
+					pos = 0;
+				}
+				else {
+					final SDTBlockIndex index = getBlockIndex(imageIndex);
+					final int block = (info.height - 1 - y) * info.width + x;
+					if (block >= index.size()) {
+						Arrays.fill(decay, 0, timeBins, (short) 0);
+						return decay;
+					}
+					chunk = readChunk(imageIndex, block, 0, m.getChannels(imageIndex) *
+						pixelBytes);
+					pos = (int) channel * pixelBytes;
+				}
+			}
+			else {
+				chunk = readChunk(imageIndex, rowBlock(imageIndex, channel),
+					rowPosition(imageIndex, channel, y), info.width * pixelBytes);
+				pos = x * pixelBytes;
+			}
+			ByteBuffer.wrap(chunk, pos, pixelBytes).order(ByteOrder.LITTLE_ENDIAN)
+				.asShortBuffer().get(decay, 0, timeBins);
+			return decay;
+		}
+
+		/**
+		 * Sums the decays of the pixels of a mask, for each channel.
+		 * 
+		 * @param mask - {@code sizeX * sizeY} flags in file coordinates, row by
+		 *          row, set for the pixels to sum.
+		 * @return the summed decays, indexed by [channel][time bin].
+		 * @see #sumDecays(int, Collection)
+		 */
+		public long[][] sumDecays(final int imageIndex, final boolean[] mask)
+			throws FormatException, IOException
+		{
+			final SDTInfo info = getMetadata().getSDTInfo(imageIndex);
+			if (mask.length < (long) info.width * info.height) {
+				throw new FormatException("Mask of " + mask.length +
+					" pixels is smaller than the " + info.width + "x" + info.height +
+					" image");
+			}
+			final int[][] spans = new int[info.height][];
+			final int[] runs = new int[info.width + 1];
+			for (int y = 0; y < info.height; y++) {
+				int n = 0;
+				boolean inside = false;
+				for (int x = 0, i = y * info.width; x < info.width; x++, i++) {
+					if (mask[i] != inside) {
+						runs[n++] = x;
+						inside = mask[i];
+					}
+				}
+				if (inside) runs[n++] = info.width;
+				if (n > 0) spans[y] = Arrays.copyOf(runs, n);
+			}
+			return sumSpans(imageIndex, spans);
+		}
+
+		/**
+		 * Sums the full, unbinned decays of the pixels covered by any of the
+		 * given regions, for each channel. Regions are two-dimensional, in file
+		 * coordinates, and are clipped to the image; pixels covered by several
+		 * regions are counted once. Only the covered pixels of the covered rows
+		 * are read, and nothing else is materialized.
+		 * 
+		 * @return the summed decays, indexed by [channel][time bin].
+		 * @throws IllegalArgumentException if a region is not two-dimensional
+		 */
+		public long[][] sumDecays(final int imageIndex,
+			final Collection<? extends Interval> regions) throws FormatException,
+			IOException
+		{
+			final SDTInfo info = getMetadata().getSDTInfo(imageIndex);
+			final List<List<int[]>> rows = new ArrayList<>();
+			for (int y = 0; y < info.height; y++) {
+				rows.add(new ArrayList<>());
+			}
+			for (final Interval region : regions) {
+				if (region.numDimensions() != 2) {
+					throw new IllegalArgumentException("Region has " + region
+						.numDimensions() + " dimensions; expected 2");
+				}
+				// intersect the region with the image
+				final long x0 = Math.max(0, region.min(0));
+				final long x1 = Math.min(info.width, region.max(0) + 1);
+				final long y0 = Math.max(0, region.min(1));
+				final long y1 = Math.min(info.height, region.max(1) + 1);
+				if (x0 >= x1) continue;
+				for (long y = y0; y < y1; y++) {
+					rows.get((int) y).add(new int[] { (int) x0, (int) x1 });
+				}
+			}
+
+			final int[][] spans = new int[info.height][];
+			for (int y = 0; y < info.height; y++) {
+				final List<int[]> row = rows.get(y);
+				if (row.isEmpty()) continue;
+
+				// merge overlapping regions into disjoint runs
+				Collections.sort(row, (a, b) -> Integer.compare(a[0], b[0]));
+				final int[] runs = new int[row.size() * 2];
+				int n = 0;
+				for (final int[] r : row) {
+					if (n > 0 && r[0] <= runs[n - 1]) {
+						runs[n - 1] = Math.max(runs[n - 1], r[1]);
+					}
+					else {
+						runs[n++] = r[0];
+						runs[n++] = r[1];
+					}
+				}
+				spans[y] = Arrays.copyOf(runs, n);
+			}
+			return sumSpans(imageIndex, spans);
+		}
+
+		/**
+		 * Gets a lazily loaded view of the given image, for browsing images larger
+		 * than memory. The image is split into cells of {@code cellSize} pixels
+		 * along the planar axes (e.g. {@code LIFETIME}, X and Y for decays), and
+		 * one pixel along the others. Each cell is read with
+		 * {@link #openShortPlane(int, long, Interval, short[], SCIFIOConfig)}
+		 * when first accessed, and kept in a cache of at most
+		 * {@code maxCachedCells} cells, least recently used cells being evicted
+		 * first. Only available when the image pixel type is
+		 * {@link FormatTools#UINT16}.
+		 * 
+		 * @param cellSize - Cell size along each planar axis; a size of 0 or less,
+		 *          or a missing size, spans the whole axis.
+		 * @param maxCachedCells - Maximum number of cells kept in memory, or 0 to
+		 *          keep cells until memory runs short (soft references).
+		 */
+		public CachedCellImg<UnsignedShortType, ?> openCachedImg(
+			final int imageIndex, final int[] cellSize, final long maxCachedCells,
+			final SCIFIOConfig config) throws FormatException
+		{
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			if (iMeta.getPixelType() != FormatTools.UINT16) {
+				throw new FormatException("Cannot view " + FormatTools
+					.getPixelTypeString(iMeta.getPixelType()) + " data as short values");
+			}
+			final long[] lengths = iMeta.getAxesLengths();
+			final int[] cellDims = new int[lengths.length];
+			for (int d = 0; d < lengths.length; d++) {
+				final boolean planar = d < iMeta.getPlanarAxisCount();
+				final int size = planar && d < cellSize.length ? cellSize[d] : 0;
+				cellDims[d] = !planar ? 1 : (int) (size > 0 ? Math.min(size,
+					lengths[d]) : lengths[d]);
+			}
+
+			ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions
+				.options().cellDimensions(cellDims);
+			options = maxCachedCells > 0 ? options.cacheType(CacheType.BOUNDED)
+				.maxCacheSize(maxCachedCells) : options.cacheType(CacheType.SOFTREF);
+			return new ReadOnlyCachedCellImgFactory(options).create(lengths,
+				new UnsignedShortType(), new SDTCellLoader(this, imageIndex, config));
+		}
+
+		/**
+		 * Gets a read-only, little-endian view of the given plane, including the
+		 * padding at the end of each row, mapped directly from the file. Requires
+		 * a single-block file on local disk whose planes are smaller than 1 GiB.
+		 */
+		public ByteBuffer mapPlane(final int imageIndex, final long planeIndex)
+			throws FormatException, IOException
+		{
+			return getMappedData(imageIndex).plane(planeIndex);
+		}
+
+		/**
+		 * Gets a read-only view of the lifetime decays of pixels [x, x + w) of row
+		 * y of the given plane, mapped directly from the file. The buffer holds
+		 * {@code w * timeBins} values, one decay after the other.
+		 */
+		public ShortBuffer mapDecays(final int imageIndex, final long planeIndex,
+			final int x, final int y, final int w) throws FormatException,
+			IOException
+		{
+			return getMappedData(imageIndex).row(planeIndex, y, x, w).asShortBuffer();
+		}
+
+		/**
+		 * Gets a read-only view of the lifetime decay of pixel (x, y) of the given
+		 * plane, mapped directly from the file.
+		 */
+		public ShortBuffer mapDecay(final int imageIndex, final long planeIndex,
+			final int x, final int y) throws FormatException, IOException
+		{
+			return mapDecays(imageIndex, planeIndex, x, y, 1);
+		}
+
+		// -- AbstractReader Methods --
+
+		@Override
+		protected String[] createDomainArray() {
+			return new String[] { FormatTools.FLIM_DOMAIN };
+		}
+
+		// -- Reader API Methods --
+
+		@Override
+		public ByteArrayPlane openPlane(final int imageIndex, final long planeIndex,
+			final ByteArrayPlane plane, final Interval bounds,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final byte[] buf = plane.getBytes();
+			FormatTools.checkPlaneForReading(m, imageIndex, planeIndex, buf.length,
+				bounds);
+
+			final ImageMetadata iMeta = m.get(imageIndex);
+			final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+
+			final int x = (int) bounds.min(iMeta.getAxisIndex(Axes.X)), //
+					y = (int) bounds.min(iMeta.getAxisIndex(Axes.Y)), //
+					w = (int) bounds.dimension(iMeta.getAxisIndex(Axes.X)), //
+					h = (int) bounds.dimension(iMeta.getAxisIndex(Axes.Y));
+			final int[] gate = getGate(imageIndex, iMeta, bounds, config);
+			final boolean mapped = ConfigUtils.getBoolean(config, MEMORY_MAP_KEY,
+				false) && canMap(imageIndex);
+			switch (m.getImageMode()) {
+				case PHASOR:
+					final int phasor = iMeta.getAxisIndex(PHASOR);
+					readPhasor(imageIndex, planeIndex, x, y, w, h, (int) bounds.min(
+						phasor), (int) bounds.max(phasor) + 1, gate, mapped, config, buf);
+					return plane;
+				case MEAN_ARRIVAL_TIME:
+				case RAPID_LIFETIME:
+					readLifetime(imageIndex, planeIndex, x, y, w, h, gate, mapped, config,
+						buf);
+					return plane;
+				default:
+					break;
+			}
+
+			final int pixelType = iMeta.getPixelType();
+			final int outBins = m.mergeIntensity() ? 1 : (gate[1] - gate[0]) / m
+				.getTimeBinning();
+			final int outBytes = w * outBins * FormatTools.getBytesPerPixel(
+				pixelType);
+			if ((long) outBytes * h > Integer.MAX_VALUE) {
+				throw new FormatException("Requested region of " + (long) outBytes * h +
+					" bytes is too large for one array; use smaller bounds or readPlane");
 			}
 
 			for (int row = 0; row < h; row++) {
-				final int yi = (y + row) * sizeX * m.getTimeBins() * bpp;
-				final int ri = row * w * bpp;
+				readOutputRow(imageIndex, planeIndex, y + row, x, w, gate, pixelType,
+					mapped, config, buf, row * outBytes);
+			}
+			return plane;
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			planeCaches = null;
+			mappedData = null;
+			decayCache.clear();
+			if (inflater != null) {
+				inflater.close();
+				inflater = null;
+			}
+			if (access != null) {
+				access.close();
+				access = null;
+			}
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Gets the raw lifetime bins [t0, t1) to read: the
+		 * {@link SCIFIOAxes#LIFETIME} bounds for unmerged planes, or the
+		 * configured {@link #GATE_START_KEY} and {@link #GATE_END_KEY} for merged
+		 * intensity planes, scaled by the time binning.
+		 */
+		private int[] getGate(final int imageIndex, final ImageMetadata iMeta,
+			final Interval bounds, final SCIFIOConfig config) throws FormatException
+		{
+			final Metadata m = getMetadata();
+			final int factor = m.getTimeBinning();
+			final int lifetime = iMeta.getAxisIndex(SCIFIOAxes.LIFETIME);
+			if (lifetime >= 0) {
+				return new int[] { (int) bounds.min(lifetime) * factor,
+					((int) bounds.max(lifetime) + 1) * factor };
+			}
+			final int bins = m.getBinnedTimeBins(imageIndex);
+			final int t0 = (int) ConfigUtils.getLong(config, GATE_START_KEY, 0);
+			final int t1 = (int) ConfigUtils.getLong(config, GATE_END_KEY, bins);
+			if (t0 < 0 || t1 > bins || t0 >= t1) {
+				throw new FormatException("Invalid time gate [" + t0 + ", " + t1 +
+					") for " + bins + " time bins");
+			}
+			return new int[] { t0 * factor, t1 * factor };
+		}
+
+		/**
+		 * Produces row {@code y} of pixels [x, x + w) of the given plane as
+		 * reported by the metadata, storing little-endian values of the given
+		 * pixel type in {@code dest}. The raw rows are gated to {@code gate},
+		 * spatially and temporally binned, and merged to intensities as
+		 * configured; spatially binned rows are accumulated from their raw rows
+		 * one raw row at a time.
+		 */
+		private void readOutputRow(final int imageIndex, final long planeIndex,
+			final int y, final int x, final int w, final int[] gate,
+			final int pixelType, final boolean mapped, final SCIFIOConfig config,
+			final byte[] dest, final int off) throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final int gateBins = gate[1] - gate[0];
+			final int factor = m.getTimeBinning();
+			final int spatial = m.getSpatialBinning();
+			final boolean merge = m.mergeIntensity();
+
+			if (spatial == 1 && factor == 1 && !merge) {
+				readDecays(imageIndex, planeIndex, y, x, w, gate[0], gate[1], dest,
+					off, mapped, config);
+				return;
+			}
+
+			final SDTMerger merger = SDTMerger.get();
+			final byte[] raw = merger.rawRow(w * spatial * gateBins * 2);
+			if (spatial == 1) {
+				readDecays(imageIndex, planeIndex, y, x, w, gate[0], gate[1], raw, 0,
+					mapped, config);
+				if (merge) merger.merge(w, gateBins, pixelType, dest, off);
+				else merger.bin(w, gateBins, factor, dest, off);
+				return;
+			}
+
+			accumulateRow(imageIndex, planeIndex, y, x, w, gate, mapped, config);
+			if (merge) merger.storeIntensity(w, gateBins, pixelType, dest, off);
+			else merger.storeDecays(w, gateBins, factor, dest, off);
+		}
+
+		/**
+		 * Computes phasor components [c0, c1) of pixels [x, x + w) of rows [y, y +
+		 * h) of the given channel into {@code buf}, one little-endian
+		 * {@link FormatTools#FLOAT} component plane after the other. All three
+		 * components come from a single pass over each decay, weighting its bins
+		 * by cosine and sine tables computed once for the whole plane; rows are
+		 * computed in parallel unless {@link #PARALLEL_KEY} is false.
+		 */
+		private void readPhasor(final int imageIndex, final long channel,
+			final int x, final int y, final int w, final int h, final int c0,
+			final int c1, final int[] gate, final boolean mapped,
+			final SCIFIOConfig config, final byte[] buf) throws FormatException,
+			IOException
+		{
+			final Metadata m = getMetadata();
+			final int gateBins = gate[1] - gate[0];
+
+			// phase of the centre of each gated bin, at the configured harmonic
+			final double binWidth = m.getTimeBase(imageIndex) / m.getTimeBins(
+				imageIndex);
+			final double period = ConfigUtils.getDouble(config, PHASOR_PERIOD_KEY, m
+				.getTimeBase(imageIndex));
+			final double omega = 2 * Math.PI * ConfigUtils.getLong(config,
+				PHASOR_HARMONIC_KEY, 1) / period;
+			final double[] cos = new double[gateBins];
+			final double[] sin = new double[gateBins];
+			for (int t = 0; t < gateBins; t++) {
+				final double phase = omega * (gate[0] + t + 0.5) * binWidth;
+				cos[t] = Math.cos(phase);
+				sin[t] = Math.sin(phase);
+			}
+
+			final int rowBytes = w * FormatTools.getBytesPerPixel(FormatTools.FLOAT);
+			final int planeBytes = rowBytes * h;
+			final int g = c0 <= 0 && 0 < c1 ? -c0 * planeBytes : -1;
+			final int s = c0 <= 1 && 1 < c1 ? (1 - c0) * planeBytes : -1;
+			final int i = c0 <= 2 && 2 < c1 ? (2 - c0) * planeBytes : -1;
+			forEachRow(h, config, row -> {
+				accumulateRow(imageIndex, channel, y + row, x, w, gate, mapped, config);
+				final int off = row * rowBytes;
+				SDTMerger.get().storePhasor(w, gateBins, cos, sin, buf, g < 0 ? -1
+					: g + off, s < 0 ? -1 : s + off, i < 0 ? -1 : i + off);
+			});
+		}
+
+		/**
+		 * Estimates the lifetime of pixels [x, x + w) of rows [y, y + h) of the
+		 * given channel into {@code buf} as little-endian
+		 * {@link FormatTools#FLOAT} values in ns, by the current
+		 * {@link ImageMode}. Each decay is read once, into the per-thread scratch
+		 * buffers of {@link SDTMerger}; rows are computed in parallel unless
+		 * {@link #PARALLEL_KEY} is false.
+		 */
+		private void readLifetime(final int imageIndex, final long channel,
+			final int x, final int y, final int w, final int h, final int[] gate,
+			final boolean mapped, final SCIFIOConfig config, final byte[] buf)
+			throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final int gateBins = gate[1] - gate[0];
+			final double binWidth = m.getTimeBase(imageIndex) / m.getTimeBins(
+				imageIndex);
+			final boolean rapid = m.getImageMode() == ImageMode.RAPID_LIFETIME;
+			if (rapid && gateBins < 2) {
+				throw new FormatException(
+					"Rapid lifetime determination needs at least 2 time bins");
+			}
+
+			final int rowBytes = w * FormatTools.getBytesPerPixel(FormatTools.FLOAT);
+			forEachRow(h, config, row -> {
+				accumulateRow(imageIndex, channel, y + row, x, w, gate, mapped, config);
+				final SDTMerger merger = SDTMerger.get();
+				if (rapid) {
+					merger.storeRapidLifetime(w, gateBins, binWidth, buf, row *
+						rowBytes);
+				}
+				else {
+					merger.storeMeanArrivalTime(w, gateBins, binWidth, buf, row *
+						rowBytes);
+				}
+			});
+		}
+
+		/**
+		 * Sums the gated decays of each pixel of row {@code y} of the given plane,
+		 * as reported by the metadata, over its spatial binning block into the
+		 * accumulated decays of the current thread's {@link SDTMerger}.
+		 */
+		private void accumulateRow(final int imageIndex, final long planeIndex,
+			final int y, final int x, final int w, final int[] gate,
+			final boolean mapped, final SCIFIOConfig config) throws FormatException,
+			IOException
+		{
+			final int gateBins = gate[1] - gate[0];
+			final int spatial = getMetadata().getSpatialBinning();
+			final SDTMerger merger = SDTMerger.get();
+			final byte[] raw = merger.rawRow(w * spatial * gateBins * 2);
+			merger.clear(w * gateBins);
+			for (int r = 0; r < spatial; r++) {
+				readDecays(imageIndex, planeIndex, y * spatial + r, x * spatial, w *
+					spatial, gate[0], gate[1], raw, 0, mapped, config);
+				merger.accumulate(w, gateBins, spatial);
+			}
+		}
+
+		/**
+		 * Runs {@code task} for rows [0, h), on several threads unless
+		 * {@link #PARALLEL_KEY} is false. Each thread reads through its own
+		 * {@link SDTMerger}, so rows only need to write disjoint output.
+		 */
+		private static void forEachRow(final int h, final SCIFIOConfig config,
+			final RowTask task) throws FormatException, IOException
+		{
+			if (h < 2 || !ConfigUtils.getBoolean(config, PARALLEL_KEY, true)) {
+				for (int row = 0; row < h; row++) {
+					task.run(row);
+				}
+				return;
+			}
+			try {
+				IntStream.range(0, h).parallel().forEach(row -> {
+					try {
+						task.run(row);
+					}
+					catch (final FormatException | IOException e) {
+						throw new RowException(e);
+					}
+				});
+			}
+			catch (final RowException e) {
+				if (e.getCause() instanceof FormatException) {
+					throw (FormatException) e.getCause();
+				}
+				throw (IOException) e.getCause();
+			}
+		}
+
+		/**
+		 * Reads lifetime bins [t0, t1) of pixels [x, x + w) of row {@code y} of
+		 * the given plane into {@code b}, packed pixel after pixel. Narrow gates
+		 * read only the gated bins of each pixel; wide gates read the whole row
+		 * and keep the gated bins, which costs fewer, larger reads.
+		 */
+		private void readDecays(final int imageIndex, final long planeIndex,
+			final int y, final int x, final int w, final int t0, final int t1,
+			final byte[] b, final int off, final boolean mapped,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final int timeBins = getMetadata().getTimeBins(imageIndex);
+			final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+			final int pixelBytes = timeBins * bpp;
+			final long start = (long) x * pixelBytes;
+			if (t0 == 0 && t1 == timeBins) {
+				readRow(imageIndex, planeIndex, y, start, w * pixelBytes, b, off,
+					mapped, config);
+				return;
+			}
+
+			final int gateBytes = (t1 - t0) * bpp;
+			if (mapped || (t1 - t0) * 4 <= timeBins) {
+				for (int col = 0; col < w; col++) {
+					readRow(imageIndex, planeIndex, y, start + col * pixelBytes + t0 *
+						bpp, gateBytes, b, off + col * gateBytes, mapped, config);
+				}
+			}
+			else {
+				final byte[] row = SDTMerger.get().fullRow(w * pixelBytes);
+				readRow(imageIndex, planeIndex, y, start, w * pixelBytes, row, 0,
+					false, config);
 				for (int col = 0; col < w; col++) {
-					final int xi = yi + (x + col) * m.getTimeBins() * bpp;
-					final int ci = ri + col * bpp;
-					// combine all lifetime bins into single intensity value
-					short sum = 0;
-					for (int t = 0; t < m.getTimeBins(); t++) {
-						sum += Bytes.toShort(b, xi + t * bpp, little);
+					System.arraycopy(row, col * pixelBytes + t0 * bpp, b, off + col *
+						gateBytes, gateBytes);
+				}
+			}
+		}
+
+		/**
+		 * Reads {@code len} bytes of row {@code y} of the given plane, starting
+		 * {@code start} bytes into the row, into {@code b}. Rows are addressed as
+		 * packed decays without the padding stored at the end of each row.
+		 */
+		private void readRow(final int imageIndex, final long planeIndex,
+			final int y, final long start, final int len, final byte[] b,
+			final int off, final boolean mapped, final SCIFIOConfig config)
+			throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final SDTInfo info = m.getSDTInfo(imageIndex);
+			final int sizeX = info.width;
+			final int sizeY = info.height;
+			final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+			final int pixelBytes = m.getTimeBins(imageIndex) * bpp;
+
+			// Csarseven support
+			if (info.isBlockPerPixel()) {
+				// Each data block contains all the time bins of all channels for a
+				// single pixel position.
+				final SDTPlaneCache cache = getPlaneCache(imageIndex, config);
+				if (cache != null) {
+					cache.copy((int) planeIndex, y, start, len, b, off);
+					return;
+				}
+				// Read only the requested pixels. Data is stored by row, bottom row
+				// first; channels are assumed to be interleaved within a block.
+				final SDTBlockIndex index = getBlockIndex(imageIndex);
+				final long end = start + len;
+				long pos = start;
+				while (pos < end) {
+					final int col = (int) (pos / pixelBytes);
+					final int inPixel = (int) (pos % pixelBytes);
+					final int n = (int) Math.min(pixelBytes - inPixel, end - pos);
+					final int block = (sizeY - 1 - y) * sizeX + col;
+					if (block < index.size()) {
+						readBlock(imageIndex, block, planeIndex * pixelBytes + inPixel, b,
+							off + (int) (pos - start), n, config);
 					}
-					Bytes.unpack(sum, buf, ci, 2, little);
+					pos += n;
 				}
 			}
-			return plane;
+			// Standard offset, memory-mapped
+			else if (mapped) {
+				getMappedData(imageIndex).bytes(planeIndex, y, start, len).get(b, off,
+					len);
+			}
+			// Standard or FIFO offset
+			else {
+				readBlock(imageIndex, rowBlock(imageIndex, planeIndex), rowPosition(
+					imageIndex, planeIndex, y) + start, b, off, len, config);
+			}
+		}
+
+		/**
+		 * Sums the decays of the pixels of the given runs, for each channel. Runs
+		 * are given per row as pairs of start and end columns; rows without runs
+		 * are null and are not read.
+		 */
+		private long[][] sumSpans(final int imageIndex, final int[][] spans)
+			throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final int timeBins = m.getTimeBins(imageIndex);
+			final long[][] sums = new long[m.getChannels(imageIndex)][timeBins];
+			final SDTMerger merger = SDTMerger.get();
+			for (int y = 0; y < spans.length; y++) {
+				final int[] runs = spans[y];
+				if (runs == null) continue;
+				for (int i = 0; i < runs.length; i += 2) {
+					final int x = runs[i], w = runs[i + 1] - runs[i];
+					final byte[] raw = merger.rawRow(w * timeBins * 2);
+					for (int c = 0; c < sums.length; c++) {
+						readDecays(imageIndex, c, y, x, w, 0, timeBins, raw, 0, false,
+							null);
+						merger.sumDecays(w, timeBins, sums[c]);
+					}
+				}
+			}
+			return sums;
+		}
+
+		/**
+		 * Reads {@code len} bytes of the pixel data of the given block, starting
+		 * {@code pos} bytes into it, into {@code b}. Compressed blocks are read
+		 * from their decompressed contents.
+		 *
+		 * @throws FormatException if the block is missing, or if the file ends
+		 *           before the requested bytes
+		 */
+		private void readBlock(final int imageIndex, final int block,
+			final long pos, final byte[] b, final int off, final int len,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final SDTBlockIndex index = getBlockIndex(imageIndex);
+			if (block >= index.size()) {
+				throw new FormatException("Data block " + block +
+					" is missing: file contains only " + index.size() + " blocks");
+			}
+			if (index.isCompressed(block)) {
+				getInflater(config).read(index, block, pos, b, off, len);
+				return;
+			}
+			if (pos + len > index.getLength(block)) {
+				throw new FormatException("Data block " + block + " is truncated: " +
+					"needed " + (pos + len) + " bytes but it holds " + index.getLength(
+						block));
+			}
+			final int n = getAccess().read(index.getDataOffset(block) + pos, b, off,
+				len);
+			if (n < len) {
+				throw new FormatException("Unexpected end of file in data block " +
+					block + ": read " + n + " of " + len + " bytes");
+			}
+		}
+
+		/**
+		 * Gets the data block holding the given plane, for layouts that store each
+		 * plane as contiguous padded rows.
+		 */
+		private int rowBlock(final int imageIndex, final long planeIndex) {
+			final SDTInfo info = getMetadata().getSDTInfo(imageIndex);
+			// FIFO data blocks each hold one plane of every channel
+			return info.measMode == SDTInfo.FIFO_IMAGE_MODE ? (int) (planeIndex /
+				info.getDataBlockCount()) : 0;
+		}
+
+		/**
+		 * Gets the offset of row {@code y} of the given plane within the data
+		 * block returned by {@link #rowBlock}.
+		 */
+		private long rowPosition(final int imageIndex, final long planeIndex,
+			final int y)
+		{
+			final Metadata m = getMetadata();
+			final SDTInfo info = m.getSDTInfo(imageIndex);
+			final int sizeX = info.width;
+			final int pixelBytes = m.getTimeBins(imageIndex) * FormatTools
+				.getBytesPerPixel(FormatTools.UINT16);
+			final long paddedWidth = sizeX + ((4 - (sizeX % 4)) % 4);
+			final long paddedRowBytes = paddedWidth * pixelBytes;
+			final long planeSize = paddedRowBytes * info.height;
+
+			// FIFO support
+			if (info.measMode == SDTInfo.FIFO_IMAGE_MODE) {
+				// Contains multiple data blocks. Each data block contains one or more
+				// complete planes. Planes are assumed to be stored as they would be
+				// for single block datasets.
+				final long channelIndex = planeIndex % info.getDataBlockCount();
+				return channelIndex * planeSize + y * paddedRowBytes;
+			}
+			// the single data block holds every plane; skip the required number of
+			// planes and rows.
+			return planeIndex * planeSize + y * paddedRowBytes;
+		}
+
+		/**
+		 * Gets {@code len} bytes of the given data block, starting {@code pos}
+		 * bytes into it, from the cache of {@link #readDecay}, reading and caching
+		 * them if needed.
+		 */
+		private byte[] readChunk(final int imageIndex, final int block,
+			final long pos, final int len) throws FormatException, IOException
+		{
+			final SDTBlockIndex index = getBlockIndex(imageIndex);
+			if (block < index.size() && index.isCompressed(block)) {
+				// positions are within the decompressed data, which the inflater caches
+				final byte[] chunk = new byte[len];
+				readBlock(imageIndex, block, pos, chunk, 0, len, null);
+				return chunk;
+			}
+			final long offset = index.getDataOffset(block) + pos;
+			byte[] chunk = decayCache.get(offset);
+			if (chunk == null || chunk.length < len) {
+				chunk = new byte[len];
+				readBlock(imageIndex, block, pos, chunk, 0, len, null);
+				decayCache.put(offset, chunk);
+			}
+			return chunk;
+		}
+
+		/** Work done for one row of a derived plane. */
+		private interface RowTask {
+
+			void run(int row) throws FormatException, IOException;
+		}
+
+		/** Carries a checked exception out of a parallel row. */
+		private static class RowException extends RuntimeException {
+
+			public RowException(final Exception cause) {
+				super(cause);
+			}
+		}
+
+		/**
+		 * Gets the index of the data blocks of the given image, building it on
+		 * first use if the metadata was parsed without one.
+		 */
+		private SDTBlockIndex getBlockIndex(final int imageIndex)
+			throws IOException
+		{
+			final Metadata m = getMetadata();
+			SDTBlockIndex index = m.getBlockIndex(imageIndex);
+			if (index != null) return index;
+			synchronized (this) {
+				// NB: files of several images are indexed while parsing
+				if (m.getBlockIndex() == null) {
+					final DataHandle<Location> handle = getHandle();
+					// NB: positional reads without a file channel share this handle
+					synchronized (handle) {
+						m.setBlockIndex(SDTBlockIndex.build(handle, m.getSDTInfo()));
+					}
+				}
+				index = m.getBlockIndex(imageIndex);
+			}
+			return index;
+		}
+
+		/** Gets the positional access to the file, opening it on first use. */
+		private FileAccess getAccess() throws IOException {
+			FileAccess a = access;
+			if (a == null) {
+				synchronized (this) {
+					if (access == null) access = new FileAccess(getHandle());
+					a = access;
+				}
+			}
+			return a;
+		}
+
+		/**
+		 * Gets the cache of the per-pixel block data of the given image, loading
+		 * it on first use, or null if the data does not fit within the configured
+		 * {@link #CACHE_SIZE_KEY}. Only one image is cached at a time.
+		 */
+		private SDTPlaneCache getPlaneCache(final int imageIndex,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			SDTPlaneCache cache = planeCache(imageIndex);
+			if (cache != null) return cache;
+
+			final Metadata m = getMetadata();
+			final SDTInfo info = m.getSDTInfo(imageIndex);
+			final int channels = m.getChannels(imageIndex);
+			final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+			final long size = SDTPlaneCache.size(info.width, info.height, channels,
+				m.getTimeBins(imageIndex), bpp);
+			final long maxSize = ConfigUtils.getLong(config, CACHE_SIZE_KEY,
+				DEFAULT_CACHE_SIZE);
+			if (size > maxSize || size / channels > Integer.MAX_VALUE ||
+				getBlockIndex(imageIndex).hasCompressed())
+			{
+				return null;
+			}
+
+			synchronized (this) {
+				SDTPlaneCache[] caches = planeCaches;
+				if (caches == null || caches[imageIndex] == null) {
+					log().debug("Caching " + size + " bytes of per-pixel block data");
+					// replace the cache of any other image, to stay within the limit
+					caches = new SDTPlaneCache[m.getImageCount()];
+					caches[imageIndex] = SDTPlaneCache.load(getAccess(), getBlockIndex(
+						imageIndex), info.width, info.height, channels, m.getTimeBins(
+							imageIndex), bpp);
+					planeCaches = caches;
+				}
+				cache = caches[imageIndex];
+			}
+			return cache;
+		}
+
+		/** Gets the loaded cache of per-pixel block data of the given image. */
+		private SDTPlaneCache planeCache(final int imageIndex) {
+			final SDTPlaneCache[] caches = planeCaches;
+			return caches == null ? null : caches[imageIndex];
+		}
+
+		/**
+		 * Gets the decompressor of compressed data blocks, creating it on first
+		 * use with room for {@link #CACHE_SIZE_KEY} bytes of decompressed chunks.
+		 */
+		private SDTBlockInflater getInflater(final SCIFIOConfig config)
+			throws IOException
+		{
+			SDTBlockInflater i = inflater;
+			if (i == null) {
+				synchronized (this) {
+					if (inflater == null) {
+						inflater = new SDTBlockInflater(getAccess(), ConfigUtils.getLong(
+							config, CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+					}
+					i = inflater;
+				}
+			}
+			return i;
+		}
+
+		/**
+		 * Whether the pixel data of the given image is a single contiguous,
+		 * uncompressed region of a local file, and can therefore be memory-mapped.
+		 */
+		private boolean canMap(final int imageIndex) throws IOException {
+			final SDTInfo info = getMetadata().getSDTInfo(imageIndex);
+			if (info.measMode == SDTInfo.FIFO_IMAGE_MODE ||
+				info.getDataBlockCount() != 1 ||
+				!(getHandle().get() instanceof FileLocation))
+			{
+				return false;
+			}
+			final SDTBlockIndex index = getBlockIndex(imageIndex);
+			return index.size() == 1 && !index.isCompressed(0);
+		}
+
+		/**
+		 * Gets the memory mapping of the pixel data of the given image, creating
+		 * it on first use.
+		 */
+		private SDTMappedData getMappedData(final int imageIndex)
+			throws FormatException, IOException
+		{
+			final SDTMappedData[] mapped = mappedData;
+			if (mapped != null && mapped[imageIndex] != null) {
+				return mapped[imageIndex];
+			}
+			if (!canMap(imageIndex)) {
+				throw new FormatException(
+					"Memory mapping requires a single-block SDT file on local disk");
+			}
+
+			synchronized (this) {
+				SDTMappedData[] maps = mappedData;
+				if (maps == null || maps[imageIndex] == null) {
+					final Metadata m = getMetadata();
+					final SDTInfo info = m.getSDTInfo(imageIndex);
+					final int paddedWidth = info.width + ((4 - (info.width % 4)) % 4);
+					final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+					// publish a new array, so that unlocked reads see whole mappings
+					maps = maps == null ? new SDTMappedData[m.getImageCount()] : maps
+						.clone();
+					maps[imageIndex] = new SDTMappedData(getAccess().channel(),
+						getBlockIndex(imageIndex).getDataOffset(0), paddedWidth,
+						info.height, m.getChannels(imageIndex), m.getTimeBins(imageIndex) *
+							bpp);
+					mappedData = maps;
+				}
+				return maps[imageIndex];
+			}
+		}
+	}
+	/**
+	 * Writer for SDT files. The file header, the info and setup text and the
+	 * measurement description of each image are written from the
+	 * {@link SDTInfo} of the metadata, with the dimensions of its images, and
+	 * each image is then stored as one data block of padded rows, as read by
+	 * the {@link Reader}. Planes must be written whole and in order; they are
+	 * streamed to the file through {@link SDTBlockWriter}, so no more than one
+	 * plane is ever held. With the {@link #ZIP} compression, each data block is
+	 * stored as a deflated {@link SDTInfo#DATA_ZIPPED} block. If the writer is
+	 * closed early, the file holds the images written so far, the last one
+	 * with the planes written so far.
+	 * <p>
+	 * Decays are written in the single-block layout of ordinary measurements,
+	 * so measurements in {@link SDTInfo#FIFO_IMAGE_MODE} are written with a
+	 * measurement mode of 0.
+	 * </p>
+	 */
+	public static class Writer extends AbstractWriter<Metadata> {
+
+		// -- Constants --
+
+		/** Compression type storing data blocks as they are. */
+		public static final String UNCOMPRESSED = "Uncompressed";
+
+		/** Compression type storing deflated {@link SDTInfo#DATA_ZIPPED} blocks. */
+		public static final String ZIP = "Zip";
+
+		// -- Fields --
+
+		/** Header of the file. */
+		private SDTInfo header;
+
+		/** Measurement and block header of each image. */
+		private SDTInfo[] headers;
+
+		private SDTBlockWriter blocks;
+
+		/** Image and plane expected next. */
+		private int image;
+
+		private long plane;
+
+		/** Length of the longest data block so far. */
+		private long maxBlockLength;
+
+		/** Row of swapped bytes, for big-endian planes. */
+		private byte[] row;
+
+		// -- Writer API Methods --
+
+		@Override
+		public void setDest(final DataHandle<Location> out, final int imageIndex,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			super.setDest(out, imageIndex, config);
+			final Metadata m = getMetadata();
+			final boolean compressed = ZIP.equals(getCompression());
+			headers = new SDTInfo[m.getImageCount()];
+			for (int i = 0; i < headers.length; i++) {
+				headers[i] = imageHeader(i, compressed);
+			}
+
+			// NB: the file header, info, setup and measurement descriptions come
+			// first, in that order, followed by one data block per image
+			header = headers[0].copy();
+			final byte[] info = text(header.info != null ? header.info
+				: "*IDENTIFICATION\r\nID        : " + SDTInfo.DATA_IDENTIFIER +
+					"\r\n*END\r\n\r\n", "info");
+			final byte[] setup = text(header.setup == null ? "" : resizeSetup(
+				header.setup, headers[0]), "setup");
+			final int measDescBlockLength = headers[0].measDescBlockLength;
+			header.infoOffs = SDTInfo.HEADER_LENGTH;
+			header.infoLength = (short) info.length;
+			header.setupOffs = header.infoOffs + info.length;
+			header.setupLength = (short) setup.length;
+			header.measDescBlockOffs = header.setupOffs + setup.length;
+			header.noOfMeasDescBlocks = (short) headers.length;
+			header.measDescBlockLength = (short) measDescBlockLength;
+			header.dataBlockOffs = header.measDescBlockOffs + (long) headers.length *
+				measDescBlockLength;
+			header.noOfDataBlocks = (short) Math.min(headers.length, 0x7fff);
+			header.reserved1 = headers.length < 0x7fff ? 0 : headers.length;
+			header.dataBlockLength = 0;
+
+			out.seek(0);
+			blocks = new SDTBlockWriter(out, compressed ? Deflater.DEFAULT_COMPRESSION
+				: SDTBlockWriter.STORED);
+			blocks.write(fileHeader(header));
+			blocks.write(info);
+			blocks.write(setup);
+			final ByteBuffer measDesc = ByteBuffer.allocate(measDescBlockLength)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			for (final SDTInfo h : headers) {
+				measDesc.clear();
+				h.writeMeasDescBlock(measDesc);
+				blocks.write(measDesc);
+			}
+			image = 0;
+			plane = 0;
+			maxBlockLength = 0;
+		}
+
+		@Override
+		public void writePlane(final int imageIndex, final long planeIndex,
+			final Plane plane, final Interval bounds) throws FormatException,
+			IOException
+		{
+			if (imageIndex != image || planeIndex != this.plane) {
+				throw new FormatException("SDT planes must be written in order: " +
+					"expected plane " + this.plane + " of image " + image);
+			}
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			for (int d = 0; d < iMeta.getPlanarAxisCount(); d++) {
+				if (bounds.min(d) != 0 || bounds.dimension(d) != iMeta
+					.getAxisLength(d))
+				{
+					throw new FormatException("SDT planes must be written whole");
+				}
+			}
+
+			final SDTInfo h = headers[image];
+			final int bpp = FormatTools.getBytesPerPixel(FormatTools.UINT16);
+			final int rowBytes = h.width * h.timeBins * bpp;
+			final int padBytes = ((4 - (h.width % 4)) % 4) * h.timeBins * bpp;
+			final byte[] bytes = plane.getBytes();
+			if (bytes.length < (long) h.height * rowBytes) {
+				throw new FormatException("Plane " + planeIndex + " of image " +
+					imageIndex + " holds " + bytes.length + " bytes, expected " +
+					(long) h.height * rowBytes);
+			}
+			if (planeIndex == 0) blocks.startBlock(h);
+			final boolean swap = !iMeta.isLittleEndian();
+			if (swap && (row == null || row.length != rowBytes)) {
+				row = new byte[rowBytes];
+			}
+			for (int y = 0; y < h.height; y++) {
+				final int off = y * rowBytes;
+				if (swap) {
+					for (int i = 0; i < rowBytes; i += 2) {
+						row[i] = bytes[off + i + 1];
+						row[i + 1] = bytes[off + i];
+					}
+					blocks.writeBlock(row, 0, rowBytes);
+				}
+				else blocks.writeBlock(bytes, off, rowBytes);
+				if (padBytes > 0) blocks.padBlock(padBytes);
+			}
+
+			if (++this.plane == iMeta.getPlaneCount()) {
+				endBlock();
+			}
+		}
+
+		@Override
+		public boolean canDoStacks() {
+			return true;
+		}
+
+		@Override
+		public int[] getPixelTypes(final String codec) {
+			return new int[] { FormatTools.UINT16 };
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (blocks != null) {
+				if (image < headers.length) {
+					log().warn("SDT file closed after " + image + " of " +
+						headers.length + " images");
+					if (plane > 0) {
+						// NB: keep the planes written so far as the channels of the image
+						final SDTInfo h = headers[image];
+						h.channels = h.scanRX = (int) plane;
+						final int length = header.measDescBlockLength & 0xffff;
+						final ByteBuffer measDesc = ByteBuffer.allocate(length).order(
+							ByteOrder.LITTLE_ENDIAN);
+						h.writeMeasDescBlock(measDesc);
+						blocks.patch(header.measDescBlockOffs + (long) image * length,
+							measDesc);
+						endBlock();
+					}
+					blocks.endChain();
+					header.noOfMeasDescBlocks = (short) Math.max(1, image);
+					header.noOfDataBlocks = (short) Math.min(image, 0x7fff);
+					header.reserved1 = image < 0x7fff ? 0 : image;
+				}
+				header.dataBlockLength = (int) Math.min(maxBlockLength,
+					Integer.MAX_VALUE);
+				blocks.patch(0, fileHeader(header));
+				blocks.close();
+				final DataHandle<Location> out = getHandle();
+				if (out.length() > blocks.offset()) out.setLength(blocks.offset());
+				blocks = null;
+				headers = null;
+				header = null;
+				row = null;
+			}
+			super.close();
+		}
+
+		// -- AbstractWriter Methods --
+
+		@Override
+		protected String[] makeCompressionTypes() {
+			return new String[] { UNCOMPRESSED, ZIP };
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Gets the measurement and block header of the given image: a copy of
+		 * its {@link SDTInfo}, or of an empty one whose time base is the range of
+		 * the {@link SCIFIOAxes#LIFETIME} axis, with the dimensions of the image.
+		 */
+		private SDTInfo imageHeader(final int imageIndex,
+			final boolean compressed) throws FormatException
+		{
+			final Metadata m = getMetadata();
+			final ImageMetadata iMeta = m.get(imageIndex);
+			if (m.getImageMode() != ImageMode.DECAY || iMeta.getAxisIndex(
+				SCIFIOAxes.LIFETIME) != 0 || iMeta.getAxisIndex(Axes.X) != 1 || iMeta
+					.getAxisIndex(Axes.Y) != 2 || iMeta.getPlanarAxisCount() != 3 ||
+				iMeta.getPixelType() != FormatTools.UINT16)
+			{
+				throw new FormatException("Only " + FormatTools.getPixelTypeString(
+					FormatTools.UINT16) + " planes of lifetime decays along X and Y " +
+					"can be written to SDT files");
+			}
+			final int timeBins = (int) iMeta.getAxisLength(SCIFIOAxes.LIFETIME);
+			final long channels = iMeta.getPlaneCount();
+			final long width = iMeta.getAxisLength(Axes.X);
+			final long blockBytes = (width + (4 - width % 4) % 4) * iMeta
+				.getAxisLength(Axes.Y) * timeBins * channels * 2;
+			if (timeBins > Short.MAX_VALUE || channels > Integer.MAX_VALUE ||
+				compressed && blockBytes > 0xffffffffL)
+			{
+				throw new FormatException("Image " + imageIndex +
+					" is too large for an SDT file");
+			}
+
+			final SDTInfo source = m.getSDTInfo(imageIndex);
+			final SDTInfo h = source == null ? new SDTInfo() : source.copy();
+			if (source == null) {
+				final CalibratedAxis axis = iMeta.getAxis(SCIFIOAxes.LIFETIME);
+				h.tacR = (float) (1e-9 * (axis.calibratedValue(timeBins) - axis
+					.calibratedValue(0)));
+				h.tacG = 1;
+			}
+			h.width = h.scanX = (int) width;
+			h.height = h.scanY = (int) iMeta.getAxisLength(Axes.Y);
+			h.timeBins = timeBins;
+			h.adcRE = (short) timeBins;
+			h.channels = h.scanRX = (int) channels;
+			h.scanRY = 1;
+			if (h.measMode == SDTInfo.FIFO_IMAGE_MODE) h.measMode = 0;
+			if ((h.measDescBlockLength & 0xffff) < SDTInfo.MEAS_DESC_BLOCK_LENGTH) {
+				h.measDescBlockLength = SDTInfo.MEAS_DESC_BLOCK_LENGTH;
+			}
+
+			h.blockNo = (short) Math.min(imageIndex, 0x7fff);
+			h.lblockNo = imageIndex;
+			h.measDescBlockNo = (short) imageIndex;
+			// NB: keep the kind of block, whose data is now unsigned 16-bit
+			final SDTBlockIndex index = m.getBlockIndex(imageIndex);
+			h.blockType = index == null || index.size() == 0 ? 0 : index
+				.getBlockType(0) & 0xff;
+			if (compressed) h.blockType |= SDTInfo.DATA_ZIPPED;
+			return h;
+		}
+
+		/** Ends the data block of the current image. */
+		private void endBlock() throws IOException {
+			final long length = blocks.endBlock(image == headers.length - 1);
+			maxBlockLength = Math.max(maxBlockLength, length);
+			image++;
+			plane = 0;
+		}
+
+		private static ByteBuffer fileHeader(final SDTInfo header) {
+			final ByteBuffer b = ByteBuffer.allocate(SDTInfo.HEADER_LENGTH)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			header.writeFileHeader(b);
+			return b;
+		}
+
+		/** Encodes the given header text, whose length must fit in 16 bits. */
+		private static byte[] text(final String s, final String name)
+			throws FormatException
+		{
+			final byte[] bytes = s.getBytes(Charset.forName(Constants.ENCODING));
+			if (bytes.length > Short.MAX_VALUE) {
+				throw new FormatException("SDT " + name + " text of " +
+					bytes.length + " bytes is too long");
+			}
+			return bytes;
+		}
+
+		/**
+		 * Sets the dimension parameters of the given setup text to the dimensions
+		 * of the given header.
+		 */
+		private static String resizeSetup(final String setup, final SDTInfo h) {
+			final String[] prefixes = { SDTInfo.X_STRING, SDTInfo.Y_STRING,
+				SDTInfo.T_STRING, SDTInfo.C_STRING1, SDTInfo.C_STRING2 };
+			final int[] values = { h.width, h.height, h.timeBins, h.channels, 1 };
+			final StringBuilder sb = new StringBuilder(setup.length());
+			int pos = 0;
+			while (pos < setup.length()) {
+				int end = setup.indexOf('\n', pos);
+				end = end < 0 ? setup.length() : end + 1;
+				final String line = setup.substring(pos, end);
+				final String trimmed = line.trim();
+				int p = 0;
+				while (p < prefixes.length && !trimmed.startsWith(prefixes[p])) p++;
+				if (p == prefixes.length) sb.append(line);
+				else {
+					final int start = line.indexOf(prefixes[p]) + prefixes[p].length();
+					final int close = line.indexOf(']', start);
+					sb.append(line, 0, start).append(values[p]).append(close < 0 ? "]"
+						: line.substring(close));
+				}
+				pos = end;
+			}
+			return sb.toString();
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void checkTimeBinning(final int timeBinning) {
+		if (timeBinning < 1) {
+			throw new IllegalArgumentException("Invalid time binning: " +
+				timeBinning);
+		}
+	}
+
+	private static void checkSpatialBinning(final int spatialBinning) {
+		if (spatialBinning < 1) {
+			throw new IllegalArgumentException("Invalid spatial binning: " +
+				spatialBinning);
+		}
+	}
+
+	private static void checkIntensityPixelType(final int pixelType) {
+		if (pixelType != FormatTools.UINT16 && pixelType != FormatTools.UINT32 &&
+			pixelType != FormatTools.FLOAT)
+		{
+			throw new IllegalArgumentException("Unsupported intensity type: " +
+				FormatTools.getPixelTypeString(pixelType));
 		}
 	}
 }
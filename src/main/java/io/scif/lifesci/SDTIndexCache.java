@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+
+/**
+ * Persistent cache of SDT headers. For each SDT file, the raw bytes of its
+ * header blocks and its {@link SDTBlockIndex} are stored in an index file in
+ * the cache directory, keyed by the path, size and modification time of the
+ * SDT file, so that unchanged files can be reopened without reading their
+ * headers from the file or walking their block chains again.
+ */
+class SDTIndexCache {
+
+	// -- Constants --
+
+	/** Magic number of index files: "SDTI". */
+	private static final int MAGIC = 0x53445449;
+
+	private static final int VERSION = 2;
+
+	private static final String SUFFIX = ".sdtidx";
+
+	/** Largest header, in bytes, that is cached. */
+	private static final long MAX_HEADER_LENGTH = 4 * 1024 * 1024;
+
+	// -- Fields --
+
+	private final File dir;
+
+	// -- Constructor --
+
+	public SDTIndexCache(final File dir) {
+		this.dir = dir;
+	}
+
+	// -- SDTIndexCache methods --
+
+	/**
+	 * Loads the cached header of the given SDT file.
+	 * 
+	 * @return the cached entry, or null if no index file matches the current
+	 *         path, size and modification time of the SDT file.
+	 */
+	public Entry load(final File file) throws IOException {
+		final File index = indexFile(file);
+		if (!index.isFile()) return null;
+		try (final DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(index))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF()
+				.equals(file.getAbsolutePath()) || in.readLong() != file.length() ||
+				in.readLong() != file.lastModified())
+			{
+				return null;
+			}
+			final byte[] header = new byte[in.readInt()];
+			in.readFully(header);
+			final int count = in.readInt();
+			final long[] dataOffsets = new long[count];
+			final long[] lengths = new long[count];
+			final short[] measDescBlockNos = new short[count];
+			final int[] blockTypes = new int[count];
+			for (int i = 0; i < count; i++) {
+				dataOffsets[i] = in.readLong();
+				lengths[i] = in.readLong();
+				measDescBlockNos[i] = in.readShort();
+				blockTypes[i] = in.readUnsignedShort();
+			}
+			return new Entry(header, new SDTBlockIndex(dataOffsets, lengths,
+				measDescBlockNos, blockTypes));
+		}
+	}
+
+	/**
+	 * Stores the header of the given SDT file, read from {@code handle}. The
+	 * index file is written under a temporary name and then atomically moved
+	 * into place, so that concurrent readers never see a partial or missing
+	 * index. Headers larger than {@link #MAX_HEADER_LENGTH} are not stored.
+	 */
+	public void save(final File file, final DataHandle<Location> handle,
+		final SDTInfo info, final SDTBlockIndex blockIndex) throws IOException
+	{
+		final long length = headerLength(info);
+		if (length > MAX_HEADER_LENGTH) return;
+		final byte[] header = new byte[(int) length];
+		handle.seek(0);
+		handle.readFully(header);
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create index cache directory " + dir);
+		}
+		final File index = indexFile(file);
+		final File temp = File.createTempFile(index.getName(), ".tmp", dir);
+		try {
+			try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(file.getAbsolutePath());
+				out.writeLong(file.length());
+				out.writeLong(file.lastModified());
+				out.writeInt(header.length);
+				out.write(header);
+				out.writeInt(blockIndex.size());
+				for (int i = 0; i < blockIndex.size(); i++) {
+					out.writeLong(blockIndex.getDataOffset(i));
+					out.writeLong(blockIndex.getLength(i));
+					out.writeShort(blockIndex.getMeasDescBlockNo(i));
+					out.writeShort(blockIndex.getBlockType(i));
+				}
+			}
+			Files.move(temp.toPath(), index.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Gets the index file of the given SDT file. */
+	private File indexFile(final File file) {
+		final String path = file.getAbsolutePath();
+		return new File(dir, file.getName() + "-" + Integer.toHexString(path
+			.hashCode()) + SUFFIX);
+	}
+
+	/**
+	 * Gets the length of the start of the file holding everything that
+	 * {@link SDTInfo} reads: the file header, the file info, the setup, the
+	 * measurement description blocks and the first block header.
+	 */
+	private static long headerLength(final SDTInfo info) {
+		long end = SDTInfo.HEADER_LENGTH;
+		end = Math.max(end, info.infoOffs + (long) info.infoLength);
+		end = Math.max(end, info.setupOffs + (long) info.setupLength);
+		end = Math.max(end, info.measDescBlockOffs +
+			(long) info.noOfMeasDescBlocks * info.measDescBlockLength);
+		return Math.max(end, info.dataBlockOffs + SDTInfo.BLOCK_HEADER_LENGTH);
+	}
+
+	// -- Helper classes --
+
+	/** Cached header of one SDT file. */
+	public static class Entry {
+
+		/** Raw bytes of the start of the file, up to the first data block. */
+		public final byte[] header;
+
+		public final SDTBlockIndex blockIndex;
+
+		public Entry(final byte[] header, final SDTBlockIndex blockIndex) {
+			this.header = header;
+			this.blockIndex = blockIndex;
+		}
+	}
+}
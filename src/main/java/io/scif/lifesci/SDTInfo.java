@@ -28,7 +28,11 @@ package io.scif.lifesci;
 import io.scif.MetaTable;
 import io.scif.common.Constants;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.util.StringTokenizer;
 
 import org.scijava.io.handle.DataHandle;
@@ -41,7 +45,7 @@ import org.scijava.io.location.Location;
  * @author Curtis Rueden
  * @author Mark Hiner
  */
-public class SDTInfo {
+public class SDTInfo implements Cloneable {
 
 	// -- Constants --
 
@@ -51,6 +55,25 @@ public class SDTInfo {
 
 	public static final int FIFO_IMAGE_MODE = 13;
 
+	/** {@link #blockType} flag of data blocks stored as zip archives. */
+	public static final int DATA_ZIPPED = 0x1000;
+
+	/** Length in bytes of the bhfileHeader. */
+	public static final int HEADER_LENGTH = 42;
+
+	/** Length in bytes of a BHFileBlockHeader. */
+	public static final int BLOCK_HEADER_LENGTH = 22;
+
+	/**
+	 * Length of a measurement description block holding the MeasureInfo,
+	 * MeasStopInfo, MeasFCSInfo, extended MeasureInfo and MeasHISTInfo.
+	 */
+	public static final int MEAS_DESC_BLOCK_LENGTH = 211 + 60 + 38 + 26 + 24;
+
+	/** Lengths of the successive versions of the measurement description. */
+	private static final int[] MEAS_DESC_PARTS = { 211, 211 + 60,
+		211 + 60 + 38, 211 + 60 + 38 + 26, MEAS_DESC_BLOCK_LENGTH };
+
 	/** For .set files (setup only). */
 	public static final String SETUP_IDENTIFIER = "SPC Setup Script File";
 
@@ -81,10 +104,15 @@ public class SDTInfo {
 	public static final String C_STRING1 = "#SP [SP_SCAN_RX,I,";
 	public static final String C_STRING2 = "#SP [SP_SCAN_RY,I,";
 
+	private static final Charset CHARSET = Charset.forName(Constants.ENCODING);
+
 	// -- Fields --
 
 	public int width, height, timeBins, channels, timepoints;
 
+	/** Dimensions given by the setup, before the measurement overrides them. */
+	private int setupWidth, setupHeight, setupTimeBins, setupChannels;
+
 	// -- Fields - File header --
 
 	/** Software revision number (lower 4 bits &gt;= 10(decimal)). */
@@ -108,8 +136,8 @@ public class SDTInfo {
 	/** Length of the setup data. */
 	public short setupLength;
 
-	/** Offset of the first data block. */
-	public int dataBlockOffs;
+	/** Offset of the first data block (unsigned). */
+	public long dataBlockOffs;
 
 	/**
 	 * no_of_data_blocks valid only when in 0 .. 0x7ffe range, if equal to 0x7fff
@@ -385,6 +413,8 @@ public class SDTInfo {
 
 	// -- Fields - BHFileBlockHeader --
 
+	public boolean hasBlockHeader;
+
 	/**
 	 * Number of the block in the file. Valid only when in 0..0x7ffe range,
 	 * otherwise use lblock_no field obsolete now, lblock_no contains full block
@@ -392,11 +422,11 @@ public class SDTInfo {
 	 */
 	public short blockNo;
 
-	/** Offset of the data block from the beginning of the file. */
-	public int dataOffs;
+	/** Offset of the data block from the beginning of the file (unsigned). */
+	public long dataOffs;
 
-	/** Offset to the data block header of the next data block. */
-	public int nextBlockOffs;
+	/** Offset to the data block header of the next data block (unsigned). */
+	public long nextBlockOffs;
 
 	/** See blockType defines below. */
 	public int blockType;
@@ -413,14 +443,330 @@ public class SDTInfo {
 	/** reserved2 now contains block (set) length. */
 	public long blockLength; // unsigned
 
-	// -- Constructor --
+	// -- Constructors --
+
+	/**
+	 * Constructs an empty SDT header, whose fields are filled in directly, e.g.
+	 * to write a new file.
+	 */
+	SDTInfo() {}
 
 	/**
 	 * Constructs a new SDT header by reading values from the given input source,
-	 * populating the given metadata table.
+	 * populating the given metadata table, if not null.
 	 */
 	public SDTInfo(final DataHandle<Location> handle,
 		final MetaTable meta) throws IOException
+	{
+		this(handle, meta, false);
+	}
+
+	/**
+	 * Constructs a new SDT header by reading values from the given input source,
+	 * populating the given metadata table. If {@code minimal} is set, only what
+	 * determines the image dimensions and time base is read: the bhfileHeader,
+	 * the dimension parameters of the setup and the MeasureInfo (plus, for FIFO
+	 * images, the extended MeasureInfo). The file info, the rest of the
+	 * measurement description and the first block header are skipped, and
+	 * {@link #info} and {@link #setup} are left null. Files that a full read
+	 * would find truncated are still rejected.
+	 */
+	public SDTInfo(final DataHandle<Location> handle, final MetaTable meta,
+		final boolean minimal) throws IOException
+	{
+		readBhFileHeader(handle);
+
+		if (!minimal) {
+			// read file info
+			handle.seek(infoOffs);
+			final byte[] infoBytes = new byte[infoLength];
+			handle.readFully(infoBytes);
+			info = new String(infoBytes, Constants.ENCODING);
+		}
+
+		// read setup
+		handle.seek(setupOffs);
+		final byte[] setupBytes = new byte[setupLength];
+		handle.readFully(setupBytes);
+		if (!minimal) setup = new String(setupBytes, Constants.ENCODING);
+
+		scanSetup(setupBytes, true, null);
+		setupWidth = width;
+		setupHeight = height;
+		setupTimeBins = timeBins;
+		setupChannels = channels;
+
+		// read the first measurement description
+		if (noOfMeasDescBlocks > 0) readMeasDescBlock(handle, 0, minimal);
+
+		if (!minimal) {
+			handle.seek(dataBlockOffs);
+			readBlockHeader(handle);
+		}
+		else {
+			// fail where a full read would, without reading the skipped parts
+			final long length = handle.length();
+			long measDescEnd = 0;
+			if (noOfMeasDescBlocks > 0) {
+				for (final int part : MEAS_DESC_PARTS) {
+					if (measDescBlockLength >= part) measDescEnd = measDescBlockOffs +
+						part;
+				}
+			}
+			if (infoOffs + (long) infoLength > length || measDescEnd > length ||
+				dataBlockOffs + BLOCK_HEADER_LENGTH > length)
+			{
+				throw new EOFException("SDT header extends beyond the end of file");
+			}
+		}
+
+		applyFifoLayout();
+
+		if (meta != null) populate(meta);
+	}
+
+	/**
+	 * Reads just the bhfileHeader at the start of the given input source, e.g.
+	 * to check whether it is an SDT file with {@link #isHeaderValid()}.
+	 */
+	public static SDTInfo readFileHeader(final DataHandle<Location> handle)
+		throws IOException
+	{
+		final SDTInfo info = new SDTInfo();
+		handle.seek(0);
+		info.readBhFileHeader(handle);
+		return info;
+	}
+
+	/**
+	 * Gets the header of the given measurement, for files that hold several
+	 * measurements, e.g. from several modules or steps: a copy of this header
+	 * whose measurement fields are read from measurement description block
+	 * {@code no}, and whose image dimensions are derived from it and from its
+	 * {@code dataBlocks} data blocks.
+	 */
+	public SDTInfo forMeasDescBlock(final DataHandle<Location> handle,
+		final int no, final int dataBlocks, final boolean minimal)
+		throws IOException
+	{
+		final SDTInfo measurement = copy();
+		measurement.width = setupWidth;
+		measurement.height = setupHeight;
+		measurement.timeBins = setupTimeBins;
+		measurement.channels = setupChannels;
+		// NB: like the file header, counts from 0x7fff on are kept in reserved1
+		if (dataBlocks < 0x7fff) measurement.noOfDataBlocks = (short) dataBlocks;
+		else {
+			measurement.noOfDataBlocks = 0x7fff;
+			measurement.reserved1 = dataBlocks;
+		}
+		measurement.readMeasDescBlock(handle, no, minimal);
+		measurement.applyFifoLayout();
+		return measurement;
+	}
+
+	/** Gets a copy of this header, e.g. to adjust before writing it. */
+	SDTInfo copy() {
+		try {
+			return (SDTInfo) clone();
+		}
+		catch (final CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Whether the bhfileHeader checksum is valid: the sum of its 16-bit words,
+	 * including {@link #chksum}, is {@link #BH_HEADER_CHKSUM}.
+	 */
+	public boolean isChecksumValid() {
+		return (headerSum() & 0xffff) == BH_HEADER_CHKSUM;
+	}
+
+	/**
+	 * Whether the bhfileHeader is marked as valid, or else has a valid
+	 * checksum.
+	 */
+	public boolean isHeaderValid() {
+		return headerValid == BH_HEADER_VALID || isChecksumValid();
+	}
+
+	/**
+	 * Reads measurement description block {@code no}, and the image dimensions
+	 * it gives.
+	 */
+	private void readMeasDescBlock(final DataHandle<Location> handle,
+		final int no, final boolean minimal) throws IOException
+	{
+		final long blockOffs = measDescBlockOffs + (long) no *
+			measDescBlockLength;
+		handle.seek(blockOffs);
+
+		hasMeasureInfo = measDescBlockLength >= 211;
+		hasMeasStopInfo = measDescBlockLength >= 211 + 60;
+		hasMeasFCSInfo = measDescBlockLength >= 211 + 60 + 38;
+		hasExtendedMeasureInfo = measDescBlockLength >= 211 + 60 + 38 + 26;
+		hasMeasHISTInfo = measDescBlockLength >= 211 + 60 + 38 + 26 + 24;
+		if (minimal) {
+			// only the extended MeasureInfo of FIFO images affects dimensions
+			hasMeasStopInfo = hasMeasFCSInfo = hasMeasHISTInfo = false;
+		}
+
+		if (hasMeasureInfo) {
+			time = handle.readString(9).trim();
+			date = handle.readString(11).trim();
+			modSerNo = handle.readString(16).trim();
+
+			measMode = handle.readShort();
+			cfdLL = handle.readFloat();
+			cfdLH = handle.readFloat();
+			cfdZC = handle.readFloat();
+			cfdHF = handle.readFloat();
+			synZC = handle.readFloat();
+			synFD = handle.readShort();
+			synHF = handle.readFloat();
+			tacR = handle.readFloat();
+			tacG = handle.readShort();
+			tacOF = handle.readFloat();
+			tacLL = handle.readFloat();
+			tacLH = handle.readFloat();
+			adcRE = handle.readShort();
+			ealDE = handle.readShort();
+			ncx = handle.readShort();
+			ncy = handle.readShort();
+			page = handle.readUnsignedShort();
+			colT = handle.readFloat();
+			repT = handle.readFloat();
+			stopt = handle.readShort();
+			overfl = handle.readUnsignedByte();
+			useMotor = handle.readShort();
+			steps = handle.readUnsignedShort();
+			offset = handle.readFloat();
+			dither = handle.readShort();
+			incr = handle.readShort();
+			memBank = handle.readShort();
+
+			modType = handle.readString(16).trim();
+
+			synTH = handle.readFloat();
+			deadTimeComp = handle.readShort();
+			polarityL = handle.readShort();
+			polarityF = handle.readShort();
+			polarityP = handle.readShort();
+			linediv = handle.readShort();
+			accumulate = handle.readShort();
+			flbckY = handle.readInt();
+			flbckX = handle.readInt();
+			bordU = handle.readInt();
+			bordL = handle.readInt();
+			pixTime = handle.readFloat();
+			pixClk = handle.readShort();
+			trigger = handle.readShort();
+			scanX = handle.readInt();
+			scanY = handle.readInt();
+			scanRX = handle.readInt();
+			scanRY = handle.readInt();
+			fifoTyp = handle.readShort();
+			epxDiv = handle.readInt();
+			modTypeCode = handle.readUnsignedShort();
+			modFpgaVer = handle.readUnsignedShort();
+			overflowCorrFactor = handle.readFloat();
+			adcZoom = handle.readInt();
+			cycles = handle.readInt();
+
+			timepoints = stopt;
+
+			// extract dimensional parameters from measure info
+			if (scanX > 0) width = scanX;
+			if (scanY > 0) height = scanY;
+			if (adcRE > 0) timeBins = adcRE;
+			if (scanRX > 0 || scanRY > 0) {
+				channels = nonZeroProduct(scanRX, scanRY);
+			}
+		}
+
+		if (minimal && hasExtendedMeasureInfo) {
+			hasExtendedMeasureInfo = FIFO_IMAGE_MODE == measMode;
+		}
+
+		if (hasMeasStopInfo) {
+			// MeasStopInfo - information collected when measurement is finished
+			status = handle.readUnsignedShort();
+			flags = handle.readUnsignedShort();
+			stopTime = handle.readFloat();
+			curStep = handle.readInt();
+			curCycle = handle.readInt();
+			curPage = handle.readInt();
+			minSyncRate = handle.readFloat();
+			minCfdRate = handle.readFloat();
+			minTacRate = handle.readFloat();
+			minAdcRate = handle.readFloat();
+			maxSyncRate = handle.readFloat();
+			maxCfdRate = handle.readFloat();
+			maxTacRate = handle.readFloat();
+			maxAdcRate = handle.readFloat();
+			mReserved1 = handle.readInt();
+			mReserved2 = handle.readFloat();
+		}
+
+		if (hasMeasFCSInfo) {
+			// MeasFCSInfo - information collected when FIFO measurement is finished
+			chan = handle.readUnsignedShort();
+			fcsDecayCalc = handle.readUnsignedShort();
+			mtResol = (0xffffffffL & handle.readInt()); // unsigned
+			cortime = handle.readFloat();
+			calcPhotons = (0xffffffffL & handle.readInt()); // unsigned
+			fcsPoints = handle.readInt();
+			endTime = handle.readFloat();
+			overruns = handle.readUnsignedShort();
+			fcsType = handle.readUnsignedShort();
+			crossChan = handle.readUnsignedShort();
+			mod = handle.readUnsignedShort();
+			crossMod = handle.readUnsignedShort();
+			crossMtResol = (0xffffffffL & handle.readInt()); // unsigned
+		}
+
+		if (hasExtendedMeasureInfo) {
+			handle.seek(blockOffs + 211 + 60 + 38);
+			imageX = handle.readInt();
+			imageY = handle.readInt();
+			imageRX = handle.readInt();
+			imageRY = handle.readInt();
+			xyGain = handle.readShort();
+			masterClock = handle.readShort();
+			adcDE = handle.readShort();
+			detType = handle.readShort();
+			xAxis = handle.readShort();
+		}
+
+		if (hasMeasHISTInfo) {
+			// MeasHISTInfo - extension of FCSInfo, valid only for FIFO meas
+			// extension of MeasFCSInfo for other histograms (FIDA, FILDA, MCS)
+			fidaTime = handle.readFloat();
+			fildaTime = handle.readFloat();
+			fidaPoints = handle.readInt();
+			fildaPoints = handle.readInt();
+			mcsTime = handle.readFloat();
+			mcsPoints = handle.readInt();
+		}
+	}
+
+	/** Adjusts the dimensions of FIFO images to their data blocks. */
+	private void applyFifoLayout() {
+		// similar logic to TRI2, to "account for SPC-152 type images"
+		if (FIFO_IMAGE_MODE == measMode) {
+			if (imageX > 0) width = imageX;
+			if (imageY > 0) height = imageY;
+			if (imageRX > 0 || imageRY > 0) {
+				channels = nonZeroProduct(scanRX, scanRY);
+			}
+			channels *= getDataBlockCount();
+		}
+	}
+
+	/** Reads the bhfileHeader from the current position. */
+	private void readBhFileHeader(final DataHandle<Location> handle)
+		throws IOException
 	{
 		// read bhfileHeader
 		revision = handle.readShort();
@@ -428,7 +774,7 @@ public class SDTInfo {
 		infoLength = handle.readShort();
 		setupOffs = handle.readInt();
 		setupLength = handle.readShort();
-		dataBlockOffs = handle.readInt();
+		dataBlockOffs = (0xffffffffL & handle.readInt()); // unsigned
 		noOfDataBlocks = handle.readShort();
 		dataBlockLength = handle.readInt();
 		measDescBlockOffs = handle.readInt();
@@ -438,398 +784,193 @@ public class SDTInfo {
 		reserved1 = (0xffffffffL & handle.readInt()); // unsigned
 		reserved2 = handle.readUnsignedShort();
 		chksum = handle.readUnsignedShort();
+	}
 
+	/**
+	 * Puts the header fields into the given metadata table, as read by
+	 * {@link #SDTInfo(DataHandle, MetaTable)}.
+	 */
+	public void populate(final MetaTable meta) {
 		// save bhfileHeader to metadata table
-		if (meta != null) {
-			final String bhfileHeader = "bhfileHeader.";
-			meta.put(bhfileHeader + "revision", new Short(revision));
-			meta.put(bhfileHeader + "infoOffs", new Integer(infoOffs));
-			meta.put(bhfileHeader + "infoLength", new Short(infoLength));
-			meta.put(bhfileHeader + "setupOffs", new Integer(setupOffs));
-			meta.put(bhfileHeader + "dataBlockOffs", new Integer(dataBlockOffs));
-			meta.put(bhfileHeader + "noOfDataBlocks", new Short(noOfDataBlocks));
-			meta.put(bhfileHeader + "dataBlockLength", new Integer(dataBlockLength));
-			meta.put(bhfileHeader + "measDescBlockOffs", new Integer(
-				measDescBlockOffs));
-			meta.put(bhfileHeader + "noOfMeasDescBlocks", new Short(
-				noOfMeasDescBlocks));
-			meta.put(bhfileHeader + "measDescBlockLength", new Integer(
-				measDescBlockLength));
-			meta.put(bhfileHeader + "headerValid", new Integer(headerValid));
-			meta.put(bhfileHeader + "reserved1", new Long(reserved1));
-			meta.put(bhfileHeader + "reserved2", new Integer(reserved2));
-			meta.put(bhfileHeader + "chksum", new Integer(chksum));
-		}
-
-		// read file info
-		handle.seek(infoOffs);
-		final byte[] infoBytes = new byte[infoLength];
-		handle.readFully(infoBytes);
-		info = new String(infoBytes, Constants.ENCODING);
-
-		StringTokenizer st = new StringTokenizer(info, "\n");
-		final int count = st.countTokens();
-		st.nextToken();
-		String key = null, value = null;
-		for (int i = 1; i < count - 1; i++) {
-			final String token = st.nextToken().trim();
-			if (token.indexOf(":") == -1) continue;
-			key = token.substring(0, token.indexOf(":")).trim();
-			value = token.substring(token.indexOf(":") + 1).trim();
-			if (meta != null) {
+		final String bhfileHeader = "bhfileHeader.";
+		meta.put(bhfileHeader + "revision", Short.valueOf(revision));
+		meta.put(bhfileHeader + "infoOffs", Integer.valueOf(infoOffs));
+		meta.put(bhfileHeader + "infoLength", Short.valueOf(infoLength));
+		meta.put(bhfileHeader + "setupOffs", Integer.valueOf(setupOffs));
+		meta.put(bhfileHeader + "dataBlockOffs", Long.valueOf(dataBlockOffs));
+		meta.put(bhfileHeader + "noOfDataBlocks", Short.valueOf(noOfDataBlocks));
+		meta.put(bhfileHeader + "dataBlockLength", Integer.valueOf(
+			dataBlockLength));
+		meta.put(bhfileHeader + "measDescBlockOffs", Integer.valueOf(
+			measDescBlockOffs));
+		meta.put(bhfileHeader + "noOfMeasDescBlocks", Short.valueOf(
+			noOfMeasDescBlocks));
+		meta.put(bhfileHeader + "measDescBlockLength", Integer.valueOf(
+			measDescBlockLength));
+		meta.put(bhfileHeader + "headerValid", Integer.valueOf(headerValid));
+		meta.put(bhfileHeader + "reserved1", Long.valueOf(reserved1));
+		meta.put(bhfileHeader + "reserved2", Integer.valueOf(reserved2));
+		meta.put(bhfileHeader + "chksum", Integer.valueOf(chksum));
+
+		// save file info to metadata table
+		if (info != null) {
+			final StringTokenizer st = new StringTokenizer(info, "\n");
+			final int count = st.countTokens();
+			st.nextToken();
+			String key = null, value = null;
+			for (int i = 1; i < count - 1; i++) {
+				final String token = st.nextToken().trim();
+				if (token.indexOf(":") == -1) continue;
+				key = token.substring(0, token.indexOf(":")).trim();
+				value = token.substring(token.indexOf(":") + 1).trim();
 				meta.put(key, value);
 			}
 		}
 
-		// read setup
-		handle.seek(setupOffs);
-		final byte[] setupBytes = new byte[setupLength];
-		handle.readFully(setupBytes);
-		setup = new String(setupBytes, Constants.ENCODING);
+		// save setup to metadata table
+		if (setup != null) scanSetup(setup.getBytes(CHARSET), false, meta);
 
-		st = new StringTokenizer(setup, "\n");
-		while (st.hasMoreTokens()) {
-			final String token = st.nextToken().trim();
-
-			if (token.startsWith("#SP") || token.startsWith("#DI") ||
-				token.startsWith("#PR") || token.startsWith("#MP"))
-			{
-				final int open = token.indexOf("[");
-				key = token.substring(open + 1, token.indexOf(",", open));
-				value = token.substring(token.lastIndexOf(",") + 1, token.length() - 1);
-			}
-			else if (token.startsWith("#TR") || token.startsWith("#WI")) {
-				key = token.substring(0, token.indexOf("[")).trim();
-				value = token.substring(token.indexOf("[") + 1, token.indexOf("]"));
-			}
-
-			if (key != null && value != null && meta != null) meta.put(key, value);
-
-			if (token.indexOf(X_STRING) != -1) {
-				final int ndx = token.indexOf(X_STRING) + X_STRING.length();
-				final int end = token.indexOf("]", ndx);
-				width = Integer.parseInt(token.substring(ndx, end));
-			}
-			else if (token.indexOf(Y_STRING) != -1) {
-				final int ndx = token.indexOf(Y_STRING) + Y_STRING.length();
-				final int end = token.indexOf("]", ndx);
-				height = Integer.parseInt(token.substring(ndx, end));
-			}
-			else if (token.indexOf(T_STRING) != -1) {
-				final int ndx = token.indexOf(T_STRING) + T_STRING.length();
-				final int end = token.indexOf("]", ndx);
-				timeBins = Integer.parseInt(token.substring(ndx, end));
-			}
-			else if (token.indexOf(C_STRING1) != -1) {
-				final int ndx = token.indexOf(C_STRING1) + C_STRING1.length();
-				final int end = token.indexOf("]", ndx);
-				channels =
-					nonZeroProduct(channels, Integer.parseInt(token.substring(ndx, end)));
-			}
-			else if (token.indexOf(C_STRING2) != -1) {
-				final int ndx = token.indexOf(C_STRING2) + C_STRING2.length();
-				final int end = token.indexOf("]", ndx);
-				channels =
-					nonZeroProduct(channels, Integer.parseInt(token.substring(ndx, end)));
-			}
-		}
-
-		// read measurement data
 		if (noOfMeasDescBlocks > 0) {
-			handle.seek(measDescBlockOffs);
-
-			hasMeasureInfo = measDescBlockLength >= 211;
-			hasMeasStopInfo = measDescBlockLength >= 211 + 60;
-			hasMeasFCSInfo = measDescBlockLength >= 211 + 60 + 38;
-			hasExtendedMeasureInfo = measDescBlockLength >= 211 + 60 + 38 + 26;
-			hasMeasHISTInfo = measDescBlockLength >= 211 + 60 + 38 + 26 + 24;
-
 			if (hasMeasureInfo) {
-				time = handle.readString(9).trim();
-				date = handle.readString(11).trim();
-				modSerNo = handle.readString(16).trim();
-
-				measMode = handle.readShort();
-				cfdLL = handle.readFloat();
-				cfdLH = handle.readFloat();
-				cfdZC = handle.readFloat();
-				cfdHF = handle.readFloat();
-				synZC = handle.readFloat();
-				synFD = handle.readShort();
-				synHF = handle.readFloat();
-				tacR = handle.readFloat();
-				tacG = handle.readShort();
-				tacOF = handle.readFloat();
-				tacLL = handle.readFloat();
-				tacLH = handle.readFloat();
-				adcRE = handle.readShort();
-				ealDE = handle.readShort();
-				ncx = handle.readShort();
-				ncy = handle.readShort();
-				page = handle.readUnsignedShort();
-				colT = handle.readFloat();
-				repT = handle.readFloat();
-				stopt = handle.readShort();
-				overfl = handle.readUnsignedByte();
-				useMotor = handle.readShort();
-				steps = handle.readUnsignedShort();
-				offset = handle.readFloat();
-				dither = handle.readShort();
-				incr = handle.readShort();
-				memBank = handle.readShort();
-
-				modType = handle.readString(16).trim();
-
-				synTH = handle.readFloat();
-				deadTimeComp = handle.readShort();
-				polarityL = handle.readShort();
-				polarityF = handle.readShort();
-				polarityP = handle.readShort();
-				linediv = handle.readShort();
-				accumulate = handle.readShort();
-				flbckY = handle.readInt();
-				flbckX = handle.readInt();
-				bordU = handle.readInt();
-				bordL = handle.readInt();
-				pixTime = handle.readFloat();
-				pixClk = handle.readShort();
-				trigger = handle.readShort();
-				scanX = handle.readInt();
-				scanY = handle.readInt();
-				scanRX = handle.readInt();
-				scanRY = handle.readInt();
-				fifoTyp = handle.readShort();
-				epxDiv = handle.readInt();
-				modTypeCode = handle.readUnsignedShort();
-				modFpgaVer = handle.readUnsignedShort();
-				overflowCorrFactor = handle.readFloat();
-				adcZoom = handle.readInt();
-				cycles = handle.readInt();
-
-				timepoints = stopt;
-
 				// save MeasureInfo to metadata table
-				if (meta != null) {
-					final String measureInfo = "MeasureInfo.";
-					meta.put(measureInfo + "time", time);
-					meta.put(measureInfo + "date", date);
-					meta.put(measureInfo + "modSerNo", modSerNo);
-					meta.put(measureInfo + "measMode", new Short(measMode));
-					meta.put(measureInfo + "cfdLL", new Float(cfdLL));
-					meta.put(measureInfo + "cfdLH", new Float(cfdLH));
-					meta.put(measureInfo + "cfdZC", new Float(cfdZC));
-					meta.put(measureInfo + "cfdHF", new Float(cfdHF));
-					meta.put(measureInfo + "synZC", new Float(synZC));
-					meta.put(measureInfo + "synFD", new Short(synFD));
-					meta.put(measureInfo + "synHF", new Float(synHF));
-					meta.put(measureInfo + "tacR", new Float(tacR));
-					meta.put(measureInfo + "tacG", new Short(tacG));
-					meta.put(measureInfo + "tacOF", new Float(tacOF));
-					meta.put(measureInfo + "tacLL", new Float(tacLL));
-					meta.put(measureInfo + "tacLH", new Float(tacLH));
-					meta.put(measureInfo + "adcRE", new Short(adcRE));
-					meta.put(measureInfo + "ealDE", new Short(ealDE));
-					meta.put(measureInfo + "ncx", new Short(ncx));
-					meta.put(measureInfo + "ncy", new Short(ncy));
-					meta.put(measureInfo + "page", new Integer(page));
-					meta.put(measureInfo + "colT", new Float(colT));
-					meta.put(measureInfo + "repT", new Float(repT));
-					meta.put(measureInfo + "stopt", new Short(stopt));
-					meta.put(measureInfo + "overfl", new Integer(overfl));
-					meta.put(measureInfo + "useMotor", new Short(useMotor));
-					meta.put(measureInfo + "steps", new Integer(steps));
-					meta.put(measureInfo + "offset", new Float(offset));
-					meta.put(measureInfo + "dither", new Short(dither));
-					meta.put(measureInfo + "incr", new Short(incr));
-					meta.put(measureInfo + "memBank", new Short(memBank));
-					meta.put(measureInfo + "modType", modType);
-					meta.put(measureInfo + "synTH", new Float(synTH));
-					meta.put(measureInfo + "deadTimeComp", new Short(deadTimeComp));
-					meta.put(measureInfo + "polarityL", new Short(polarityL));
-					meta.put(measureInfo + "polarityF", new Short(polarityF));
-					meta.put(measureInfo + "polarityP", new Short(polarityP));
-					meta.put(measureInfo + "linediv", new Short(linediv));
-					meta.put(measureInfo + "accumulate", new Short(accumulate));
-					meta.put(measureInfo + "flbckY", new Integer(flbckY));
-					meta.put(measureInfo + "flbckX", new Integer(flbckX));
-					meta.put(measureInfo + "bordU", new Integer(bordU));
-					meta.put(measureInfo + "bordL", new Integer(bordL));
-					meta.put(measureInfo + "pixTime", new Float(pixTime));
-					meta.put(measureInfo + "pixClk", new Short(pixClk));
-					meta.put(measureInfo + "trigger", new Short(trigger));
-					meta.put(measureInfo + "scanX", new Integer(scanX));
-					meta.put(measureInfo + "scanY", new Integer(scanY));
-					meta.put(measureInfo + "scanRX", new Integer(scanRX));
-					meta.put(measureInfo + "scanRY", new Integer(scanRY));
-					meta.put(measureInfo + "fifoTyp", new Short(fifoTyp));
-					meta.put(measureInfo + "epxDiv", new Integer(epxDiv));
-					meta.put(measureInfo + "modTypeCode", new Integer(modTypeCode));
-					meta.put(measureInfo + "modFpgaVer", new Integer(modFpgaVer));
-					meta.put(measureInfo + "overflowCorrFactor", new Float(
-						overflowCorrFactor));
-					meta.put(measureInfo + "adcZoom", new Integer(adcZoom));
-					meta.put(measureInfo + "cycles", new Integer(cycles));
-				}
-
-				// extract dimensional parameters from measure info
-				if (scanX > 0) width = scanX;
-				if (scanY > 0) height = scanY;
-				if (adcRE > 0) timeBins = adcRE;
-				if (scanRX > 0 || scanRY > 0) {
-					channels = nonZeroProduct(scanRX, scanRY);
-				}
+				final String measureInfo = "MeasureInfo.";
+				meta.put(measureInfo + "time", time);
+				meta.put(measureInfo + "date", date);
+				meta.put(measureInfo + "modSerNo", modSerNo);
+				meta.put(measureInfo + "measMode", Short.valueOf(measMode));
+				meta.put(measureInfo + "cfdLL", Float.valueOf(cfdLL));
+				meta.put(measureInfo + "cfdLH", Float.valueOf(cfdLH));
+				meta.put(measureInfo + "cfdZC", Float.valueOf(cfdZC));
+				meta.put(measureInfo + "cfdHF", Float.valueOf(cfdHF));
+				meta.put(measureInfo + "synZC", Float.valueOf(synZC));
+				meta.put(measureInfo + "synFD", Short.valueOf(synFD));
+				meta.put(measureInfo + "synHF", Float.valueOf(synHF));
+				meta.put(measureInfo + "tacR", Float.valueOf(tacR));
+				meta.put(measureInfo + "tacG", Short.valueOf(tacG));
+				meta.put(measureInfo + "tacOF", Float.valueOf(tacOF));
+				meta.put(measureInfo + "tacLL", Float.valueOf(tacLL));
+				meta.put(measureInfo + "tacLH", Float.valueOf(tacLH));
+				meta.put(measureInfo + "adcRE", Short.valueOf(adcRE));
+				meta.put(measureInfo + "ealDE", Short.valueOf(ealDE));
+				meta.put(measureInfo + "ncx", Short.valueOf(ncx));
+				meta.put(measureInfo + "ncy", Short.valueOf(ncy));
+				meta.put(measureInfo + "page", Integer.valueOf(page));
+				meta.put(measureInfo + "colT", Float.valueOf(colT));
+				meta.put(measureInfo + "repT", Float.valueOf(repT));
+				meta.put(measureInfo + "stopt", Short.valueOf(stopt));
+				meta.put(measureInfo + "overfl", Integer.valueOf(overfl));
+				meta.put(measureInfo + "useMotor", Short.valueOf(useMotor));
+				meta.put(measureInfo + "steps", Integer.valueOf(steps));
+				meta.put(measureInfo + "offset", Float.valueOf(offset));
+				meta.put(measureInfo + "dither", Short.valueOf(dither));
+				meta.put(measureInfo + "incr", Short.valueOf(incr));
+				meta.put(measureInfo + "memBank", Short.valueOf(memBank));
+				meta.put(measureInfo + "modType", modType);
+				meta.put(measureInfo + "synTH", Float.valueOf(synTH));
+				meta.put(measureInfo + "deadTimeComp", Short.valueOf(deadTimeComp));
+				meta.put(measureInfo + "polarityL", Short.valueOf(polarityL));
+				meta.put(measureInfo + "polarityF", Short.valueOf(polarityF));
+				meta.put(measureInfo + "polarityP", Short.valueOf(polarityP));
+				meta.put(measureInfo + "linediv", Short.valueOf(linediv));
+				meta.put(measureInfo + "accumulate", Short.valueOf(accumulate));
+				meta.put(measureInfo + "flbckY", Integer.valueOf(flbckY));
+				meta.put(measureInfo + "flbckX", Integer.valueOf(flbckX));
+				meta.put(measureInfo + "bordU", Integer.valueOf(bordU));
+				meta.put(measureInfo + "bordL", Integer.valueOf(bordL));
+				meta.put(measureInfo + "pixTime", Float.valueOf(pixTime));
+				meta.put(measureInfo + "pixClk", Short.valueOf(pixClk));
+				meta.put(measureInfo + "trigger", Short.valueOf(trigger));
+				meta.put(measureInfo + "scanX", Integer.valueOf(scanX));
+				meta.put(measureInfo + "scanY", Integer.valueOf(scanY));
+				meta.put(measureInfo + "scanRX", Integer.valueOf(scanRX));
+				meta.put(measureInfo + "scanRY", Integer.valueOf(scanRY));
+				meta.put(measureInfo + "fifoTyp", Short.valueOf(fifoTyp));
+				meta.put(measureInfo + "epxDiv", Integer.valueOf(epxDiv));
+				meta.put(measureInfo + "modTypeCode", Integer.valueOf(modTypeCode));
+				meta.put(measureInfo + "modFpgaVer", Integer.valueOf(modFpgaVer));
+				meta.put(measureInfo + "overflowCorrFactor", Float.valueOf(
+					overflowCorrFactor));
+				meta.put(measureInfo + "adcZoom", Integer.valueOf(adcZoom));
+				meta.put(measureInfo + "cycles", Integer.valueOf(cycles));
 			}
 
 			if (hasMeasStopInfo) {
-				// MeasStopInfo - information collected when measurement is finished
-				status = handle.readUnsignedShort();
-				flags = handle.readUnsignedShort();
-				stopTime = handle.readFloat();
-				curStep = handle.readInt();
-				curCycle = handle.readInt();
-				curPage = handle.readInt();
-				minSyncRate = handle.readFloat();
-				minCfdRate = handle.readFloat();
-				minTacRate = handle.readFloat();
-				minAdcRate = handle.readFloat();
-				maxSyncRate = handle.readFloat();
-				maxCfdRate = handle.readFloat();
-				maxTacRate = handle.readFloat();
-				maxAdcRate = handle.readFloat();
-				mReserved1 = handle.readInt();
-				mReserved2 = handle.readFloat();
-
 				// save MeasStopInfo to metadata table
-				if (meta != null) {
-					final String measStopInfo = "MeasStopInfo.";
-					meta.put(measStopInfo + "status", new Integer(status));
-					meta.put(measStopInfo + "flags", new Integer(flags));
-					meta.put(measStopInfo + "stopTime", new Float(stopTime));
-					meta.put(measStopInfo + "curStep", new Integer(curStep));
-					meta.put(measStopInfo + "curCycle", new Integer(curCycle));
-					meta.put(measStopInfo + "curPage", new Integer(curPage));
-					meta.put(measStopInfo + "minSyncRate", new Float(minSyncRate));
-					meta.put(measStopInfo + "minCfdRate", new Float(minCfdRate));
-					meta.put(measStopInfo + "minTacRate", new Float(minTacRate));
-					meta.put(measStopInfo + "minAdcRate", new Float(minAdcRate));
-					meta.put(measStopInfo + "maxSyncRate", new Float(maxSyncRate));
-					meta.put(measStopInfo + "maxCfdRate", new Float(maxCfdRate));
-					meta.put(measStopInfo + "maxTacRate", new Float(maxTacRate));
-					meta.put(measStopInfo + "maxAdcRate", new Float(maxAdcRate));
-					meta.put(measStopInfo + "reserved1", new Integer(mReserved1));
-					meta.put(measStopInfo + "reserved2", new Float(mReserved2));
-				}
+				final String measStopInfo = "MeasStopInfo.";
+				meta.put(measStopInfo + "status", Integer.valueOf(status));
+				meta.put(measStopInfo + "flags", Integer.valueOf(flags));
+				meta.put(measStopInfo + "stopTime", Float.valueOf(stopTime));
+				meta.put(measStopInfo + "curStep", Integer.valueOf(curStep));
+				meta.put(measStopInfo + "curCycle", Integer.valueOf(curCycle));
+				meta.put(measStopInfo + "curPage", Integer.valueOf(curPage));
+				meta.put(measStopInfo + "minSyncRate", Float.valueOf(minSyncRate));
+				meta.put(measStopInfo + "minCfdRate", Float.valueOf(minCfdRate));
+				meta.put(measStopInfo + "minTacRate", Float.valueOf(minTacRate));
+				meta.put(measStopInfo + "minAdcRate", Float.valueOf(minAdcRate));
+				meta.put(measStopInfo + "maxSyncRate", Float.valueOf(maxSyncRate));
+				meta.put(measStopInfo + "maxCfdRate", Float.valueOf(maxCfdRate));
+				meta.put(measStopInfo + "maxTacRate", Float.valueOf(maxTacRate));
+				meta.put(measStopInfo + "maxAdcRate", Float.valueOf(maxAdcRate));
+				meta.put(measStopInfo + "reserved1", Integer.valueOf(mReserved1));
+				meta.put(measStopInfo + "reserved2", Float.valueOf(mReserved2));
 			}
 
 			if (hasMeasFCSInfo) {
-				// MeasFCSInfo - information collected when FIFO measurement is finished
-				chan = handle.readUnsignedShort();
-				fcsDecayCalc = handle.readUnsignedShort();
-				mtResol = (0xffffffffL & handle.readInt()); // unsigned
-				cortime = handle.readFloat();
-				calcPhotons = (0xffffffffL & handle.readInt()); // unsigned
-				fcsPoints = handle.readInt();
-				endTime = handle.readFloat();
-				overruns = handle.readUnsignedShort();
-				fcsType = handle.readUnsignedShort();
-				crossChan = handle.readUnsignedShort();
-				mod = handle.readUnsignedShort();
-				crossMod = handle.readUnsignedShort();
-				crossMtResol = (0xffffffffL & handle.readInt()); // unsigned
-
 				// save MeasFCSInfo to metadata table
-				if (meta != null) {
-					final String measFCSInfo = "MeasFCSInfo.";
-					meta.put(measFCSInfo + "chan", new Integer(chan));
-					meta.put(measFCSInfo + "fcsDecayCalc", new Integer(fcsDecayCalc));
-					meta.put(measFCSInfo + "mtResol", new Long(mtResol));
-					meta.put(measFCSInfo + "cortime", new Float(cortime));
-					meta.put(measFCSInfo + "calcPhotons", new Long(calcPhotons));
-					meta.put(measFCSInfo + "fcsPoints", new Integer(fcsPoints));
-					meta.put(measFCSInfo + "endTime", new Float(endTime));
-					meta.put(measFCSInfo + "overruns", new Integer(overruns));
-					meta.put(measFCSInfo + "fcsType", new Integer(fcsType));
-					meta.put(measFCSInfo + "crossChan", new Integer(crossChan));
-					meta.put(measFCSInfo + "mod", new Integer(mod));
-					meta.put(measFCSInfo + "crossMod", new Integer(crossMod));
-					meta.put(measFCSInfo + "crossMtResol", new Float(crossMtResol));
-				}
+				final String measFCSInfo = "MeasFCSInfo.";
+				meta.put(measFCSInfo + "chan", Integer.valueOf(chan));
+				meta.put(measFCSInfo + "fcsDecayCalc", Integer.valueOf(fcsDecayCalc));
+				meta.put(measFCSInfo + "mtResol", Long.valueOf(mtResol));
+				meta.put(measFCSInfo + "cortime", Float.valueOf(cortime));
+				meta.put(measFCSInfo + "calcPhotons", Long.valueOf(calcPhotons));
+				meta.put(measFCSInfo + "fcsPoints", Integer.valueOf(fcsPoints));
+				meta.put(measFCSInfo + "endTime", Float.valueOf(endTime));
+				meta.put(measFCSInfo + "overruns", Integer.valueOf(overruns));
+				meta.put(measFCSInfo + "fcsType", Integer.valueOf(fcsType));
+				meta.put(measFCSInfo + "crossChan", Integer.valueOf(crossChan));
+				meta.put(measFCSInfo + "mod", Integer.valueOf(mod));
+				meta.put(measFCSInfo + "crossMod", Integer.valueOf(crossMod));
+				meta.put(measFCSInfo + "crossMtResol", Float.valueOf(crossMtResol));
 			}
 
 			if (hasExtendedMeasureInfo) {
-				imageX = handle.readInt();
-				imageY = handle.readInt();
-				imageRX = handle.readInt();
-				imageRY = handle.readInt();
-				xyGain = handle.readShort();
-				masterClock = handle.readShort();
-				adcDE = handle.readShort();
-				detType = handle.readShort();
-				xAxis = handle.readShort();
-
 				// save extra MeasureInfo to metadata table
-				if (meta != null) {
-					final String measureInfo = "MeasureInfo.";
-					meta.put(measureInfo + "imageX", new Integer(imageX));
-					meta.put(measureInfo + "imageY", new Integer(imageY));
-					meta.put(measureInfo + "imageRX", new Integer(imageRX));
-					meta.put(measureInfo + "imageRY", new Integer(imageRY));
-					meta.put(measureInfo + "xyGain", new Short(xyGain));
-					meta.put(measureInfo + "masterClock", new Short(masterClock));
-					meta.put(measureInfo + "adcDE", new Short(adcDE));
-					meta.put(measureInfo + "detType", new Short(detType));
-					meta.put(measureInfo + "xAxis", new Short(xAxis));
-				}
+				final String measureInfo = "MeasureInfo.";
+				meta.put(measureInfo + "imageX", Integer.valueOf(imageX));
+				meta.put(measureInfo + "imageY", Integer.valueOf(imageY));
+				meta.put(measureInfo + "imageRX", Integer.valueOf(imageRX));
+				meta.put(measureInfo + "imageRY", Integer.valueOf(imageRY));
+				meta.put(measureInfo + "xyGain", Short.valueOf(xyGain));
+				meta.put(measureInfo + "masterClock", Short.valueOf(masterClock));
+				meta.put(measureInfo + "adcDE", Short.valueOf(adcDE));
+				meta.put(measureInfo + "detType", Short.valueOf(detType));
+				meta.put(measureInfo + "xAxis", Short.valueOf(xAxis));
 			}
 
 			if (hasMeasHISTInfo) {
-				// MeasHISTInfo - extension of FCSInfo, valid only for FIFO meas
-				// extension of MeasFCSInfo for other histograms (FIDA, FILDA, MCS)
-				fidaTime = handle.readFloat();
-				fildaTime = handle.readFloat();
-				fidaPoints = handle.readInt();
-				fildaPoints = handle.readInt();
-				mcsTime = handle.readFloat();
-				mcsPoints = handle.readInt();
-
 				// save MeasHISTInfo to metadata table
-				if (meta != null) {
-					final String measHISTInfo = "MeasHISTInfo.";
-					meta.put(measHISTInfo + "fidaTime", new Float(fidaTime));
-					meta.put(measHISTInfo + "fildaTime", new Float(fildaTime));
-					meta.put(measHISTInfo + "fidaPoints", new Integer(fidaPoints));
-					meta.put(measHISTInfo + "fildaPoints", new Integer(fildaPoints));
-					meta.put(measHISTInfo + "mcsTime", new Float(mcsTime));
-					meta.put(measHISTInfo + "mcsPoints", new Integer(mcsPoints));
-				}
+				final String measHISTInfo = "MeasHISTInfo.";
+				meta.put(measHISTInfo + "fidaTime", Float.valueOf(fidaTime));
+				meta.put(measHISTInfo + "fildaTime", Float.valueOf(fildaTime));
+				meta.put(measHISTInfo + "fidaPoints", Integer.valueOf(fidaPoints));
+				meta.put(measHISTInfo + "fildaPoints", Integer.valueOf(fildaPoints));
+				meta.put(measHISTInfo + "mcsTime", Float.valueOf(mcsTime));
+				meta.put(measHISTInfo + "mcsPoints", Integer.valueOf(mcsPoints));
 			}
 		}
 
-		handle.seek(dataBlockOffs);
-
-		readBlockHeader(handle);
-
 		// save BHFileBlockHeader to metadata table
-		if (meta != null) {
+		if (hasBlockHeader) {
 			final String bhFileBlockHeader = "BHFileBlockHeader.";
-			meta.put(bhFileBlockHeader + "blockNo", new Short(blockNo));
-			meta.put(bhFileBlockHeader + "dataOffs", new Integer(dataOffs));
-			meta.put(bhFileBlockHeader + "nextBlockOffs", new Integer(nextBlockOffs));
-			meta.put(bhFileBlockHeader + "blockType", new Integer(blockType));
+			meta.put(bhFileBlockHeader + "blockNo", Short.valueOf(blockNo));
+			meta.put(bhFileBlockHeader + "dataOffs", Long.valueOf(dataOffs));
+			meta.put(bhFileBlockHeader + "nextBlockOffs", Long.valueOf(
+				nextBlockOffs));
+			meta.put(bhFileBlockHeader + "blockType", Integer.valueOf(blockType));
 			meta.put(bhFileBlockHeader + "measDescBlockNo",
-				new Short(measDescBlockNo));
-			meta.put(bhFileBlockHeader + "lblockNo", new Long(lblockNo));
-			meta.put(bhFileBlockHeader + "blockLength", new Long(blockLength));
-		}
-
-		// similar logic to TRI2, to "account for SPC-152 type images"
-		if (FIFO_IMAGE_MODE == measMode) {
-			if (imageX > 0) width = imageX;
-			if (imageY > 0) height = imageY;
-			if (imageRX > 0 || imageRY > 0) {
-				channels = nonZeroProduct(scanRX, scanRY);
-			}
-			channels *= noOfDataBlocks;
+				Short.valueOf(measDescBlockNo));
+			meta.put(bhFileBlockHeader + "lblockNo", Long.valueOf(lblockNo));
+			meta.put(bhFileBlockHeader + "blockLength", Long.valueOf(blockLength));
 		}
 	}
 
@@ -845,6 +986,7 @@ public class SDTInfo {
 	 * <li>{@link #measDescBlockNo}</li>
 	 * <li>{@link #lblockNo}</li>
 	 * <li>{@link #blockLength}</li>
+	 * <li>{@link #hasBlockHeader}</li>
 	 * </ul>
 	 * 
 	 * @param stream - stream to read from
@@ -855,17 +997,330 @@ public class SDTInfo {
 	{
 		// read BHFileBlockHeader
 		blockNo = stream.readShort();
-		dataOffs = stream.readInt();
-		nextBlockOffs = stream.readInt();
+		dataOffs = (0xffffffffL & stream.readInt()); // unsigned
+		nextBlockOffs = (0xffffffffL & stream.readInt()); // unsigned
 		blockType = stream.readUnsignedShort();
 		measDescBlockNo = stream.readShort();
 		lblockNo = (0xffffffffL & stream.readInt()); // unsigned
 		blockLength = (0xffffffffL & stream.readInt()); // unsigned
+		hasBlockHeader = true;
+	}
+
+	/**
+	 * Writes the bhfileHeader, as read by {@link #readFileHeader}, marking it
+	 * valid and setting {@link #chksum} so that {@link #isChecksumValid()}.
+	 */
+	void writeFileHeader(final ByteBuffer buf) {
+		headerValid = BH_HEADER_VALID;
+		chksum = 0;
+		chksum = (int) ((BH_HEADER_CHKSUM - headerSum()) & 0xffff);
+		buf.putShort(revision);
+		buf.putInt(infoOffs);
+		buf.putShort(infoLength);
+		buf.putInt(setupOffs);
+		buf.putShort(setupLength);
+		buf.putInt((int) dataBlockOffs);
+		buf.putShort(noOfDataBlocks);
+		buf.putInt(dataBlockLength);
+		buf.putInt(measDescBlockOffs);
+		buf.putShort(noOfMeasDescBlocks);
+		buf.putShort(measDescBlockLength);
+		buf.putShort((short) headerValid);
+		buf.putInt((int) reserved1);
+		buf.putShort((short) reserved2);
+		buf.putShort((short) chksum);
+	}
+
+	/**
+	 * Writes the measurement description block of this header,
+	 * {@link #measDescBlockLength} bytes long, in the layout read by the
+	 * constructor. Sections beyond {@link #MEAS_DESC_BLOCK_LENGTH} are
+	 * zero-filled.
+	 */
+	void writeMeasDescBlock(final ByteBuffer buf) {
+		final int length = measDescBlockLength & 0xffff;
+		final ByteBuffer b = ByteBuffer.allocate(Math.max(length,
+			MEAS_DESC_BLOCK_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+
+		// MeasureInfo
+		putString(b, time, 9);
+		putString(b, date, 11);
+		putString(b, modSerNo, 16);
+		b.putShort(measMode);
+		b.putFloat(cfdLL);
+		b.putFloat(cfdLH);
+		b.putFloat(cfdZC);
+		b.putFloat(cfdHF);
+		b.putFloat(synZC);
+		b.putShort(synFD);
+		b.putFloat(synHF);
+		b.putFloat(tacR);
+		b.putShort(tacG);
+		b.putFloat(tacOF);
+		b.putFloat(tacLL);
+		b.putFloat(tacLH);
+		b.putShort(adcRE);
+		b.putShort(ealDE);
+		b.putShort(ncx);
+		b.putShort(ncy);
+		b.putShort((short) page);
+		b.putFloat(colT);
+		b.putFloat(repT);
+		b.putShort(stopt);
+		b.put((byte) overfl);
+		b.putShort(useMotor);
+		b.putShort((short) steps);
+		b.putFloat(offset);
+		b.putShort(dither);
+		b.putShort(incr);
+		b.putShort(memBank);
+		putString(b, modType, 16);
+		b.putFloat(synTH);
+		b.putShort(deadTimeComp);
+		b.putShort(polarityL);
+		b.putShort(polarityF);
+		b.putShort(polarityP);
+		b.putShort(linediv);
+		b.putShort(accumulate);
+		b.putInt(flbckY);
+		b.putInt(flbckX);
+		b.putInt(bordU);
+		b.putInt(bordL);
+		b.putFloat(pixTime);
+		b.putShort(pixClk);
+		b.putShort(trigger);
+		b.putInt(scanX);
+		b.putInt(scanY);
+		b.putInt(scanRX);
+		b.putInt(scanRY);
+		b.putShort(fifoTyp);
+		b.putInt(epxDiv);
+		b.putShort((short) modTypeCode);
+		b.putShort((short) modFpgaVer);
+		b.putFloat(overflowCorrFactor);
+		b.putInt(adcZoom);
+		b.putInt(cycles);
+
+		// MeasStopInfo
+		b.putShort((short) status);
+		b.putShort((short) flags);
+		b.putFloat(stopTime);
+		b.putInt(curStep);
+		b.putInt(curCycle);
+		b.putInt(curPage);
+		b.putFloat(minSyncRate);
+		b.putFloat(minCfdRate);
+		b.putFloat(minTacRate);
+		b.putFloat(minAdcRate);
+		b.putFloat(maxSyncRate);
+		b.putFloat(maxCfdRate);
+		b.putFloat(maxTacRate);
+		b.putFloat(maxAdcRate);
+		b.putInt(mReserved1);
+		b.putFloat(mReserved2);
+
+		// MeasFCSInfo
+		b.putShort((short) chan);
+		b.putShort((short) fcsDecayCalc);
+		b.putInt((int) mtResol);
+		b.putFloat(cortime);
+		b.putInt((int) calcPhotons);
+		b.putInt(fcsPoints);
+		b.putFloat(endTime);
+		b.putShort((short) overruns);
+		b.putShort((short) fcsType);
+		b.putShort((short) crossChan);
+		b.putShort((short) mod);
+		b.putShort((short) crossMod);
+		b.putInt((int) crossMtResol);
+
+		// extended MeasureInfo
+		b.putInt(imageX);
+		b.putInt(imageY);
+		b.putInt(imageRX);
+		b.putInt(imageRY);
+		b.putShort(xyGain);
+		b.putShort(masterClock);
+		b.putShort(adcDE);
+		b.putShort(detType);
+		b.putShort(xAxis);
+
+		// MeasHISTInfo
+		b.putFloat(fidaTime);
+		b.putFloat(fildaTime);
+		b.putInt(fidaPoints);
+		b.putInt(fildaPoints);
+		b.putFloat(mcsTime);
+		b.putInt(mcsPoints);
+
+		buf.put(b.array(), 0, length);
+	}
+
+	/** Writes a block header, as read by {@link #readBlockHeader}. */
+	void writeBlockHeader(final ByteBuffer buf) {
+		buf.putShort(blockNo);
+		buf.putInt((int) dataOffs);
+		buf.putInt((int) nextBlockOffs);
+		buf.putShort((short) blockType);
+		buf.putShort(measDescBlockNo);
+		buf.putInt((int) lblockNo);
+		buf.putInt((int) blockLength);
+	}
+
+	/**
+	 * Gets the number of data blocks in the file, or in the measurement for
+	 * headers given by {@link #forMeasDescBlock}. When {@link #noOfDataBlocks}
+	 * is 0x7fff, the actual count is stored in {@link #reserved1}.
+	 */
+	public long getDataBlockCount() {
+		return noOfDataBlocks == 0x7fff ? reserved1 : noOfDataBlocks;
+	}
+
+	/**
+	 * Whether each data block holds the decays of all channels of a single
+	 * pixel, as in Csarseven data: the measurement is not a FIFO image, and has
+	 * more than one data block.
+	 */
+	public boolean isBlockPerPixel() {
+		return measMode != FIFO_IMAGE_MODE && getDataBlockCount() > 1;
 	}
 
 	// -- Helper methods --
 
-	private int nonZeroProduct(final int... args) {
+	/**
+	 * Scans the setup text in a single pass over its bytes, optionally reading
+	 * the image dimensions from the {@link #X_STRING}, {@link #Y_STRING},
+	 * {@link #T_STRING}, {@link #C_STRING1} and {@link #C_STRING2} parameters,
+	 * and optionally putting each parameter into the given metadata table.
+	 * Lines are examined in place, so Strings are only created for table
+	 * entries.
+	 */
+	private void scanSetup(final byte[] b, final boolean dims,
+		final MetaTable meta)
+	{
+		int pos = 0;
+		while (pos < b.length) {
+			int end = pos;
+			while (end < b.length && b[end] != '\n') end++;
+			// trim the line
+			int s = pos, e = end;
+			while (s < e && (b[s] & 0xff) <= ' ') s++;
+			while (e > s && (b[e - 1] & 0xff) <= ' ') e--;
+			if (e - s > 3 && b[s] == '#') {
+				if (dims) scanDimension(b, s, e);
+				if (meta != null) scanEntry(b, s, e, meta);
+			}
+			pos = end + 1;
+		}
+	}
+
+	/** Reads the dimension set by the setup line in [s, e), if any. */
+	private void scanDimension(final byte[] b, final int s, final int e) {
+		int value;
+		if ((value = parameter(b, s, e, X_STRING)) >= 0) width = value;
+		else if ((value = parameter(b, s, e, Y_STRING)) >= 0) height = value;
+		else if ((value = parameter(b, s, e, T_STRING)) >= 0) timeBins = value;
+		else if ((value = parameter(b, s, e, C_STRING1)) >= 0 ||
+			(value = parameter(b, s, e, C_STRING2)) >= 0)
+		{
+			channels = nonZeroProduct(channels, value);
+		}
+	}
+
+	/**
+	 * Puts the parameter of the setup line in [s, e) into the metadata table:
+	 * {@code #SP [KEY,T,VALUE]} lines (and likewise {@code #DI}, {@code #PR}
+	 * and {@code #MP}) by key, {@code #TR [...]} and {@code #WI [...]} lines
+	 * by their prefix.
+	 */
+	private static void scanEntry(final byte[] b, final int s, final int e,
+		final MetaTable meta)
+	{
+		final int open = indexOf(b, s, e, '[');
+		if (open < 0) return;
+		final byte c1 = b[s + 1], c2 = b[s + 2];
+		if (c1 == 'S' && c2 == 'P' || c1 == 'D' && c2 == 'I' ||
+			c1 == 'P' && c2 == 'R' || c1 == 'M' && c2 == 'P')
+		{
+			final int comma = indexOf(b, open, e, ',');
+			if (comma < 0) return;
+			int last = e - 1;
+			while (b[last] != ',') last--;
+			if (last >= e - 1) return;
+			meta.put(string(b, open + 1, comma), string(b, last + 1, e - 1));
+		}
+		else if (c1 == 'T' && c2 == 'R' || c1 == 'W' && c2 == 'I') {
+			final int close = indexOf(b, open, e, ']');
+			if (close < 0) return;
+			meta.put(string(b, s, open).trim(), string(b, open + 1, close));
+		}
+	}
+
+	/**
+	 * Parses the integer value of the setup line in [s, e) if it begins with
+	 * the given parameter prefix, or returns -1.
+	 */
+	private static int parameter(final byte[] b, final int s, final int e,
+		final String prefix)
+	{
+		final int n = prefix.length();
+		if (e - s <= n) return -1;
+		for (int i = 0; i < n; i++) {
+			if (b[s + i] != prefix.charAt(i)) return -1;
+		}
+		int value = 0;
+		for (int i = s + n; i < e && b[i] != ']'; i++) {
+			if (b[i] < '0' || b[i] > '9') return -1;
+			value = 10 * value + (b[i] - '0');
+		}
+		return value;
+	}
+
+	private static int indexOf(final byte[] b, final int s, final int e,
+		final char c)
+	{
+		for (int i = s; i < e; i++) {
+			if (b[i] == c) return i;
+		}
+		return -1;
+	}
+
+	private static String string(final byte[] b, final int s, final int e) {
+		return new String(b, s, e - s, CHARSET);
+	}
+
+	/** Sums the 16-bit words of the bhfileHeader, including its checksum. */
+	private long headerSum() {
+		// short fields are masked, so that negative values are not sign-extended
+		return (revision & 0xffff) + words(infoOffs) + (infoLength & 0xffff) +
+			words(setupOffs) + (setupLength & 0xffff) + words(dataBlockOffs) +
+			(noOfDataBlocks & 0xffff) + words(dataBlockLength) + words(
+				measDescBlockOffs) + (noOfMeasDescBlocks & 0xffff) +
+			(measDescBlockLength & 0xffff) + words(headerValid) + words(reserved1) +
+			words(reserved2) + words(chksum);
+	}
+
+	/**
+	 * Puts the given string into a field of {@code length} bytes, truncated or
+	 * padded with NULs.
+	 */
+	private static void putString(final ByteBuffer b, final String s,
+		final int length)
+	{
+		final byte[] bytes = s == null ? new byte[0] : s.getBytes(CHARSET);
+		final int n = Math.min(bytes.length, length);
+		b.put(bytes, 0, n);
+		for (int i = n; i < length; i++) {
+			b.put((byte) 0);
+		}
+	}
+
+	/** Sums the 16-bit words of the given 32-bit value. */
+	private static long words(final long v) {
+		return (v & 0xffff) + ((v >>> 16) & 0xffff);
+	}
+
+	private static int nonZeroProduct(final int... args) {
 		int product = 1;
 		for (final int arg : args) {
 			if (arg > 0) product *= arg;
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Memory-mapped view of the pixel data of a single-block SDT file. The data is
+ * a contiguous run of rows, each holding the decays of one padded image row,
+ * and is mapped lazily in chunks of whole rows so that files larger than a
+ * single mapping can be addressed. Returned buffers are read-only,
+ * little-endian views of the mapping; no pixel data is copied. Views are
+ * independent, so they may be requested from several threads at once.
+ */
+class SDTMappedData {
+
+	// -- Constants --
+
+	/** Maximum number of bytes in one mapping. */
+	private static final long CHUNK_LIMIT = 1L << 30;
+
+	// -- Fields --
+
+	private final FileChannel channel;
+
+	/** File offset of the first pixel. */
+	private final long offset;
+
+	/** Number of bytes of one pixel decay. */
+	private final int pixelBytes;
+
+	/** Number of bytes of one padded row. */
+	private final long rowBytes;
+
+	private final int sizeY;
+
+	/** Total number of rows across all planes. */
+	private final long rows;
+
+	/** Number of rows in each mapping. Whole planes when they fit. */
+	private final long rowsPerChunk;
+
+	private final ByteBuffer[] chunks;
+
+	// -- Constructor --
+
+	public SDTMappedData(final FileChannel channel, final long offset,
+		final int paddedWidth, final int sizeY, final int planeCount,
+		final int pixelBytes)
+	{
+		this.channel = channel;
+		this.offset = offset;
+		this.pixelBytes = pixelBytes;
+		this.rowBytes = (long) paddedWidth * pixelBytes;
+		this.sizeY = sizeY;
+		this.rows = (long) sizeY * planeCount;
+
+		final long planeBytes = rowBytes * sizeY;
+		rowsPerChunk = planeBytes <= CHUNK_LIMIT ? //
+			sizeY * (CHUNK_LIMIT / planeBytes) : Math.max(1, CHUNK_LIMIT / rowBytes);
+		chunks = new ByteBuffer[(int) ((rows + rowsPerChunk - 1) / rowsPerChunk)];
+	}
+
+	// -- SDTMappedData methods --
+
+	/**
+	 * Gets a view of a whole plane, including row padding. Only possible when
+	 * the plane fits in a single mapping.
+	 */
+	public ByteBuffer plane(final long planeIndex) throws IOException {
+		final long planeBytes = rowBytes * sizeY;
+		if (rowsPerChunk < sizeY) {
+			throw new IOException("Plane of " + planeBytes +
+				" bytes is too large to map as a single buffer");
+		}
+		return view(planeIndex * sizeY, 0, planeBytes);
+	}
+
+	/** Gets a view of the decays of pixels [x, x + w) of one row. */
+	public ByteBuffer row(final long planeIndex, final int y, final int x,
+		final int w) throws IOException
+	{
+		return bytes(planeIndex, y, (long) x * pixelBytes, w * pixelBytes);
+	}
+
+	/** Gets a view of {@code length} bytes of one row, from {@code start}. */
+	public ByteBuffer bytes(final long planeIndex, final int y, final long start,
+		final int length) throws IOException
+	{
+		return view(planeIndex * sizeY + y, start, length);
+	}
+
+	// -- Helper methods --
+
+	private ByteBuffer view(final long row, final long start, final long length)
+		throws IOException
+	{
+		final ByteBuffer chunk = chunk((int) (row / rowsPerChunk));
+		final long pos = (row % rowsPerChunk) * rowBytes + start;
+		if (pos + length > chunk.capacity()) {
+			throw new IOException("Pixel data is truncated at row " + row);
+		}
+		final ByteBuffer view = chunk.duplicate();
+		view.limit((int) (pos + length)).position((int) pos);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private synchronized ByteBuffer chunk(final int index) throws IOException {
+		if (chunks[index] == null) {
+			final long start = offset + index * rowsPerChunk * rowBytes;
+			final long length = Math.min(Math.min(rows - index * rowsPerChunk,
+				rowsPerChunk) * rowBytes, channel.size() - start);
+			if (length < 0) {
+				throw new IOException("Pixel data is truncated at row " + index *
+					rowsPerChunk);
+			}
+			chunks[index] = channel.map(MapMode.READ_ONLY, start, length);
+		}
+		return chunks[index];
+	}
+}
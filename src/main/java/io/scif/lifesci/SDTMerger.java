@@ -0,0 +1,405 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.util.FormatTools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Sums the lifetime bins of rows of SDT decays into intensity values, or
+ * groups of adjacent bins into coarser decays, or reduces them to phasor
+ * coordinates or lifetime estimates. Raw rows
+ * are decoded in bulk from little-endian bytes and summed in plain primitive
+ * loops, using scratch buffers that are pooled per thread so that merging a
+ * plane allocates nothing once the buffers have grown to the row size.
+ */
+class SDTMerger {
+
+	// -- Constants --
+
+	private static final ThreadLocal<SDTMerger> POOL =
+		new ThreadLocal<SDTMerger>()
+		{
+
+			@Override
+			protected SDTMerger initialValue() {
+				return new SDTMerger();
+			}
+		};
+
+	// -- Fields --
+
+	private byte[] raw = new byte[0];
+
+	private byte[] full = new byte[0];
+
+	private short[] decays = new short[0];
+
+	private long[] sums = new long[0];
+
+	/** Decays accumulated over several raw rows. */
+	private long[] acc = new long[0];
+
+	// -- Constructor --
+
+	private SDTMerger() {}
+
+	// -- SDTMerger methods --
+
+	/** Gets the merger of the current thread. */
+	public static SDTMerger get() {
+		return POOL.get();
+	}
+
+	/** Gets a scratch buffer of at least {@code size} bytes for one raw row. */
+	public byte[] rawRow(final int size) {
+		if (raw.length < size) raw = new byte[size];
+		return raw;
+	}
+
+	/**
+	 * Gets a second scratch buffer of at least {@code size} bytes, for reading
+	 * whole rows of which only part is kept.
+	 */
+	public byte[] fullRow(final int size) {
+		if (full.length < size) full = new byte[size];
+		return full;
+	}
+
+	/**
+	 * Sums the decays of {@code pixels} pixels held in the scratch row (see
+	 * {@link #rawRow}) and stores the sums in {@code dest} as little-endian
+	 * values of the given pixel type. Sums are accumulated in 64 bits;
+	 * {@link FormatTools#UINT16} and {@link FormatTools#UINT32} sums saturate
+	 * at their maximum rather than wrapping, and {@link FormatTools#FLOAT} sums
+	 * are rounded to the nearest float.
+	 */
+	public void merge(final int pixels, final int timeBins, final int pixelType,
+		final byte[] dest, final int off)
+	{
+		decode(pixels * timeBins);
+		if (sums.length < pixels) sums = new long[pixels];
+		sum(decays, pixels, timeBins, sums);
+		store(sums, pixels, pixelType, dest, off);
+	}
+
+	/**
+	 * As {@link #merge(int, int, int, byte[], int)}, but stores saturated
+	 * unsigned 16-bit sums directly into {@code dest}.
+	 */
+	public void merge(final int pixels, final int timeBins, final short[] dest,
+		final int off)
+	{
+		decode(pixels * timeBins);
+		if (sums.length < pixels) sums = new long[pixels];
+		sum(decays, pixels, timeBins, sums);
+		for (int p = 0; p < pixels; p++) {
+			dest[off + p] = saturate16(sums[p]);
+		}
+	}
+
+	/**
+	 * Combines each group of {@code factor} adjacent bins of the decays held in
+	 * the scratch row into one bin, storing the binned decays in {@code dest}
+	 * as little-endian unsigned 16-bit values, saturating at 65535.
+	 */
+	public void bin(final int pixels, final int timeBins, final int factor,
+		final byte[] dest, final int off)
+	{
+		final int outBins = timeBins / factor;
+		final int n = pixels * outBins;
+		decode(pixels * timeBins);
+		if (sums.length < n) sums = new long[n];
+		bin(decays, pixels, timeBins, factor, sums);
+		store(sums, n, FormatTools.UINT16, dest, off);
+	}
+
+	/**
+	 * As {@link #bin(int, int, int, byte[], int)}, but stores the binned decays
+	 * directly into {@code dest}.
+	 */
+	public void bin(final int pixels, final int timeBins, final int factor,
+		final short[] dest, final int off)
+	{
+		final int outBins = timeBins / factor;
+		final int n = pixels * outBins;
+		decode(pixels * timeBins);
+		if (sums.length < n) sums = new long[n];
+		bin(decays, pixels, timeBins, factor, sums);
+		for (int i = 0; i < n; i++) {
+			dest[off + i] = saturate16(sums[i]);
+		}
+	}
+
+	/**
+	 * Adds the decays of {@code pixels} pixels held in the scratch row to the
+	 * single decay {@code dest}.
+	 */
+	public void sumDecays(final int pixels, final int timeBins,
+		final long[] dest)
+	{
+		decode(pixels * timeBins);
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			for (int t = 0; t < timeBins; t++) {
+				dest[t] += decays[i + t] & 0xffff;
+			}
+		}
+	}
+
+	/** Clears the first {@code n} accumulated values. */
+	public void clear(final int n) {
+		if (acc.length < n) acc = new long[n];
+		else Arrays.fill(acc, 0, n, 0);
+	}
+
+	/**
+	 * Adds the decays of {@code pixels * spatial} raw pixels held in the scratch
+	 * row to the accumulated decays of {@code pixels} pixels, each group of
+	 * {@code spatial} neighbouring raw pixels into one.
+	 */
+	public void accumulate(final int pixels, final int timeBins,
+		final int spatial)
+	{
+		decode(pixels * spatial * timeBins);
+		for (int p = 0; p < pixels; p++) {
+			final int d = p * timeBins;
+			for (int s = 0; s < spatial; s++) {
+				final int i = (p * spatial + s) * timeBins;
+				for (int t = 0; t < timeBins; t++) {
+					acc[d + t] += decays[i + t] & 0xffff;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores the accumulated decays of {@code pixels} pixels in {@code dest},
+	 * combining each group of {@code factor} adjacent bins, as little-endian
+	 * unsigned 16-bit values saturating at 65535.
+	 */
+	public void storeDecays(final int pixels, final int timeBins,
+		final int factor, final byte[] dest, final int off)
+	{
+		final int n = pixels * (timeBins / factor);
+		if (sums.length < n) sums = new long[n];
+		final int outBins = timeBins / factor;
+		for (int p = 0, o = 0; p < pixels; p++) {
+			final int i = p * timeBins;
+			for (int b = 0; b < outBins; b++, o++) {
+				final int s = i + b * factor;
+				long sum = 0;
+				for (int t = 0; t < factor; t++) {
+					sum += acc[s + t];
+				}
+				sums[o] = sum;
+			}
+		}
+		store(sums, n, FormatTools.UINT16, dest, off);
+	}
+
+	/**
+	 * Sums the bins of the accumulated decays of {@code pixels} pixels and
+	 * stores the intensities in {@code dest}, as for
+	 * {@link #merge(int, int, int, byte[], int)}.
+	 */
+	public void storeIntensity(final int pixels, final int timeBins,
+		final int pixelType, final byte[] dest, final int off)
+	{
+		if (sums.length < pixels) sums = new long[pixels];
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			long sum = 0;
+			for (int t = 0; t < timeBins; t++) {
+				sum += acc[i + t];
+			}
+			sums[p] = sum;
+		}
+		store(sums, pixels, pixelType, dest, off);
+	}
+
+	/**
+	 * Computes the phasor coordinates of the accumulated decays of
+	 * {@code pixels} pixels, weighting bin {@code t} by {@code cos[t]} and
+	 * {@code sin[t]} and normalizing by the intensity. G, S and the intensity
+	 * are stored as little-endian floats at {@code gOff}, {@code sOff} and
+	 * {@code iOff} respectively; a negative offset skips that component. Pixels
+	 * without photons have G and S of 0.
+	 */
+	public void storePhasor(final int pixels, final int timeBins,
+		final double[] cos, final double[] sin, final byte[] dest, final int gOff,
+		final int sOff, final int iOff)
+	{
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			long sum = 0;
+			double g = 0, s = 0;
+			for (int t = 0; t < timeBins; t++) {
+				final long v = acc[i + t];
+				sum += v;
+				g += v * cos[t];
+				s += v * sin[t];
+			}
+			if (sum > 0) {
+				g /= sum;
+				s /= sum;
+			}
+			if (gOff >= 0) putFloat(dest, gOff + 4 * p, (float) g);
+			if (sOff >= 0) putFloat(dest, sOff + 4 * p, (float) s);
+			if (iOff >= 0) putFloat(dest, iOff + 4 * p, sum);
+		}
+	}
+
+	/**
+	 * Stores the mean arrival time of the accumulated decays of {@code pixels}
+	 * pixels in {@code dest} as little-endian floats: the intensity-weighted mean
+	 * of the bin centres, for bins {@code binWidth} wide. Pixels without photons
+	 * have a mean arrival time of 0.
+	 */
+	public void storeMeanArrivalTime(final int pixels, final int timeBins,
+		final double binWidth, final byte[] dest, final int off)
+	{
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			long sum = 0;
+			double moment = 0;
+			for (int t = 0; t < timeBins; t++) {
+				final long v = acc[i + t];
+				sum += v;
+				moment += (double) v * t;
+			}
+			final double tau = sum > 0 ? (moment / sum + 0.5) * binWidth : 0;
+			putFloat(dest, off + 4 * p, (float) tau);
+		}
+	}
+
+	/**
+	 * Stores the rapid lifetime determination of the accumulated decays of
+	 * {@code pixels} pixels in {@code dest} as little-endian floats. The decay
+	 * is split into two gates of {@code timeBins / 2} bins, a trailing odd bin
+	 * being ignored, and the lifetime is {@code dt / ln(D0 / D1)} for gate
+	 * sums D0 and D1 and gate width dt. Pixels whose second gate is empty or
+	 * not dimmer than the first have a lifetime of 0.
+	 */
+	public void storeRapidLifetime(final int pixels, final int timeBins,
+		final double binWidth, final byte[] dest, final int off)
+	{
+		final int half = timeBins / 2;
+		final double dt = half * binWidth;
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			long d0 = 0, d1 = 0;
+			for (int t = 0; t < half; t++) {
+				d0 += acc[i + t];
+				d1 += acc[i + half + t];
+			}
+			final double tau = d1 > 0 && d0 > d1 ? dt / Math.log((double) d0 / d1)
+				: 0;
+			putFloat(dest, off + 4 * p, (float) tau);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Stores {@code v} as a little-endian float at {@code off}. */
+	private static void putFloat(final byte[] dest, final int off,
+		final float v)
+	{
+		final int bits = Float.floatToIntBits(v);
+		dest[off] = (byte) bits;
+		dest[off + 1] = (byte) (bits >> 8);
+		dest[off + 2] = (byte) (bits >> 16);
+		dest[off + 3] = (byte) (bits >> 24);
+	}
+
+	/** Decodes the first {@code n} little-endian values of the scratch row. */
+	private void decode(final int n) {
+		if (decays.length < n) decays = new short[n];
+		ByteBuffer.wrap(raw, 0, n * 2).order(ByteOrder.LITTLE_ENDIAN)
+			.asShortBuffer().get(decays, 0, n);
+	}
+
+	/** Sums each group of {@code factor} adjacent unsigned values. */
+	private static void bin(final short[] decays, final int pixels,
+		final int timeBins, final int factor, final long[] sums)
+	{
+		final int outBins = timeBins / factor;
+		for (int p = 0, o = 0; p < pixels; p++) {
+			final int i = p * timeBins;
+			for (int b = 0; b < outBins; b++, o++) {
+				final int s = i + b * factor;
+				long sum = 0;
+				for (int t = 0; t < factor; t++) {
+					sum += decays[s + t] & 0xffff;
+				}
+				sums[o] = sum;
+			}
+		}
+	}
+
+	/** Sums each run of {@code timeBins} unsigned values. */
+	private static void sum(final short[] decays, final int pixels,
+		final int timeBins, final long[] sums)
+	{
+		for (int p = 0, i = 0; p < pixels; p++, i += timeBins) {
+			long sum = 0;
+			for (int t = 0; t < timeBins; t++) {
+				sum += decays[i + t] & 0xffff;
+			}
+			sums[p] = sum;
+		}
+	}
+
+	private static void store(final long[] sums, final int pixels,
+		final int pixelType, final byte[] dest, final int off)
+	{
+		final ByteBuffer out = ByteBuffer.wrap(dest, off, pixels *
+			FormatTools.getBytesPerPixel(pixelType)).order(ByteOrder.LITTLE_ENDIAN);
+		switch (pixelType) {
+			case FormatTools.UINT16:
+				for (int p = 0; p < pixels; p++) {
+					out.putShort(saturate16(sums[p]));
+				}
+				break;
+			case FormatTools.UINT32:
+				for (int p = 0; p < pixels; p++) {
+					out.putInt((int) Math.min(sums[p], 0xffffffffL));
+				}
+				break;
+			case FormatTools.FLOAT:
+				for (int p = 0; p < pixels; p++) {
+					out.putFloat(sums[p]);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported intensity type: " +
+					FormatTools.getPixelTypeString(pixelType));
+		}
+	}
+
+	/** Gets the given sum as an unsigned 16-bit value, saturated. */
+	private static short saturate16(final long sum) {
+		return (short) Math.min(sum, 0xffff);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.FormatException;
+
+import java.io.IOException;
+
+/**
+ * In-memory, plane-major copy of SDT data stored with one data block per pixel
+ * (the "Csarseven" layout). Each block holds the decays of every spectral
+ * channel for a single pixel, so the block chain is walked once and
+ * de-interleaved into one buffer per channel, from which any channel or crop
+ * can then be copied without further I/O.
+ */
+class SDTPlaneCache {
+
+	// -- Constants --
+
+	/** Size of the read-ahead window used while walking the block chain. */
+	private static final int WINDOW_SIZE = 1024 * 1024;
+
+	// -- Fields --
+
+	/** Decay data of each channel, indexed by [channel][(y*sizeX+x)*pixel]. */
+	private final byte[][] planes;
+
+	private final int sizeX;
+
+	/** Number of bytes per pixel decay. */
+	private final int pixelBytes;
+
+	// -- Constructor --
+
+	private SDTPlaneCache(final byte[][] planes, final int sizeX,
+		final int pixelBytes)
+	{
+		this.planes = planes;
+		this.sizeX = sizeX;
+		this.pixelBytes = pixelBytes;
+	}
+
+	// -- SDTPlaneCache methods --
+
+	/**
+	 * Copies {@code len} bytes of row {@code y} of one channel, starting
+	 * {@code start} bytes into the row, into {@code dest}.
+	 */
+	public void copy(final int channel, final int y, final long start,
+		final int len, final byte[] dest, final int off)
+	{
+		System.arraycopy(planes[channel], (int) ((long) y * sizeX * pixelBytes +
+			start), dest, off, len);
+	}
+
+	// -- Static utility methods --
+
+	/** Gets the number of bytes needed to cache the given dimensions. */
+	public static long size(final int sizeX, final int sizeY,
+		final int channels, final int timeBins, final int bpp)
+	{
+		return (long) sizeX * sizeY * channels * timeBins * bpp;
+	}
+
+	/**
+	 * Reads every pixel block listed in the given index in a single pass and
+	 * de-interleaves the channels. Blocks are stored by row, bottom row first.
+	 */
+	public static SDTPlaneCache load(final FileAccess access,
+		final SDTBlockIndex index, final int sizeX, final int sizeY,
+		final int channels, final int timeBins, final int bpp)
+		throws FormatException, IOException
+	{
+		final long planeSize = (long) sizeX * sizeY * timeBins * bpp;
+		if (planeSize > Integer.MAX_VALUE) {
+			throw new FormatException("Plane too large to cache: " + planeSize +
+				" bytes");
+		}
+		final int pixelBytes = timeBins * bpp;
+		final byte[][] planes = new byte[channels][(int) planeSize];
+
+		final long length = access.length();
+		final byte[] window = new byte[Math.max(WINDOW_SIZE, channels *
+			pixelBytes)];
+		long windowStart = 0, windowEnd = 0;
+
+		final int pixels = (int) Math.min((long) sizeX * sizeY, index.size());
+		for (int block = 0; block < pixels; block++) {
+			final long offset = index.getDataOffset(block);
+			final int blockBytes = (int) Math.min(Math.min(index.getLength(block),
+				length - offset), channels * pixelBytes);
+			if (offset < windowStart || offset + blockBytes > windowEnd) {
+				// Consecutive blocks are normally adjacent on disk, so read ahead
+				// across many of them at once.
+				final int n = access.read(offset, window, 0, (int) Math.min(
+					window.length, length - offset));
+				windowStart = offset;
+				windowEnd = offset + n;
+			}
+			final int row = sizeY - 1 - block / sizeX;
+			final int col = block % sizeX;
+			final int pixelOffset = (row * sizeX + col) * pixelBytes;
+			final int start = (int) (offset - windowStart);
+			for (int c = 0; c < channels; c++) {
+				final int n = Math.min(pixelBytes, blockBytes - c * pixelBytes);
+				if (n <= 0) break;
+				System.arraycopy(window, start + c * pixelBytes, planes[c],
+					pixelOffset, n);
+			}
+		}
+		return new SDTPlaneCache(planes, sizeX, pixelBytes);
+	}
+}
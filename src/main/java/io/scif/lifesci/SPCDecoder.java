@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.io.IOException;
+
+/**
+ * Streaming decoder of the 32-bit photon records of Becker &amp; Hickl FIFO
+ * (".spc") files, as written by SPC-130/134/140/150/160/830 modules. Each
+ * record holds a 12-bit macro time, a 4-bit routing channel, a 12-bit ADC
+ * value (the micro time) and four flags. Records are read in large sequential
+ * chunks and passed one at a time to a {@link Handler}, with macro time
+ * overflows resolved into absolute macro times.
+ */
+class SPCDecoder {
+
+	// -- Constants --
+
+	/** Length of the file header, which is a single record. */
+	public static final int HEADER_LENGTH = 4;
+
+	/** Marker bit of the pixel clock. */
+	public static final int PIXEL_MARKER = 1;
+
+	/** Marker bit of the line clock. */
+	public static final int LINE_MARKER = 2;
+
+	/** Marker bit of the frame clock. */
+	public static final int FRAME_MARKER = 4;
+
+	/** Number of bits of the micro time of each photon. */
+	public static final int ADC_BITS = 12;
+
+	/** Size of the chunks in which records are read. */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final int MACRO_TIME_BITS = 12;
+
+	private static final int MACRO_TIME_MASK = 0xfff;
+
+	private static final int ROUT_SHIFT = 12;
+
+	private static final int ROUT_MASK = 0xf;
+
+	private static final int ADC_SHIFT = 16;
+
+	private static final int ADC_MASK = 0xfff;
+
+	/** Flag of marker records, whose routing bits hold the marker bits. */
+	private static final int MARK = 1 << 28;
+
+	/** Flag of records following a macro time overflow. */
+	private static final int MTOV = 1 << 30;
+
+	/** Flag of records that are not photons. */
+	private static final int INVALID = 1 << 31;
+
+	/** Overflow count of invalid overflow records. */
+	private static final int OVERFLOW_COUNT_MASK = 0x0fffffff;
+
+	// -- Nested types --
+
+	/** Receives the decoded records of a stream. */
+	interface Handler {
+
+		/** Called for each marker record, with its marker bits. */
+		void marker(long macroTime, int markers);
+
+		/**
+		 * Called for each photon, with its routing channel and its micro time,
+		 * which increases with the arrival time of the photon.
+		 */
+		void photon(long macroTime, int routing, int microTime);
+	}
+
+	// -- Constructor --
+
+	private SPCDecoder() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Static utility methods --
+
+	/** Gets the macro time clock period, in ns, given by the file header. */
+	public static double macroTimeUnit(final int header) {
+		return (header & 0xffffff) * 0.1;
+	}
+
+	/** Gets the number of routing bits given by the file header. */
+	public static int routingBits(final int header) {
+		return (header >>> 24) & 0xf;
+	}
+
+	/**
+	 * Decodes the records between file offsets {@code start} and {@code end},
+	 * passing them to {@code handler}. A trailing partial record is ignored.
+	 */
+	public static void decode(final FileAccess access, final long start,
+		final long end, final Handler handler) throws IOException
+	{
+		final byte[] buf = new byte[BUFFER_SIZE];
+		long overflows = 0;
+		long pos = start;
+		while (pos < end) {
+			final int n = access.read(pos, buf, 0, (int) Math.min(buf.length,
+				end - pos)) & ~3;
+			if (n <= 0) break;
+			for (int i = 0; i < n; i += 4) {
+				final int r = (buf[i] & 0xff) | (buf[i + 1] & 0xff) << 8 |
+					(buf[i + 2] & 0xff) << 16 | buf[i + 3] << 24;
+				if ((r & (INVALID | MTOV | MARK)) == (INVALID | MTOV)) {
+					// several overflows without photons in between
+					overflows += r & OVERFLOW_COUNT_MASK;
+					continue;
+				}
+				if ((r & MTOV) != 0) overflows++;
+				final long macroTime = overflows << MACRO_TIME_BITS |
+					(r & MACRO_TIME_MASK);
+				final int routing = (r >>> ROUT_SHIFT) & ROUT_MASK;
+				if ((r & MARK) != 0) {
+					if ((r & INVALID) != 0) handler.marker(macroTime, routing);
+				}
+				else if ((r & INVALID) == 0) {
+					// the ADC counts down from the photon to the next sync pulse
+					handler.photon(macroTime, routing, ADC_MASK - ((r >>> ADC_SHIFT) &
+						ADC_MASK));
+				}
+			}
+			pos += n;
+		}
+	}
+}
@@ -0,0 +1,647 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import io.scif.AbstractChecker;
+import io.scif.AbstractFormat;
+import io.scif.AbstractMetadata;
+import io.scif.AbstractParser;
+import io.scif.ByteArrayPlane;
+import io.scif.ByteArrayReader;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.MetaTable;
+import io.scif.config.SCIFIOConfig;
+import io.scif.img.axes.SCIFIOAxes;
+import io.scif.util.FormatTools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imagej.axis.Axes;
+import net.imglib2.Interval;
+
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.location.Location;
+import org.scijava.plugin.Plugin;
+
+/**
+ * SPCFormat is the file format reader for the raw photon streams (".spc"
+ * files) that Becker &amp; Hickl SPC modules write in FIFO imaging mode.
+ * Photons are histogrammed as the stream is decoded, into lifetime images laid
+ * out as those of {@link SDTFormat}: a {@link SCIFIOAxes#LIFETIME}, X and Y
+ * plane for each routing channel along {@link SCIFIOAxes#SPECTRA}, summed over
+ * all frames. The TAC range is not stored in the stream, so the lifetime axis
+ * is in time bins. Counts are unsigned 16-bit values that saturate at 65535,
+ * unless {@link #PIXEL_TYPE_KEY} asks for unsigned 32-bit values.
+ */
+@Plugin(type = Format.class)
+public class SPCFormat extends AbstractFormat {
+
+	// -- Constants --
+
+	/**
+	 * {@link SCIFIOConfig} key for the number of time bins into which the
+	 * 12-bit micro times are histogrammed. Values are {@link Number}s: powers of
+	 * two from 1 to 4096.
+	 */
+	public static final String TIME_BINS_KEY = "spc.timeBins";
+
+	/** Default value for {@link #TIME_BINS_KEY}. */
+	public static final int DEFAULT_TIME_BINS = 256;
+
+	/**
+	 * {@link SCIFIOConfig} key for the image width of streams without pixel
+	 * markers, whose pixels are found from the macro time within each line.
+	 * Values are {@link Number}s; the default is the number of lines per frame.
+	 */
+	public static final String WIDTH_KEY = "spc.width";
+
+	/**
+	 * {@link SCIFIOConfig} key for the maximum number of bytes the {@link Reader}
+	 * may use to keep the histograms of all channels after decoding the stream
+	 * once. Larger images are decoded again for each plane read, keeping only
+	 * the requested region. Values are {@link Number}s.
+	 */
+	public static final String CACHE_SIZE_KEY = "spc.cacheSize";
+
+	/** Default value for {@link #CACHE_SIZE_KEY}: 256 MiB. */
+	public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * {@link SCIFIOConfig} key for the pixel type of the histograms. Values are
+	 * {@link Number}s: {@link FormatTools#UINT16}, whose counts saturate at
+	 * 65535, or {@link FormatTools#UINT32}.
+	 */
+	public static final String PIXEL_TYPE_KEY = "spc.pixelType";
+
+	// -- Format API Methods --
+
+	@Override
+	public String getFormatName() {
+		return "Becker & Hickl SPC FIFO Data";
+	}
+
+	@Override
+	protected String[] makeSuffixArray() {
+		return new String[] { "spc" };
+	}
+
+	// -- Nested Classes --
+
+	/**
+	 * Checks for SPC photon streams by suffix and by the macro time clock and
+	 * routing bits of the file header.
+	 */
+	public static class Checker extends AbstractChecker {
+
+		// -- Checker API Methods --
+
+		@Override
+		public boolean suffixSufficient() {
+			return false;
+		}
+
+		@Override
+		public boolean isFormat(final DataHandle<Location> handle)
+			throws IOException
+		{
+			final long length = handle.length();
+			if (length < 2 * SPCDecoder.HEADER_LENGTH || length % 4 != 0) {
+				return false;
+			}
+			handle.setLittleEndian(true);
+			handle.seek(0);
+			final int header = handle.readInt();
+			return SPCDecoder.macroTimeUnit(header) > 0 && SPCDecoder.routingBits(
+				header) <= 4;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class Metadata extends AbstractMetadata {
+
+		// -- Fields --
+
+		/** The file header record. */
+		private int header;
+
+		private int width;
+
+		/** Number of lines per frame. */
+		private int height;
+
+		/** Number of routing channels. */
+		private int channels;
+
+		/** Number of time bins in lifetime histogram. */
+		private int timeBins;
+
+		private int frames;
+
+		private long photons;
+
+		/** Macro time of one line, in macro time clock periods. */
+		private long lineTime;
+
+		/** Whether pixels are given by pixel markers, or by the macro time. */
+		private boolean pixelMarkers;
+
+		private int pixelType = FormatTools.UINT16;
+
+		// -- SPC field getters/setters --
+
+		public int getHeader() {
+			return header;
+		}
+
+		public void setHeader(final int header) {
+			this.header = header;
+		}
+
+		/** Gets the macro time clock period, in ns. */
+		public double getMacroTimeUnit() {
+			return SPCDecoder.macroTimeUnit(header);
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public void setWidth(final int width) {
+			this.width = width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public void setHeight(final int height) {
+			this.height = height;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		public void setChannels(final int channels) {
+			this.channels = channels;
+		}
+
+		public int getTimeBins() {
+			return timeBins;
+		}
+
+		public void setTimeBins(final int timeBins) {
+			checkTimeBins(timeBins);
+			this.timeBins = timeBins;
+		}
+
+		public int getFrames() {
+			return frames;
+		}
+
+		public void setFrames(final int frames) {
+			this.frames = frames;
+		}
+
+		public long getPhotons() {
+			return photons;
+		}
+
+		public void setPhotons(final long photons) {
+			this.photons = photons;
+		}
+
+		public long getLineTime() {
+			return lineTime;
+		}
+
+		public void setLineTime(final long lineTime) {
+			this.lineTime = lineTime;
+		}
+
+		public boolean hasPixelMarkers() {
+			return pixelMarkers;
+		}
+
+		public void setPixelMarkers(final boolean pixelMarkers) {
+			this.pixelMarkers = pixelMarkers;
+		}
+
+		public int getPixelType() {
+			return pixelType;
+		}
+
+		/**
+		 * @param pixelType - Pixel type of the histograms: either
+		 *          {@link FormatTools#UINT16} (saturating) or
+		 *          {@link FormatTools#UINT32}.
+		 */
+		public void setPixelType(final int pixelType) {
+			checkPixelType(pixelType);
+			if (pixelType != this.pixelType) {
+				this.pixelType = pixelType;
+				// re-populate imageMetadata
+				populateImageMetadata();
+			}
+		}
+
+		// -- Metadata API Methods --
+
+		@Override
+		public void populateImageMetadata() {
+			createImageMetadata(1);
+
+			final ImageMetadata iMeta = get(0);
+			iMeta.addAxis(SCIFIOAxes.LIFETIME, timeBins);
+			iMeta.addAxis(Axes.X, width);
+			iMeta.addAxis(Axes.Y, height);
+			iMeta.addAxis(SCIFIOAxes.SPECTRA, channels);
+			iMeta.setPlanarAxisCount(3);
+			iMeta.setPixelType(pixelType);
+			iMeta.setLittleEndian(true);
+			iMeta.setIndexed(false);
+			iMeta.setFalseColor(false);
+			iMeta.setMetadataComplete(true);
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			if (!fileOnly) {
+				header = width = height = channels = timeBins = frames = 0;
+				photons = lineTime = 0;
+				pixelMarkers = false;
+				pixelType = FormatTools.UINT16;
+			}
+		}
+	}
+
+	/**
+	 * Parser for SPC photon streams. The stream holds no image dimensions, so
+	 * it is scanned once to count the lines per frame, the pixels per line and
+	 * the routing channels.
+	 */
+	public static class Parser extends AbstractParser<Metadata> {
+
+		// -- Parser API methods --
+
+		@Override
+		protected void typedParse(final DataHandle<Location> stream,
+			final Metadata meta, final SCIFIOConfig config) throws IOException,
+			FormatException
+		{
+			stream.setLittleEndian(true);
+			stream.seek(0);
+			meta.setHeader(stream.readInt());
+			final int timeBins = (int) ConfigUtils.getLong(config, TIME_BINS_KEY,
+				DEFAULT_TIME_BINS);
+			checkTimeBins(timeBins);
+
+			log().info("Scanning SPC photon stream");
+			final Layout layout = new Layout();
+			try (final FileAccess access = new FileAccess(stream)) {
+				SPCDecoder.decode(access, SPCDecoder.HEADER_LENGTH, access.length(),
+					layout);
+			}
+			if (layout.maxLines == 0) {
+				throw new FormatException("No line markers in SPC photon stream");
+			}
+
+			meta.setHeight(layout.maxLines);
+			meta.setPixelMarkers(layout.maxPixels > 0);
+			meta.setWidth(layout.maxPixels > 0 ? layout.maxPixels
+				: (int) ConfigUtils.getLong(config, WIDTH_KEY, layout.maxLines));
+			meta.setChannels(layout.maxRouting + 1);
+			meta.setTimeBins(timeBins);
+			meta.setPixelType((int) ConfigUtils.getLong(config, PIXEL_TYPE_KEY,
+				FormatTools.UINT16));
+			meta.setFrames(layout.frames);
+			meta.setPhotons(layout.photons);
+			meta.setLineTime(layout.lineTime());
+
+			final MetaTable table = meta.getTable();
+			table.put("macro time unit", meta.getMacroTimeUnit());
+			table.put("routing bits", SPCDecoder.routingBits(meta.getHeader()));
+			table.put("frames", layout.frames);
+			table.put("photons", layout.photons);
+			table.put("pixel markers", meta.hasPixelMarkers());
+		}
+
+		// -- Helper classes --
+
+		/** Counts the frames, lines, pixels and channels of a stream. */
+		private static class Layout implements SPCDecoder.Handler {
+
+			private long photons;
+
+			private int frames, lines, maxLines, pixels, maxPixels, maxRouting;
+
+			/** Macro time of the last line marker, or -1 before the first. */
+			private long lastLine = -1;
+
+			/** Shortest time between consecutive line markers. */
+			private long minLineTime = Long.MAX_VALUE;
+
+			private long lastMacroTime;
+
+			@Override
+			public void marker(final long macroTime, final int markers) {
+				if ((markers & SPCDecoder.FRAME_MARKER) != 0) {
+					frames++;
+					lines = 0;
+				}
+				if ((markers & SPCDecoder.LINE_MARKER) != 0) {
+					if (lastLine >= 0 && macroTime > lastLine) {
+						minLineTime = Math.min(minLineTime, macroTime - lastLine);
+					}
+					lastLine = macroTime;
+					maxLines = Math.max(maxLines, ++lines);
+					pixels = 0;
+				}
+				if ((markers & SPCDecoder.PIXEL_MARKER) != 0) {
+					maxPixels = Math.max(maxPixels, ++pixels);
+				}
+				lastMacroTime = macroTime;
+			}
+
+			@Override
+			public void photon(final long macroTime, final int routing,
+				final int microTime)
+			{
+				photons++;
+				if (routing > maxRouting) maxRouting = routing;
+				lastMacroTime = macroTime;
+			}
+
+			/**
+			 * Gets the time of one line: the shortest time between line markers,
+			 * which excludes the frame flyback, or else the time from the only
+			 * line marker to the end of the stream.
+			 */
+			private long lineTime() {
+				if (minLineTime != Long.MAX_VALUE) return minLineTime;
+				return Math.max(1, lastMacroTime - lastLine);
+			}
+		}
+	}
+
+	/**
+	 * Reader for SPC photon streams. Planes are histogrammed from the stream
+	 * when read; if the histograms of all channels fit within
+	 * {@link #CACHE_SIZE_KEY}, they are all built by the first read and kept.
+	 * Otherwise, the histograms of all channels of the region read last are
+	 * kept if they fit, so that reading the planes of a region one by one
+	 * decodes the stream once; {@link #openPlanes} does so for any number of
+	 * planes.
+	 */
+	public static class Reader extends ByteArrayReader<Metadata> {
+
+		// -- Fields --
+
+		/** Thread-safe positional access to the file. */
+		private volatile FileAccess access;
+
+		/** Histograms of all channels, once built. */
+		private volatile SPCHistogram histogram;
+
+		/** Histograms of all channels of the region read last, if kept. */
+		private volatile SPCHistogram region;
+
+		// -- SPCReader API Methods --
+
+		/**
+		 * Opens the given planes of the given region, decoding the stream at
+		 * most once for all of them.
+		 */
+		public ByteArrayPlane[] openPlanes(final int imageIndex,
+			final long[] planeIndices, final Interval bounds,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final ByteArrayPlane[] planes = new ByteArrayPlane[planeIndices.length];
+			int c0 = Integer.MAX_VALUE, c1 = 0;
+			for (int i = 0; i < planes.length; i++) {
+				planes[i] = createPlane(bounds);
+				FormatTools.checkPlaneForReading(m, imageIndex, planeIndices[i],
+					planes[i].getBytes().length, bounds);
+				c0 = Math.min(c0, (int) planeIndices[i]);
+				c1 = Math.max(c1, (int) planeIndices[i] + 1);
+			}
+			if (planes.length == 0) return planes;
+
+			final Region r = new Region(m, imageIndex, bounds);
+			SPCHistogram h = getHistogram(config);
+			if (h == null) h = decode(r, c0, c1);
+			for (int i = 0; i < planes.length; i++) {
+				r.put(h, planes[i].getBytes(), (int) planeIndices[i]);
+			}
+			return planes;
+		}
+
+		// -- AbstractReader Methods --
+
+		@Override
+		protected String[] createDomainArray() {
+			return new String[] { FormatTools.FLIM_DOMAIN };
+		}
+
+		// -- Reader API Methods --
+
+		@Override
+		public ByteArrayPlane openPlane(final int imageIndex, final long planeIndex,
+			final ByteArrayPlane plane, final Interval bounds,
+			final SCIFIOConfig config) throws FormatException, IOException
+		{
+			final Metadata m = getMetadata();
+			final byte[] buf = plane.getBytes();
+			FormatTools.checkPlaneForReading(m, imageIndex, planeIndex, buf.length,
+				bounds);
+
+			final Region r = new Region(m, imageIndex, bounds);
+			final int channel = (int) planeIndex;
+			SPCHistogram h = getHistogram(config);
+			if (h == null) h = getRegion(r, channel, config);
+			r.put(h, buf, channel);
+			return plane;
+		}
+
+		@Override
+		public void close(final boolean fileOnly) throws IOException {
+			super.close(fileOnly);
+			histogram = region = null;
+			if (access != null) {
+				access.close();
+				access = null;
+			}
+		}
+
+		// -- Helper methods --
+
+		/**
+		 * Gets the histograms of all channels, building them on first use, or
+		 * null if they do not fit within the configured {@link #CACHE_SIZE_KEY}.
+		 */
+		private SPCHistogram getHistogram(final SCIFIOConfig config)
+			throws IOException
+		{
+			SPCHistogram all = histogram;
+			if (all != null) return all;
+
+			final Metadata m = getMetadata();
+			final long size = SPCHistogram.size(m.getWidth(), m.getHeight(), m
+				.getTimeBins(), m.getChannels());
+			final long maxSize = ConfigUtils.getLong(config, CACHE_SIZE_KEY,
+				DEFAULT_CACHE_SIZE);
+			if (size > maxSize || size / 4 / m.getChannels() > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			synchronized (this) {
+				if (histogram == null) {
+					log().debug("Histogramming " + m.getPhotons() + " photons");
+					final SPCHistogram h = new SPCHistogram(m, 0, 0, m.getWidth(), m
+						.getHeight(), 0, m.getTimeBins(), 0, m.getChannels());
+					final FileAccess a = getAccess();
+					SPCDecoder.decode(a, SPCDecoder.HEADER_LENGTH, a.length(), h);
+					histogram = h;
+				}
+				all = histogram;
+			}
+			return all;
+		}
+
+		/**
+		 * Gets histograms holding the given channel of the given region: those of
+		 * the region read last if they do, or else new ones of all channels of
+		 * the region, kept if they fit within the configured
+		 * {@link #CACHE_SIZE_KEY}, or else of the given channel alone.
+		 */
+		private SPCHistogram getRegion(final Region r, final int channel,
+			final SCIFIOConfig config) throws IOException
+		{
+			final SPCHistogram last = region;
+			if (last != null && last.contains(r.x, r.y, r.w, r.h, r.t0, r.t1,
+				channel))
+			{
+				return last;
+			}
+			final int channels = getMetadata().getChannels();
+			final long size = SPCHistogram.size(r.w, r.h, r.t1 - r.t0, channels);
+			if (size > ConfigUtils.getLong(config, CACHE_SIZE_KEY,
+				DEFAULT_CACHE_SIZE))
+			{
+				return decode(r, channel, channel + 1);
+			}
+			final SPCHistogram h = decode(r, 0, channels);
+			region = h;
+			return h;
+		}
+
+		/**
+		 * Decodes the stream once into histograms of routing channels [c0, c1)
+		 * of the given region.
+		 */
+		private SPCHistogram decode(final Region r, final int c0, final int c1)
+			throws IOException
+		{
+			final SPCHistogram h = new SPCHistogram(getMetadata(), r.x, r.y, r.w,
+				r.h, r.t0, r.t1, c0, c1);
+			final FileAccess a = getAccess();
+			SPCDecoder.decode(a, SPCDecoder.HEADER_LENGTH, a.length(), h);
+			return h;
+		}
+
+		/** Gets the positional access to the file, opening it on first use. */
+		private FileAccess getAccess() throws IOException {
+			FileAccess a = access;
+			if (a == null) {
+				synchronized (this) {
+					if (access == null) access = new FileAccess(getHandle());
+					a = access;
+				}
+			}
+			return a;
+		}
+
+		// -- Helper classes --
+
+		/** The X, Y and time bin ranges of the planar bounds of a read. */
+		private static class Region {
+
+			private final int x, y, w, h, t0, t1;
+
+			private final boolean uint32;
+
+			private Region(final Metadata m, final int imageIndex,
+				final Interval bounds)
+			{
+				final ImageMetadata iMeta = m.get(imageIndex);
+				final int lifetime = iMeta.getAxisIndex(SCIFIOAxes.LIFETIME);
+				final int xAxis = iMeta.getAxisIndex(Axes.X);
+				final int yAxis = iMeta.getAxisIndex(Axes.Y);
+				t0 = (int) bounds.min(lifetime);
+				t1 = (int) bounds.max(lifetime) + 1;
+				x = (int) bounds.min(xAxis);
+				y = (int) bounds.min(yAxis);
+				w = (int) bounds.dimension(xAxis);
+				h = (int) bounds.dimension(yAxis);
+				uint32 = m.getPixelType() == FormatTools.UINT32;
+			}
+
+			/** Puts the counts of this region of the given channel into buf. */
+			private void put(final SPCHistogram histogram, final byte[] buf,
+				final int channel)
+			{
+				histogram.put(ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN), x,
+					y, w, h, t0, t1, channel, uint32);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void checkPixelType(final int pixelType) {
+		if (pixelType != FormatTools.UINT16 && pixelType != FormatTools.UINT32) {
+			throw new IllegalArgumentException("Unsupported pixel type: " +
+				FormatTools.getPixelTypeString(pixelType));
+		}
+	}
+
+	private static void checkTimeBins(final int timeBins) {
+		if (timeBins < 1 || timeBins > 1 << SPCDecoder.ADC_BITS || Integer
+			.bitCount(timeBins) != 1)
+		{
+			throw new IllegalArgumentException("Invalid number of time bins: " +
+				timeBins);
+		}
+	}
+}
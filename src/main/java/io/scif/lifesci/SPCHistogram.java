@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Accumulates the photons of a FIFO photon stream into lifetime histograms, as
+ * they are decoded. Photons are placed in the scanned image by the pixel, line
+ * and frame markers of the stream: each frame marker restarts the frame, each
+ * line marker starts the next line, and each pixel marker the next pixel. If
+ * the stream has no pixel markers, the pixel is instead found from the macro
+ * time elapsed since the start of the line. All frames are summed.
+ * <p>
+ * Only the photons within a region of X, Y, micro time and routing channel
+ * are kept, so the memory used depends on the region alone. Counts are
+ * unsigned 32-bit values, stored as in the planes of {@link SPCFormat}, with
+ * the micro time varying fastest, then X and then Y.
+ * </p>
+ */
+class SPCHistogram implements SPCDecoder.Handler {
+
+	// -- Fields --
+
+	private final int width;
+
+	/** Macro time of one line, if pixels are found from the macro time. */
+	private final long lineTime;
+
+	private final boolean pixelMarkers;
+
+	/** Right shift from micro times to time bins. */
+	private final int shift;
+
+	private final int x0, y0, w, h, t0, t1, c0, c1;
+
+	/** Counts of each channel of the region. */
+	private final int[][] counts;
+
+	/** Position of the current pixel; -1 before the first line or pixel. */
+	private int x = -1, y = -1;
+
+	/** Macro time of the start of the current line. */
+	private long lineStart;
+
+	// -- Constructor --
+
+	/**
+	 * Creates histograms of pixels [x0, x0 + w) of rows [y0, y0 + h), time bins
+	 * [t0, t1) and routing channels [c0, c1) of the given image.
+	 */
+	public SPCHistogram(final SPCFormat.Metadata meta, final int x0,
+		final int y0, final int w, final int h, final int t0, final int t1,
+		final int c0, final int c1)
+	{
+		width = meta.getWidth();
+		lineTime = meta.getLineTime();
+		pixelMarkers = meta.hasPixelMarkers();
+		shift = SPCDecoder.ADC_BITS - Integer.numberOfTrailingZeros(meta
+			.getTimeBins());
+		this.x0 = x0;
+		this.y0 = y0;
+		this.w = w;
+		this.h = h;
+		this.t0 = t0;
+		this.t1 = t1;
+		this.c0 = c0;
+		this.c1 = c1;
+		counts = new int[c1 - c0][w * h * (t1 - t0)];
+	}
+
+	// -- SPCHistogram methods --
+
+	/**
+	 * Whether the given region of X, Y, time bins and routing channel lies
+	 * within the region of this histogram.
+	 */
+	public boolean contains(final int x, final int y, final int w, final int h,
+		final int t0, final int t1, final int channel)
+	{
+		return x >= x0 && y >= y0 && x + w <= x0 + this.w && y + h <= y0 +
+			this.h && t0 >= this.t0 && t1 <= this.t1 && channel >= c0 &&
+			channel < c1;
+	}
+
+	/**
+	 * Puts the counts of the given region of a routing channel, which must lie
+	 * within the region of this histogram, as unsigned 16-bit values that
+	 * saturate at 65535, or else as unsigned 32-bit values.
+	 */
+	public void put(final ByteBuffer out, final int x, final int y,
+		final int w, final int h, final int t0, final int t1, final int channel,
+		final boolean uint32)
+	{
+		final int[] c = counts[channel - c0];
+		for (int row = y - y0; row < y - y0 + h; row++) {
+			for (int col = x - x0; col < x - x0 + w; col++) {
+				final int i = (row * this.w + col) * (this.t1 - this.t0) - this.t0;
+				for (int t = t0; t < t1; t++) {
+					if (uint32) out.putInt(c[i + t]);
+					else out.putShort((short) Math.min(c[i + t] & 0xffffffffL, 0xffff));
+				}
+			}
+		}
+	}
+
+	/** Gets the number of bytes needed for the given region. */
+	public static long size(final int w, final int h, final int timeBins,
+		final int channels)
+	{
+		return (long) w * h * timeBins * channels * 4;
+	}
+
+	// -- Handler methods --
+
+	@Override
+	public void marker(final long macroTime, final int markers) {
+		if ((markers & SPCDecoder.FRAME_MARKER) != 0) y = -1;
+		if ((markers & SPCDecoder.LINE_MARKER) != 0) {
+			y++;
+			x = -1;
+			lineStart = macroTime;
+		}
+		if ((markers & SPCDecoder.PIXEL_MARKER) != 0) x++;
+	}
+
+	@Override
+	public void photon(final long macroTime, final int routing,
+		final int microTime)
+	{
+		if (routing < c0 || routing >= c1 || y < y0 || y >= y0 + h) return;
+		final int px = pixelMarkers ? x : (int) ((macroTime - lineStart) * width /
+			lineTime);
+		if (px < x0 || px >= x0 + w) return;
+		final int t = microTime >> shift;
+		if (t < t0 || t >= t1) return;
+		final int[] c = counts[routing - c0];
+		final int i = ((y - y0) * w + px - x0) * (t1 - t0) + t - t0;
+		if (c[i] != -1) c[i]++;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.Reader;
+import io.scif.SCIFIO;
+import io.scif.config.SCIFIOConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Tests {@link PQFormat}.
+ */
+public class PQFormatTest {
+
+	/** Two lines of two pixels, with photons in three of them. */
+	private static final int[] RECORDS = { //
+		marker(0, 1), // line start
+		photon(10, 1, 100), // pixel (0, 0)
+		photon(50, 1, 200), // pixel (1, 0)
+		marker(100, 2), // line stop
+		marker(200, 1), // line start
+		photon(250, 2, 300), // pixel (1, 1)
+		marker(300, 2) // line stop
+	};
+
+	private SCIFIO scifio;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		scifio = new SCIFIO();
+		file = File.createTempFile("pq-format-test", ".pt3");
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		file.delete();
+	}
+
+	/**
+	 * Tests parsing the header of a PicoHarp 300 ".pt3" file, whose
+	 * MeasurementMode follows a non-zero ActiveCurve.
+	 */
+	@Test
+	public void testParsePT3() throws IOException, FormatException {
+		Files.write(file.toPath(), pt3(1, 0.004f, 40000000, RECORDS));
+
+		final PQFormat.Metadata meta = (PQFormat.Metadata) scifio.format()
+			.getFormatFromClass(PQFormat.class).createParser().parse(
+				new FileLocation(file));
+		assertEquals(PQDecoder.PICOHARP_T3, meta.getRecordType());
+		assertEquals(536 + 156 + 36, meta.getDataOffset());
+		assertEquals(RECORDS.length, meta.getRecords());
+		assertEquals(0.004f, meta.getResolution(), 0);
+		assertEquals(25, meta.getSyncPeriod(), 1e-9);
+		assertEquals(2, meta.getLayout().lines());
+		assertEquals(3, meta.getLayout().photons());
+		assertEquals(2, meta.getWidth());
+		assertEquals(2, meta.getHeight());
+		assertEquals(2, meta.getChannels());
+	}
+
+	/**
+	 * Tests histogramming the photons of each channel, sequentially, in
+	 * parallel, and without keeping the histograms of all channels.
+	 */
+	@Test
+	public void testHistogram() throws IOException, FormatException {
+		Files.write(file.toPath(), pt3(1, 0.004f, 40000000, RECORDS));
+		final Format format = scifio.format().getFormatFromClass(PQFormat.class);
+		for (final boolean parallel : new boolean[] { false, true }) {
+			for (final long cacheSize : new long[] { PQFormat.DEFAULT_CACHE_SIZE,
+				0 })
+			{
+				final SCIFIOConfig config = new SCIFIOConfig();
+				config.put(PQFormat.TIME_BINS_KEY, 4);
+				config.put(PQFormat.PARALLEL_KEY, parallel);
+				config.put(PQFormat.CACHE_SIZE_KEY, cacheSize);
+				try (final Reader reader = format.createReader()) {
+					reader.setSource(new FileLocation(file), config);
+					// dtimes 0-300 in 4 bins of 76
+					final PQFormat.Metadata meta = (PQFormat.Metadata) reader
+						.getMetadata();
+					assertEquals(4, meta.getTimeBins());
+					assertEquals(76, meta.getTimeBinning());
+					assertCounts(reader.openPlane(0, 0, config).getBytes(), 0 * 4 + 1,
+						1 * 4 + 2);
+					assertCounts(reader.openPlane(0, 1, config).getBytes(), 3 * 4 + 3);
+				}
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Checks the counts of a 2 x 2 plane of 4 time bins: 1 at each of the given
+	 * indices, and 0 elsewhere.
+	 */
+	private static void assertCounts(final byte[] bytes, final int... ones) {
+		final ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(2 * 2 * 4 * 2, bytes.length);
+		for (int i = 0; i < 2 * 2 * 4; i++) {
+			int expected = 0;
+			for (final int one : ones) {
+				if (one == i) expected = 1;
+			}
+			assertEquals("count " + i, expected, b.getShort());
+		}
+	}
+
+	/**
+	 * Makes a T3 mode PicoHarp 300 file with the given board count, resolution
+	 * (in ns), sync rate (in Hz) and records. ActiveCurve is set, so that it is
+	 * not mistaken for the MeasurementMode.
+	 */
+	private static byte[] pt3(final int boards, final float resolution,
+		final int syncRate, final int[] records)
+	{
+		final int tttr = 536 + 156 * boards;
+		final ByteBuffer b = ByteBuffer.allocate(tttr + 36 + 4 * records.length)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		b.put("PicoHarp 300".getBytes(StandardCharsets.US_ASCII));
+		b.position(16);
+		b.put("2.0".getBytes(StandardCharsets.US_ASCII));
+		b.putInt(340, boards); // NumberOfBoards
+		b.putInt(344, 1); // ActiveCurve
+		b.putInt(348, 3); // MeasurementMode: T3
+		b.putFloat(584, resolution); // Resolution of the first board
+		b.putInt(tttr + 12, syncRate); // CntRate0
+		b.putInt(tttr + 28, records.length); // Records
+		b.putInt(tttr + 32, 0); // ImgHdrSize
+		b.position(tttr + 36);
+		for (final int record : records) {
+			b.putInt(record);
+		}
+		return b.array();
+	}
+
+	/** Makes a PicoHarp T3 photon record of the given 1-based channel. */
+	private static int photon(final int nsync, final int channel,
+		final int dtime)
+	{
+		return channel << 28 | dtime << 16 | nsync;
+	}
+
+	/** Makes a PicoHarp T3 marker record with the given marker bits. */
+	private static int marker(final int nsync, final int markers) {
+		return 0xf << 28 | markers << 16 | nsync;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+
+import io.scif.DefaultMetaTable;
+import io.scif.SCIFIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests {@link SDTBlockIndex}.
+ */
+public class SDTBlockIndexTest {
+
+	private SCIFIO scifio;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		scifio = new SCIFIO();
+		file = File.createTempFile("sdt-block-index-test", ".sdt");
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		file.delete();
+	}
+
+	/** Tests indexing the data blocks of a FIFO image file. */
+	@Test
+	public void testFifoBlocks() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 6;
+		sdt.fifoBlocks = 3;
+		sdt.write(file);
+
+		final SDTBlockIndex index = build();
+		assertEquals(3, index.size());
+		for (int block = 0; block < 3; block++) {
+			assertEquals(sdt.dataOffset(block), index.getDataOffset(block));
+			assertEquals(sdt.blockLength(), index.getLength(block));
+			assertEquals(0, index.getMeasDescBlockNo(block));
+		}
+	}
+
+	/** Tests that only the blocks present in a truncated file are indexed. */
+	@Test
+	public void testTruncatedChain() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 6;
+		sdt.fifoBlocks = 3;
+		sdt.write(file);
+		truncate(sdt.dataOffset(2) - SDTInfo.BLOCK_HEADER_LENGTH);
+
+		final SDTBlockIndex index = build();
+		assertEquals(2, index.size());
+		assertEquals(sdt.dataOffset(1), index.getDataOffset(1));
+	}
+
+	/**
+	 * Tests that a corrupt block count is bounded by the number of block headers
+	 * the file can hold.
+	 */
+	@Test
+	public void testBogusBlockCount() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.claimedBlocks = Integer.MAX_VALUE;
+		sdt.write(file);
+
+		final SDTBlockIndex index = build();
+		assertEquals(2, index.size());
+		assertEquals(sdt.dataOffset(1), index.getDataOffset(1));
+	}
+
+	/** Tests selecting the data blocks of each measurement. */
+	@Test
+	public void testSelect() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.measurements = 3;
+		sdt.write(file);
+
+		final SDTBlockIndex index = build();
+		assertEquals(6, index.size());
+		for (int m = 0; m < 3; m++) {
+			final SDTBlockIndex blocks = index.select(m);
+			assertEquals(2, blocks.size());
+			for (int block = 0; block < 2; block++) {
+				assertEquals(sdt.dataOffset(2 * m + block), blocks.getDataOffset(
+					block));
+				assertEquals(m, blocks.getMeasDescBlockNo(block));
+			}
+		}
+		assertEquals(0, index.select(3).size());
+	}
+
+	// -- Helper methods --
+
+	private SDTBlockIndex build() throws IOException {
+		final DataHandleService dataHandleService = scifio.getContext().getService(
+			DataHandleService.class);
+		try (final DataHandle<Location> handle = dataHandleService.create(
+			new FileLocation(file)))
+		{
+			handle.setLittleEndian(true);
+			final SDTInfo info = new SDTInfo(handle, new DefaultMetaTable());
+			return SDTBlockIndex.build(handle, info);
+		}
+	}
+
+	private void truncate(final long length) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+	}
+}
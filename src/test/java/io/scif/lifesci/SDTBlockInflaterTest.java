@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.DefaultMetaTable;
+import io.scif.FormatException;
+import io.scif.SCIFIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests {@link SDTBlockInflater}.
+ */
+public class SDTBlockInflaterTest {
+
+	/** Chunk size of the inflaters tested, much smaller than the blocks. */
+	private static final int CHUNK_SIZE = 100;
+
+	private SCIFIO scifio;
+
+	private File file;
+
+	private DataHandle<Location> handle;
+
+	private FileAccess access;
+
+	@Before
+	public void setUp() throws IOException {
+		scifio = new SCIFIO();
+		file = File.createTempFile("sdt-block-inflater-test", ".sdt");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (access != null) access.close();
+		if (handle != null) handle.close();
+		scifio.getContext().dispose();
+		file.delete();
+	}
+
+	/** Tests reads spanning chunks of a deflated block. */
+	@Test
+	public void testChunkBoundaries() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.DEFLATED);
+		final SDTBlockIndex index = open();
+		assertTrue(index.isCompressed(0));
+		final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE);
+		final byte[] data = sdt.pixelData(1);
+		assertRead(inflater, index, 1, data, 0, data.length);
+		assertRead(inflater, index, 1, data, CHUNK_SIZE - 3, 6);
+		assertRead(inflater, index, 1, data, 2 * CHUNK_SIZE, CHUNK_SIZE);
+		assertRead(inflater, index, 1, data, data.length - CHUNK_SIZE - 1,
+			CHUNK_SIZE + 1);
+		inflater.close();
+	}
+
+	/**
+	 * Tests reading back to chunks that were evicted, and alternating between
+	 * blocks, which restarts the inflation of a block.
+	 */
+	@Test
+	public void testBackwardSeeks() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.DEFLATED);
+		final SDTBlockIndex index = open();
+		final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE);
+		final byte[] first = sdt.pixelData(0);
+		final byte[] second = sdt.pixelData(1);
+		assertRead(inflater, index, 0, first, 5 * CHUNK_SIZE + 10, 20);
+		assertRead(inflater, index, 0, first, 10, 20);
+		assertRead(inflater, index, 1, second, 3 * CHUNK_SIZE - 1, 2);
+		assertRead(inflater, index, 0, first, 4 * CHUNK_SIZE, 50);
+		assertRead(inflater, index, 1, second, CHUNK_SIZE / 2, 40);
+		assertRead(inflater, index, 1, second, 6 * CHUNK_SIZE, CHUNK_SIZE);
+		assertRead(inflater, index, 0, first, 0, first.length);
+		inflater.close();
+	}
+
+	/** Tests reading entries stored uncompressed in the zip archive. */
+	@Test
+	public void testStored() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.STORED);
+		final SDTBlockIndex index = open();
+		final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE);
+		final byte[] data = sdt.pixelData(1);
+		assertRead(inflater, index, 1, data, data.length - 10, 10);
+		assertRead(inflater, index, 1, data, CHUNK_SIZE - 3, 6);
+		assertRead(inflater, index, 1, data, 0, data.length);
+		inflater.close();
+	}
+
+	/** Tests reading past the end of the decompressed data. */
+	@Test(expected = FormatException.class)
+	public void testPastEnd() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.DEFLATED);
+		final SDTBlockIndex index = open();
+		final byte[] b = new byte[10];
+		try (final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE))
+		{
+			inflater.read(index, 0, sdt.blockLength() - 5, b, 0, b.length);
+		}
+	}
+
+	/** Tests reading a stored entry cut short by the end of the file. */
+	@Test(expected = FormatException.class)
+	public void testStoredTruncated() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.STORED);
+		truncate(sdt.dataOffset(1) + sdt.blockLength() / 2);
+		final SDTBlockIndex index = open();
+		final byte[] b = new byte[(int) sdt.blockLength()];
+		try (final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE))
+		{
+			inflater.read(index, 1, 0, b, 0, b.length);
+		}
+	}
+
+	/** Tests reading a deflated entry cut short by the end of the file. */
+	@Test(expected = FormatException.class)
+	public void testDeflatedTruncated() throws IOException, FormatException {
+		final SDTFiles sdt = fifo(ZipEntry.DEFLATED);
+		truncate(sdt.dataOffset(1) + 40);
+		final SDTBlockIndex index = open();
+		final byte[] b = new byte[(int) sdt.blockLength()];
+		try (final SDTBlockInflater inflater = new SDTBlockInflater(access, 0,
+			CHUNK_SIZE))
+		{
+			inflater.read(index, 1, 0, b, 0, b.length);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Writes a FIFO file of two compressed blocks. */
+	private SDTFiles fifo(final int zipMethod) throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.zipMethod = zipMethod;
+		sdt.write(file);
+		return sdt;
+	}
+
+	/** Opens the file, and indexes its data blocks. */
+	private SDTBlockIndex open() throws IOException {
+		handle = scifio.getContext().getService(DataHandleService.class).create(
+			new FileLocation(file));
+		handle.setLittleEndian(true);
+		access = new FileAccess(handle);
+		return SDTBlockIndex.build(handle, new SDTInfo(handle,
+			new DefaultMetaTable()));
+	}
+
+	private void truncate(final long length) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+	}
+
+	private static void assertRead(final SDTBlockInflater inflater,
+		final SDTBlockIndex index, final int block, final byte[] expected,
+		final int pos, final int len) throws IOException, FormatException
+	{
+		final byte[] b = new byte[len + 2];
+		inflater.read(index, block, pos, b, 1, len);
+		assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + len), Arrays
+			.copyOfRange(b, 1, len + 1));
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.SCIFIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SDTCatalogService}.
+ */
+public class SDTCatalogServiceTest {
+
+	private SCIFIO scifio;
+
+	private SDTCatalogService catalogService;
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		scifio = new SCIFIO();
+		catalogService = scifio.getContext().getService(SDTCatalogService.class);
+		root = Files.createTempDirectory("sdt-catalog-test").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		scifio.getContext().dispose();
+		delete(root);
+	}
+
+	/** Tests cataloging a directory tree. */
+	@Test
+	public void testScan() throws IOException {
+		final File single = new File(root, "single.sdt");
+		new SDTFiles().write(single);
+		final File sub = new File(root, "sub");
+		assertTrue(sub.mkdir());
+		final SDTFiles fifo = new SDTFiles();
+		fifo.layout = SDTFiles.Layout.FIFO;
+		fifo.planes = 4;
+		final File fifoFile = new File(sub, "fifo.SDT");
+		fifo.write(fifoFile);
+		final SDTFiles perPixel = new SDTFiles();
+		perPixel.layout = SDTFiles.Layout.PER_PIXEL;
+		final File perPixelFile = new File(sub, "per-pixel.sdt");
+		perPixel.write(perPixelFile);
+		Files.write(new File(root, "notes.txt").toPath(), new byte[100]);
+		Files.write(new File(root, "broken.sdt").toPath(), new byte[10]);
+
+		catalogService.setParallelism(2);
+		final SDTCatalog catalog = catalogService.scan(root, null);
+		assertEquals(3, catalog.size());
+		assertNull(catalog.get(new File(root, "broken.sdt")));
+
+		final SDTCatalog.Entry entry = catalog.get(single);
+		assertEquals(single.getAbsolutePath(), entry.getPath());
+		assertEquals(5, entry.getWidth());
+		assertEquals(3, entry.getHeight());
+		assertEquals(8, entry.getTimeBins());
+		assertEquals(2, entry.getChannels());
+		assertEquals(12.5, entry.getTimeBase(), 1e-4);
+		assertEquals(SDTCatalog.Layout.SINGLE_BLOCK, entry.getLayout());
+		assertEquals(SDTCatalog.Layout.FIFO_IMAGE, catalog.get(fifoFile)
+			.getLayout());
+		assertEquals(4, catalog.get(fifoFile).getChannels());
+		assertEquals(SDTCatalog.Layout.BLOCK_PER_PIXEL, catalog.get(perPixelFile)
+			.getLayout());
+		assertEquals(1, catalog.find(e -> e.getLayout() ==
+			SDTCatalog.Layout.FIFO_IMAGE).size());
+	}
+
+	/**
+	 * Tests that updating a saved catalog re-reads only changed files, and
+	 * drops deleted ones.
+	 */
+	@Test
+	public void testUpdate() throws IOException {
+		final File index = new File(root.getParentFile(), root.getName() +
+			".sdtcat");
+		try {
+			final File a = new File(root, "a.sdt");
+			final File b = new File(root, "b.sdt");
+			final File c = new File(root, "c.sdt");
+			new SDTFiles().write(a);
+			new SDTFiles().write(b);
+			new SDTFiles().write(c);
+			assertEquals(3, catalogService.update(root, index).size());
+			assertEquals(3, SDTCatalog.load(index).size());
+
+			// same size and time: the cached entry is kept
+			final long modified = a.lastModified();
+			final long length = a.length();
+			final SDTFiles reshaped = new SDTFiles();
+			reshaped.width = 4;
+			reshaped.height = 6;
+			reshaped.write(a);
+			assertEquals(length, a.length());
+			assertTrue(a.setLastModified(modified));
+			// changed file: it is read again
+			final SDTFiles narrower = new SDTFiles();
+			narrower.width = 3;
+			narrower.write(b);
+			assertTrue(c.delete());
+
+			final SDTCatalog catalog = catalogService.update(root, index);
+			assertEquals(2, catalog.size());
+			assertEquals(5, catalog.get(a).getWidth());
+			assertEquals(3, catalog.get(b).getWidth());
+			assertNull(catalog.get(c));
+			assertEquals(2, SDTCatalog.load(index).size());
+		}
+		finally {
+			index.delete();
+		}
+	}
+
+	/** Tests cataloging each measurement of a file, as the reader does. */
+	@Test
+	public void testMeasurements() throws IOException {
+		final File file = new File(root, "measurements.sdt");
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.measurements = 3;
+		sdt.write(file);
+		final File index = new File(root.getParentFile(), root.getName() +
+			".sdtcat");
+		try {
+			catalogService.update(root, index);
+			final SDTCatalog.Entry entry = SDTCatalog.load(index).get(file);
+			assertEquals(3, entry.getMeasurements().size());
+			assertEquals(6, entry.getDataBlocks());
+			for (final SDTCatalog.Measurement measurement : entry
+				.getMeasurements())
+			{
+				assertEquals(SDTCatalog.Layout.FIFO_IMAGE, measurement.getLayout());
+				assertEquals(4, measurement.getChannels());
+				assertEquals(2, measurement.getDataBlocks());
+			}
+			assertEquals("12:00:02", entry.getMeasurements().get(2).getTime());
+		}
+		finally {
+			index.delete();
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes small synthetic SDT files for tests. Time bin {@code t} of pixel
+ * {@code (x, y)} of plane {@code c} holds {@link #value(int, int, int, int)}.
+ */
+class SDTFiles {
+
+	// -- Constants --
+
+	/** Length of the measurement description blocks written. */
+	static final int MEAS_DESC_BLOCK_LENGTH = 211 + 60 + 38 + 26 + 24;
+
+	/** Ways of storing the planes in data blocks. */
+	enum Layout {
+			/** One data block holding every plane. */
+			SINGLE,
+			/** FIFO image blocks, each holding {@code planes / blocks} planes. */
+			FIFO,
+			/** One data block per pixel, holding the decays of every plane. */
+			PER_PIXEL
+	}
+
+	// -- Fields --
+
+	int width = 5, height = 3, timeBins = 8, planes = 2;
+
+	Layout layout = Layout.SINGLE;
+
+	/** Number of data blocks of {@link Layout#FIFO} files. */
+	int fifoBlocks = 2;
+
+	/** Number of data blocks given by the file header, if not the actual one. */
+	int claimedBlocks = -1;
+
+	/** Additional lines of the setup text, each ending with a line break. */
+	String setupLines = "";
+
+	/**
+	 * Zip compression method of the data blocks ({@link ZipEntry#STORED} or
+	 * {@link ZipEntry#DEFLATED}), or -1 to write them uncompressed.
+	 */
+	int zipMethod = -1;
+
+	/**
+	 * Number of measurements, each with its own measurement description block
+	 * and data blocks. Plane {@code c} of measurement {@code m} holds the
+	 * values of plane {@code m * planes + c}.
+	 */
+	int measurements = 1;
+
+	// -- SDTFiles methods --
+
+	/** Gets the value of time bin t of pixel (x, y) of plane c. */
+	static short value(final int c, final int y, final int x, final int t) {
+		return (short) (1000 * c + 100 * y + 10 * x + t);
+	}
+
+	/** Gets the number of data blocks of each measurement. */
+	int blocks() {
+		switch (layout) {
+			case FIFO:
+				return fifoBlocks;
+			case PER_PIXEL:
+				return width * height;
+			default:
+				return 1;
+		}
+	}
+
+	/** Gets the uncompressed length of the pixel data of each data block. */
+	long blockLength() {
+		final int paddedWidth = width + (4 - width % 4) % 4;
+		final long planeBytes = (long) paddedWidth * height * timeBins * 2;
+		switch (layout) {
+			case FIFO:
+				return planeBytes * planes / fifoBlocks;
+			case PER_PIXEL:
+				return (long) planes * timeBins * 2;
+			default:
+				return planeBytes * planes;
+		}
+	}
+
+	/** Gets the file offset of the pixel data of the given block. */
+	long dataOffset(final int block) throws IOException {
+		long offset = dataBlockOffset() + SDTInfo.BLOCK_HEADER_LENGTH;
+		for (int i = 0; i < block; i++) {
+			offset += storedLength(i) + SDTInfo.BLOCK_HEADER_LENGTH;
+		}
+		return offset;
+	}
+
+	/** Gets the uncompressed pixel data of the given block. */
+	byte[] pixelData(final int block) {
+		final ByteBuffer raw = ByteBuffer.allocate((int) blockLength()).order(
+			ByteOrder.LITTLE_ENDIAN);
+		putBlock(raw, block);
+		return raw.array();
+	}
+
+	/**
+	 * Replaces the 16-bit field at the given offset of the file header of an
+	 * SDT file, optionally updating the checksum to match.
+	 */
+	static void patchHeader(final File file, final int offset,
+		final short value, final boolean checksum) throws IOException
+	{
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			final byte[] header = new byte[SDTInfo.HEADER_LENGTH];
+			raf.readFully(header);
+			final ByteBuffer b = ByteBuffer.wrap(header).order(
+				ByteOrder.LITTLE_ENDIAN);
+			b.putShort(offset, value);
+			if (checksum) {
+				int sum = 0;
+				for (int i = 0; i < header.length - 2; i += 2) sum += b.getShort(i);
+				b.putShort(header.length - 2, (short) (SDTInfo.BH_HEADER_CHKSUM -
+					sum));
+			}
+			raf.seek(0);
+			raf.write(header);
+		}
+	}
+
+	/** Writes the file. */
+	void write(final File file) throws IOException {
+		final byte[] info = info().getBytes(StandardCharsets.US_ASCII);
+		final byte[] setup = setup().getBytes(StandardCharsets.US_ASCII);
+		final int blocks = blocks() * measurements;
+		final ByteBuffer b = ByteBuffer.allocate((int) dataOffset(blocks)).order(
+			ByteOrder.LITTLE_ENDIAN);
+
+		// file header
+		final int setupOffs = SDTInfo.HEADER_LENGTH + info.length;
+		final int measDescOffs = setupOffs + setup.length;
+		final int count = claimedBlocks < 0 ? blocks : claimedBlocks;
+		b.putShort((short) 0x8e); // revision
+		b.putInt(SDTInfo.HEADER_LENGTH); // infoOffs
+		b.putShort((short) info.length);
+		b.putInt(setupOffs);
+		b.putShort((short) setup.length);
+		b.putInt((int) dataBlockOffset());
+		b.putShort((short) Math.min(count, 0x7fff)); // noOfDataBlocks
+		b.putInt((int) blockLength()); // dataBlockLength
+		b.putInt(measDescOffs);
+		b.putShort((short) measurements); // noOfMeasDescBlocks
+		b.putShort((short) MEAS_DESC_BLOCK_LENGTH);
+		b.putShort(SDTInfo.BH_HEADER_VALID);
+		b.putInt(count < 0x7fff ? 0 : count); // reserved1
+		b.putShort((short) 0); // reserved2
+		int sum = 0;
+		for (int i = 0; i < SDTInfo.HEADER_LENGTH - 2; i += 2) sum += b.getShort(i);
+		b.putShort((short) (SDTInfo.BH_HEADER_CHKSUM - sum)); // chksum
+		b.put(info);
+		b.put(setup);
+
+		// measurement descriptions
+		final boolean fifo = layout == Layout.FIFO;
+		for (int m = 0; m < measurements; m++) {
+			putMeasDesc(b, m, fifo);
+		}
+
+		// data blocks
+		for (int block = 0; block < blocks; block++) {
+			b.putShort((short) block); // blockNo
+			b.putInt((int) dataOffset(block)); // dataOffs
+			b.putInt(block < blocks - 1 ? (int) (dataOffset(block + 1) -
+				SDTInfo.BLOCK_HEADER_LENGTH) : 0); // nextBlockOffs
+			b.putShort((short) (zipMethod < 0 ? 0x11 : 0x11 |
+				SDTInfo.DATA_ZIPPED)); // blockType: decay data, 16-bit
+			b.putShort((short) (block / blocks())); // measDescBlockNo
+			b.putInt(block); // lblockNo
+			final byte[] data = blockData(block);
+			b.putInt(data.length);
+			b.put(data);
+		}
+		Files.write(file.toPath(), b.array());
+	}
+
+	// -- Helper methods --
+
+	/** Puts the description block of the given measurement. */
+	private void putMeasDesc(final ByteBuffer b, final int m,
+		final boolean fifo)
+	{
+		final int measDesc = b.position();
+		b.put(String.format("12:00:%02d", m).getBytes(
+			StandardCharsets.US_ASCII));
+		b.position(measDesc + 9);
+		b.put("01-01-2016".getBytes(StandardCharsets.US_ASCII));
+		b.putShort(measDesc + 36, (short) (fifo ? SDTInfo.FIFO_IMAGE_MODE : 0));
+		b.putFloat(measDesc + 64, 12.5e-9f); // tacR
+		b.putShort(measDesc + 68, (short) 1); // tacG
+		b.putShort(measDesc + 82, (short) timeBins); // adcRE
+		b.putInt(measDesc + 173, width); // scanX
+		b.putInt(measDesc + 177, height); // scanY
+		b.putInt(measDesc + 181, fifo ? planes / fifoBlocks : planes); // scanRX
+		b.putInt(measDesc + 185, 1); // scanRY
+		if (fifo) {
+			b.putInt(measDesc + 309, width); // imageX
+			b.putInt(measDesc + 313, height); // imageY
+			b.putInt(measDesc + 317, planes / fifoBlocks); // imageRX
+			b.putInt(measDesc + 321, 1); // imageRY
+		}
+		b.position(measDesc + MEAS_DESC_BLOCK_LENGTH);
+	}
+
+	/** Gets the offset of the first data block header. */
+	private long dataBlockOffset() {
+		return SDTInfo.HEADER_LENGTH + info().length() + setup().length() +
+			(long) MEAS_DESC_BLOCK_LENGTH * measurements;
+	}
+
+	/** Gets the file information text. */
+	private String info() {
+		return "*IDENTIFICATION\r\nID        : " + SDTInfo.DATA_IDENTIFIER +
+			"\r\nTitle     : synthetic\r\n*END\r\n\r\n";
+	}
+
+	/** Gets the setup text, with the dimensions of the file. */
+	private String setup() {
+		return "*SETUP\r\n" + SDTInfo.X_STRING + width + "]\r\n" +
+			SDTInfo.Y_STRING + height + "]\r\n" + SDTInfo.T_STRING + timeBins +
+			"]\r\n" + SDTInfo.C_STRING1 + planes + "]\r\n" + SDTInfo.C_STRING2 +
+			"1]\r\n" + setupLines + "*END\r\n";
+	}
+
+	/** Gets the data of the given block as stored in the file. */
+	private byte[] blockData(final int block) throws IOException {
+		final byte[] raw = pixelData(block);
+		if (zipMethod < 0) return raw;
+
+		final ZipEntry entry = new ZipEntry("data");
+		entry.setMethod(zipMethod);
+		if (zipMethod == ZipEntry.STORED) {
+			final CRC32 crc = new CRC32();
+			crc.update(raw);
+			entry.setSize(raw.length);
+			entry.setCrc(crc.getValue());
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(entry);
+			zip.write(raw);
+			zip.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Gets the length of the given data block as stored in the file. */
+	private long storedLength(final int block) throws IOException {
+		return zipMethod < 0 ? blockLength() : blockData(block).length;
+	}
+
+	/** Puts the pixel data of the given block. */
+	private void putBlock(final ByteBuffer b, final int fileBlock) {
+		// planes of later measurements follow those of earlier ones
+		final int first = fileBlock / blocks() * planes;
+		final int block = fileBlock % blocks();
+		if (layout == Layout.PER_PIXEL) {
+			// bottom row first
+			final int x = block % width, y = height - 1 - block / width;
+			for (int c = first; c < first + planes; c++) {
+				for (int t = 0; t < timeBins; t++) {
+					b.putShort(value(c, y, x, t));
+				}
+			}
+			return;
+		}
+		final int perBlock = layout == Layout.FIFO ? planes / fifoBlocks : planes;
+		final int padding = (4 - width % 4) % 4;
+		for (int c = first + block * perBlock; c < first + (block + 1) *
+			perBlock; c++)
+		{
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					for (int t = 0; t < timeBins; t++) {
+						b.putShort(value(c, y, x, t));
+					}
+				}
+				b.position(b.position() + padding * timeBins * 2);
+			}
+		}
+	}
+}
@@ -0,0 +1,1382 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.scif.ByteArrayPlane;
+import io.scif.Checker;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.MetaTable;
+import io.scif.MetadataLevel;
+import io.scif.Reader;
+import io.scif.SCIFIO;
+import io.scif.Writer;
+import io.scif.config.SCIFIOConfig;
+import io.scif.img.axes.SCIFIOAxes;
+import io.scif.util.FormatTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.zip.ZipEntry;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Tests {@link SDTFormat}.
+ */
+public class SDTFormatTest {
+
+	private SCIFIO scifio;
+
+	private Format format;
+
+	private File source, dest;
+
+	@Before
+	public void setUp() throws IOException, FormatException {
+		scifio = new SCIFIO();
+		format = scifio.format().getFormatFromClass(SDTFormat.class);
+		source = File.createTempFile("sdt-format-test", ".sdt");
+		dest = File.createTempFile("sdt-format-test-out", ".sdt");
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		source.delete();
+		dest.delete();
+	}
+
+	/** Tests that the header fields are put into the table when it is read. */
+	@Test
+	public void testTable() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SDTFormat.Metadata meta = (SDTFormat.Metadata) format
+			.createParser().parse(new FileLocation(source));
+		assertEquals(sdt.width, meta.getSDTInfo().width);
+		final MetaTable table = meta.getTable();
+		assertEquals("synthetic", table.get("Title"));
+		assertEquals(String.valueOf(sdt.width), table.get("SP_SCAN_X"));
+		assertEquals(Short.valueOf((short) 1), table.get(
+			"bhfileHeader.noOfDataBlocks"));
+		assertEquals(Float.valueOf(12.5e-9f), table.get("MeasureInfo.tacR"));
+		assertEquals(sdt.timeBins, table.get("time bins"));
+		assertEquals(12.5, (Double) table.get("time base"), 1e-6);
+
+		// the fields are put into the table only once
+		table.clear();
+		assertSame(table, meta.getTable());
+		assertTrue(table.isEmpty());
+	}
+
+	/** Tests recognizing SDT files by suffix or else by file header. */
+	@Test
+	public void testChecker() throws IOException, FormatException {
+		final Checker checker = format.createChecker();
+		final SCIFIOConfig open = new SCIFIOConfig().checkerSetOpen(true);
+		final File other = File.createTempFile("sdt-format-test", ".bin");
+		try {
+			new SDTFiles().write(other);
+			assertTrue(checker.isFormat(new FileLocation(other), open));
+			assertFalse(checker.isFormat(new FileLocation(other), new SCIFIOConfig()
+				.checkerSetOpen(false)));
+
+			// an invalid header is only accepted by suffix
+			single();
+			SDTFiles.patchHeader(source, 32, (short) 0, false);
+			SDTFiles.patchHeader(other, 32, (short) 0, false);
+			assertTrue(checker.isFormat(new FileLocation(source)));
+			assertFalse(checker.isFormat(new FileLocation(other), open));
+		}
+		finally {
+			other.delete();
+		}
+	}
+
+	/**
+	 * Tests that a minimal parse gets the same dimensions as a full one, and
+	 * that its planes can be read.
+	 */
+	@Test
+	public void testMinimalParse() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(source);
+		// older files may have neither a valid flag nor a valid checksum
+		SDTFiles.patchHeader(source, 32, (short) 0, false);
+
+		final SCIFIOConfig config = new SCIFIOConfig().parserSetLevel(
+			MetadataLevel.MINIMUM);
+		final SDTFormat.Metadata full = parse(new SCIFIOConfig());
+		final SDTFormat.Metadata minimal = parse(config);
+		assertEquals(full.getTimeBins(), minimal.getTimeBins());
+		assertEquals(full.getChannels(), minimal.getChannels());
+		assertEquals(full.getTimeBase(), minimal.getTimeBase(), 0);
+		assertEquals(full.get(0).getPlaneCount(), minimal.get(0).getPlaneCount());
+		assertNull(minimal.getBlockIndex());
+
+		try (final Reader reader = format.createReader()) {
+			reader.setMetadata(minimal);
+			for (int c = 0; c < sdt.planes; c++) {
+				assertDecays(sdt, c, 0, 0, sdt.width, sdt.height, reader.openPlane(0,
+					c).getBytes());
+			}
+		}
+	}
+
+	/** Tests that minimal and full parses both reject a truncated header. */
+	@Test
+	public void testMinimalParseTruncated() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = single();
+		truncate(sdt.dataOffset(0) - 1);
+		for (final MetadataLevel level : new MetadataLevel[] {
+			MetadataLevel.MINIMUM, MetadataLevel.ALL })
+		{
+			try {
+				parse(new SCIFIOConfig().parserSetLevel(level));
+				fail("Expected an IOException at level " + level);
+			}
+			catch (final IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/** Tests reading the planes of a single-block file. */
+	@Test
+	public void testSinglePlanes() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		assertPlanes(sdt, new SCIFIOConfig());
+		assertCrop(sdt, new SCIFIOConfig());
+	}
+
+	/** Tests reading the planes of a single-block file through a mapping. */
+	@Test
+	public void testMemoryMappedPlanes() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.MEMORY_MAP_KEY, true);
+		assertPlanes(sdt, config);
+		assertCrop(sdt, config);
+	}
+
+	/** Tests the mapped views of the planes and decays of a single block. */
+	@Test
+	public void testMapViews() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final int c = 1, paddedWidth = 8;
+			final ShortBuffer plane = reader.mapPlane(0, c).order(
+				ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			assertEquals(paddedWidth * sdt.height * sdt.timeBins, plane
+				.remaining());
+			for (int t = 0; t < sdt.timeBins; t++) {
+				final int i = (2 * paddedWidth + 4) * sdt.timeBins + t;
+				assertEquals(SDTFiles.value(c, 2, 4, t), plane.get(i));
+			}
+
+			final ShortBuffer decay = reader.mapDecay(0, c, 3, 1);
+			assertEquals(sdt.timeBins, decay.remaining());
+			for (int t = 0; t < sdt.timeBins; t++) {
+				assertEquals(SDTFiles.value(c, 1, 3, t), decay.get());
+			}
+
+			final ShortBuffer decays = reader.mapDecays(0, 0, 1, 2, 3);
+			assertEquals(3 * sdt.timeBins, decays.remaining());
+			for (int x = 1; x < 4; x++) {
+				for (int t = 0; t < sdt.timeBins; t++) {
+					assertEquals(SDTFiles.value(0, 2, x, t), decays.get());
+				}
+			}
+		}
+	}
+
+	/** Tests merging the lifetime bins of each pixel into intensities. */
+	@Test
+	public void testMergeIntensity() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = (SDTFormat.Metadata) reader
+				.getMetadata();
+			meta.setMergeIntensity(true);
+			assertIntensities(sdt, reader.openPlane(0, 1).getBytes(), false);
+			meta.setIntensityPixelType(FormatTools.FLOAT);
+			assertIntensities(sdt, reader.openPlane(0, 1).getBytes(), true);
+		}
+	}
+
+	/** Tests reading decays and intensities into short arrays. */
+	@Test
+	public void testOpenShortPlane() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			assertDecays(sdt, 1, 0, 0, sdt.width, sdt.height, reader.openShortPlane(
+				0, 1));
+
+			final FinalInterval bounds = new FinalInterval(new long[] { 0, 2, 1 },
+				new long[] { sdt.timeBins - 1, 4, 2 });
+			final short[] dest = new short[3 * 2 * sdt.timeBins];
+			assertSame(dest, reader.openShortPlane(0, 0, bounds, dest,
+				new SCIFIOConfig()));
+			assertDecays(sdt, 0, 2, 1, 3, 2, dest);
+			assertSame(dest, reader.openShortPlane(0, 1, bounds, dest, mapped));
+			assertDecays(sdt, 1, 2, 1, 3, 2, dest);
+
+			reader.getMetadata().setMergeIntensity(true);
+			final short[] intensity = reader.openShortPlane(0, 1);
+			assertEquals(sdt.width * sdt.height, intensity.length);
+			for (int y = 0; y < sdt.height; y++) {
+				for (int x = 0; x < sdt.width; x++) {
+					assertEquals(intensity(1, y, x, sdt.timeBins), intensity[y *
+						sdt.width + x]);
+				}
+			}
+		}
+	}
+
+	/** Tests streaming part of a plane into a caller buffer. */
+	@Test
+	public void testReadPlane() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final int pixelBytes = sdt.timeBins * 2;
+			// from the last pixel of row 0 to the first of row 2
+			final int len = (sdt.width + 2) * pixelBytes;
+			final byte[] buf = new byte[len + 4];
+			reader.readPlane(0, 1, (sdt.width - 1) * pixelBytes, buf, 4, len);
+			final ShortBuffer b = ByteBuffer.wrap(buf, 4, len).order(
+				ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			for (int i = 0; i < sdt.width + 2; i++) {
+				final int pixel = sdt.width - 1 + i;
+				for (int t = 0; t < sdt.timeBins; t++) {
+					assertEquals(SDTFiles.value(1, pixel / sdt.width, pixel % sdt.width,
+						t), b.get());
+				}
+			}
+		}
+	}
+
+	/** Tests that reading past the end of a truncated file fails. */
+	@Test(expected = FormatException.class)
+	public void testTruncatedSingleBlock() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		// cut into the last pixel, ahead of the row padding
+		truncate(sdt.dataOffset(0) + sdt.blockLength() - 3 * sdt.timeBins * 2 - 1);
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			reader.openPlane(0, 0);
+			reader.openPlane(0, sdt.planes - 1);
+		}
+	}
+
+	/** Tests that reading a FIFO plane past the end of its block fails. */
+	@Test(expected = FormatException.class)
+	public void testTruncatedFifoBlock() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(source);
+		truncate(sdt.dataOffset(1) + 10);
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			reader.openPlane(0, 1);
+			reader.openPlane(0, 2);
+		}
+	}
+
+	/** Tests reading planes of one reader from several threads at once. */
+	@Test
+	public void testConcurrentReads() throws IOException, FormatException,
+		InterruptedException, ExecutionException
+	{
+		final SDTFiles sdt = perPixel();
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			final List<Future<byte[]>> planes = new ArrayList<>();
+			for (int i = 0; i < 8 * sdt.planes; i++) {
+				final int c = i % sdt.planes;
+				planes.add(pool.submit(new Callable<byte[]>() {
+
+					@Override
+					public byte[] call() throws Exception {
+						return reader.openPlane(0, c).getBytes();
+					}
+				}));
+			}
+			for (int i = 0; i < planes.size(); i++) {
+				assertDecays(sdt, i % sdt.planes, 0, 0, sdt.width, sdt.height, planes
+					.get(i).get());
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Tests reading narrow and wide lifetime gates of decay planes. */
+	@Test
+	public void testGatedDecays() throws IOException, FormatException {
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		assertGates(single(), new SCIFIOConfig());
+		assertGates(single(), mapped);
+		final SCIFIOConfig uncached = new SCIFIOConfig();
+		uncached.put(SDTFormat.CACHE_SIZE_KEY, 0L);
+		assertGates(perPixel(), new SCIFIOConfig());
+		assertGates(perPixel(), uncached);
+	}
+
+	/** Tests summing only the configured gate into intensities. */
+	@Test
+	public void testGatedIntensity() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.GATE_START_KEY, 2);
+		config.put(SDTFormat.GATE_END_KEY, 7);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.getMetadata().setMergeIntensity(true);
+			final short[] intensity = reader.openShortPlane(0, 1, new FinalInterval(
+				sdt.width, sdt.height), null, config);
+			for (int y = 0; y < sdt.height; y++) {
+				for (int x = 0; x < sdt.width; x++) {
+					assertEquals(intensity(1, y, x, 2, 7), intensity[y * sdt.width + x]);
+				}
+			}
+		}
+	}
+
+	/** Tests that a gate outside the time bins is rejected. */
+	@Test(expected = FormatException.class)
+	public void testInvalidGate() throws IOException, FormatException {
+		single();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.GATE_START_KEY, 4);
+		config.put(SDTFormat.GATE_END_KEY, 9);
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			((SDTFormat.Metadata) reader.getMetadata()).setMergeIntensity(true);
+			reader.openPlane(0, 0, config);
+		}
+	}
+
+	/** Tests combining adjacent lifetime bins while reading. */
+	@Test
+	public void testTimeBinning() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setTimeBinning(3);
+			// the trailing 2 of the 8 bins are dropped
+			assertEquals(2, meta.get(0).getAxisLength(SCIFIOAxes.LIFETIME));
+			final CalibratedAxis lifetime = meta.get(0).getAxis(SCIFIOAxes.LIFETIME);
+			assertEquals(3 * meta.getTimeBase() / sdt.timeBins, lifetime
+				.calibratedValue(1) - lifetime.calibratedValue(0), 1e-9);
+			assertBinned(sdt, 1, 3, 0, 2, reader.openPlane(0, 1).getBytes());
+			assertBinned(sdt, 1, 3, 0, 2, reader.openPlane(0, 1, mapped)
+				.getBytes());
+
+			// LIFETIME bounds are counted in binned units
+			final FinalInterval bounds = new FinalInterval(new long[] { 1, 0, 0 },
+				new long[] { 1, sdt.width - 1, sdt.height - 1 });
+			assertBinned(sdt, 0, 3, 1, 2, reader.openPlane(0, 0, bounds)
+				.getBytes());
+			final short[] values = reader.openShortPlane(0, 0, bounds, null,
+				new SCIFIOConfig());
+			assertEquals(sdt.width * sdt.height, values.length);
+			assertEquals(binned(0, 2, 4, 3, 1), values[2 * sdt.width + 4]);
+		}
+	}
+
+	/** Tests time binning of per-pixel blocks, given to the parser. */
+	@Test
+	public void testParserTimeBinning() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		final SDTFormat.Parser parser = (SDTFormat.Parser) format.createParser();
+		parser.setTimeBinning(4);
+		try (final Reader reader = format.createReader()) {
+			reader.setMetadata(parser.parse(new FileLocation(source)));
+			for (int c = 0; c < sdt.planes; c++) {
+				assertBinned(sdt, c, 4, 0, 2, reader.openPlane(0, c).getBytes());
+			}
+		}
+	}
+
+	/** Tests that time binning is clamped to the number of time bins. */
+	@Test
+	public void testTimeBinningClamped() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setTimeBinning(100);
+			assertEquals(sdt.timeBins, meta.getTimeBinning());
+			assertEquals(1, meta.get(0).getAxisLength(SCIFIOAxes.LIFETIME));
+			assertBinned(sdt, 0, sdt.timeBins, 0, 1, reader.openPlane(0, 0)
+				.getBytes());
+		}
+	}
+
+	/** Tests summing blocks of neighbouring pixels while reading. */
+	@Test
+	public void testSpatialBinning() throws IOException, FormatException {
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		assertSpatialBinning(single(), new SCIFIOConfig());
+		assertSpatialBinning(single(), mapped);
+		assertSpatialBinning(perPixel(), new SCIFIOConfig());
+	}
+
+	/** Tests spatial binning combined with time binning and merging. */
+	@Test
+	public void testSpatialAndTimeBinning() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = single();
+		sdt.width = 6;
+		sdt.height = 4;
+		sdt.write(source);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setSpatialBinning(3);
+			meta.setTimeBinning(2);
+			assertEquals(2, meta.get(0).getAxisLength(Axes.X));
+			assertEquals(1, meta.get(0).getAxisLength(Axes.Y));
+			final short[] values = reader.openShortPlane(0, 1);
+			assertEquals(2 * 1 * 4, values.length);
+			for (int x = 0; x < 2; x++) {
+				for (int bin = 0; bin < 4; bin++) {
+					assertEquals(spatial(1, 0, x, 3, 2 * bin, 2 * bin + 2), values[x * 4 +
+						bin]);
+				}
+			}
+
+			meta.setMergeIntensity(true);
+			final short[] intensity = reader.openShortPlane(0, 0);
+			assertEquals(2, intensity.length);
+			for (int x = 0; x < 2; x++) {
+				assertEquals(spatial(0, 0, x, 3, 0, sdt.timeBins), intensity[x]);
+			}
+		}
+	}
+
+	/** Tests that spatial binning is clamped to the image size. */
+	@Test
+	public void testSpatialBinningClamped() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setSpatialBinning(10);
+			assertEquals(sdt.height, meta.getSpatialBinning());
+			assertEquals(1, meta.get(0).getAxisLength(Axes.X));
+			assertEquals(1, meta.get(0).getAxisLength(Axes.Y));
+			final short[] values = reader.openShortPlane(0, 0);
+			for (int t = 0; t < sdt.timeBins; t++) {
+				assertEquals(spatial(0, 0, 0, sdt.height, t, t + 1), values[t]);
+			}
+		}
+	}
+
+	/** Tests computing phasor maps, serially and in parallel. */
+	@Test
+	public void testPhasor() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final SCIFIOConfig serial = new SCIFIOConfig();
+		serial.put(SDTFormat.PARALLEL_KEY, false);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setImageMode(SDTFormat.ImageMode.PHASOR);
+			assertEquals(FormatTools.FLOAT, meta.get(0).getPixelType());
+			assertEquals(3, meta.get(0).getAxisLength(SDTFormat.PHASOR));
+			assertEquals(sdt.planes, meta.get(0).getPlaneCount());
+			final double omega = 2 * Math.PI / meta.getTimeBase();
+			for (int c = 0; c < sdt.planes; c++) {
+				assertPhasor(sdt, c, meta.getTimeBase(), omega, 0, 3, reader.openPlane(
+					0, c).getBytes());
+				assertPhasor(sdt, c, meta.getTimeBase(), omega, 0, 3, reader.openPlane(
+					0, c, serial).getBytes());
+			}
+		}
+	}
+
+	/** Tests reading one phasor component at a configured harmonic. */
+	@Test
+	public void testPhasorHarmonic() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.PHASOR_HARMONIC_KEY, 2);
+		config.put(SDTFormat.PHASOR_PERIOD_KEY, 20.0);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setImageMode(SDTFormat.ImageMode.PHASOR);
+			final FinalInterval bounds = new FinalInterval(new long[] { 0, 0, 1 },
+				new long[] { sdt.width - 1, sdt.height - 1, 2 });
+			assertPhasor(sdt, 2, meta.getTimeBase(), 2 * 2 * Math.PI / 20, 1, 3,
+				reader.openPlane(0, 2, bounds, config).getBytes());
+		}
+	}
+
+	/** Tests reading gated mean arrival times. */
+	@Test
+	public void testMeanArrivalTime() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.GATE_START_KEY, 2);
+		config.put(SDTFormat.GATE_END_KEY, 6);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final SDTFormat.Metadata meta = reader.getMetadata();
+			meta.setImageMode(SDTFormat.ImageMode.MEAN_ARRIVAL_TIME);
+			assertEquals(FormatTools.FLOAT, meta.get(0).getPixelType());
+			final double binWidth = meta.getTimeBase() / sdt.timeBins;
+			final ByteBuffer b = ByteBuffer.wrap(reader.openPlane(0, 1, config)
+				.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+			for (int y = 0; y < sdt.height; y++) {
+				for (int x = 0; x < sdt.width; x++) {
+					double sum = 0, moment = 0;
+					for (int t = 2; t < 6; t++) {
+						final int v = SDTFiles.value(1, y, x, t);
+						sum += v;
+						moment += v * (t - 2);
+					}
+					final double expected = (moment / sum + 0.5) * binWidth;
+					assertEquals(expected, b.getFloat(), 1e-4);
+				}
+			}
+		}
+	}
+
+	/** Tests that rising decays have a rapid lifetime of 0. */
+	@Test
+	public void testRapidLifetime() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.getMetadata().setImageMode(SDTFormat.ImageMode.RAPID_LIFETIME);
+			final ByteBuffer b = ByteBuffer.wrap(reader.openPlane(0, 0).getBytes())
+				.order(ByteOrder.LITTLE_ENDIAN);
+			assertEquals(sdt.width * sdt.height * 4, b.capacity());
+			while (b.hasRemaining()) {
+				assertEquals(0, b.getFloat(), 0);
+			}
+		}
+	}
+
+	/** Tests that a rapid lifetime gate of one bin is rejected. */
+	@Test(expected = FormatException.class)
+	public void testRapidLifetimeShortGate() throws IOException,
+		FormatException
+	{
+		single();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.GATE_START_KEY, 3);
+		config.put(SDTFormat.GATE_END_KEY, 4);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.getMetadata().setImageMode(SDTFormat.ImageMode.RAPID_LIFETIME);
+			reader.openPlane(0, 0, config);
+		}
+	}
+
+	/** Tests reading the planes of a FIFO image file with several blocks. */
+	@Test
+	public void testFifoPlanes() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(source);
+		assertPlanes(sdt, new SCIFIOConfig());
+	}
+
+	/** Tests reading per-pixel block planes through the plane cache. */
+	@Test
+	public void testPerPixelPlanes() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		assertPlanes(sdt, new SCIFIOConfig());
+		assertCrop(sdt, new SCIFIOConfig());
+	}
+
+	/** Tests reading per-pixel block planes with the plane cache disabled. */
+	@Test
+	public void testPerPixelPlanesUncached() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = perPixel();
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.CACHE_SIZE_KEY, 0L);
+		assertPlanes(sdt, config);
+		assertCrop(sdt, config);
+	}
+
+	/** Tests reading planes, crops and decays of zip-compressed blocks. */
+	@Test
+	public void testCompressedBlocks() throws IOException, FormatException {
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		final SDTFiles sdt = new SDTFiles();
+		sdt.zipMethod = ZipEntry.DEFLATED;
+		sdt.write(source);
+		assertPlanes(sdt, mapped);
+		assertCrop(sdt, new SCIFIOConfig());
+		assertReadDecay(sdt, false);
+
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(source);
+		assertPlanes(sdt, new SCIFIOConfig());
+		assertReadDecay(sdt, false);
+
+		sdt.layout = SDTFiles.Layout.PER_PIXEL;
+		sdt.planes = 3;
+		sdt.zipMethod = ZipEntry.STORED;
+		sdt.write(source);
+		assertPlanes(sdt, new SCIFIOConfig());
+		assertCrop(sdt, new SCIFIOConfig());
+		assertReadDecay(sdt, true);
+	}
+
+	/** Tests that a truncated compressed block fails to read. */
+	@Test(expected = FormatException.class)
+	public void testCompressedBlockTruncated() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = new SDTFiles();
+		sdt.zipMethod = ZipEntry.DEFLATED;
+		sdt.write(source);
+		truncate(sdt.dataOffset(0) + 50);
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			reader.openPlane(0, 1);
+		}
+	}
+
+	/** Tests reading single-pixel decays of every layout. */
+	@Test
+	public void testReadDecay() throws IOException, FormatException {
+		assertReadDecay(single(), false);
+		final SDTFiles fifo = new SDTFiles();
+		fifo.layout = SDTFiles.Layout.FIFO;
+		fifo.planes = 4;
+		fifo.write(source);
+		assertReadDecay(fifo, false);
+		assertReadDecay(perPixel(), false);
+		assertReadDecay(perPixel(), true);
+	}
+
+	/** Tests that decays of pixels outside the image are rejected. */
+	@Test(expected = FormatException.class)
+	public void testReadDecayInvalidPixel() throws IOException,
+		FormatException
+	{
+		final SDTFiles sdt = single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.readDecay(0, 0, sdt.width, 0);
+		}
+	}
+
+	/** Tests that a decay beyond the end of a truncated file is rejected. */
+	@Test(expected = FormatException.class)
+	public void testReadDecayTruncated() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		truncate(sdt.dataOffset(0) + sdt.blockLength() / 2);
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.readDecay(0, sdt.planes - 1, 0, 0);
+		}
+	}
+
+	/** Tests summing the decays of the pixels of a mask. */
+	@Test
+	public void testSumDecaysMask() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		final boolean[] mask = new boolean[sdt.width * sdt.height];
+		for (int i = 0; i < mask.length; i++) {
+			mask[i] = i % 3 != 1;
+		}
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			assertSums(sdt, reader.sumDecays(0, mask), (x, y) -> mask[y *
+				sdt.width + x]);
+		}
+	}
+
+	/**
+	 * Tests summing the decays of overlapping regions that extend beyond the
+	 * image.
+	 */
+	@Test
+	public void testSumDecaysRegions() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		final List<Interval> regions = Arrays.asList( //
+			new FinalInterval(new long[] { -2, 1 }, new long[] { 1, 5 }), //
+			new FinalInterval(new long[] { 1, 0 }, new long[] { 2, 1 }), //
+			new FinalInterval(new long[] { 4, -1 }, new long[] { 9, 0 }), //
+			new FinalInterval(new long[] { 7, 0 }, new long[] { 9, 2 }));
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			assertSums(sdt, reader.sumDecays(0, regions), (x, y) -> (x <= 1 &&
+				y >= 1) || (x >= 1 && x <= 2 && y <= 1) || (x == 4 && y == 0));
+		}
+	}
+
+	/** Tests that regions that are not two-dimensional are rejected. */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSumDecaysInvalidRegion() throws IOException,
+		FormatException
+	{
+		single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.sumDecays(0, Collections.singleton(new FinalInterval(1, 1, 1)));
+		}
+	}
+
+	/** Tests the lazily loaded cell image view. */
+	@Test
+	public void testCachedImg() throws IOException, FormatException {
+		assertCachedImg(single(), 0);
+		assertCachedImg(perPixel(), 2);
+	}
+
+	/** Tests that the cell image view requires 16-bit data. */
+	@Test(expected = FormatException.class)
+	public void testCachedImgPhasor() throws IOException, FormatException {
+		single();
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.getMetadata().setImageMode(SDTFormat.ImageMode.PHASOR);
+			reader.openCachedImg(0, new int[0], 0, new SCIFIOConfig());
+		}
+	}
+
+	/** Tests reading each measurement of a file as a separate image. */
+	@Test
+	public void testMeasurements() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.measurements = 3;
+		sdt.write(source);
+		assertMeasurements(sdt);
+
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(source);
+		assertMeasurements(sdt);
+	}
+
+	/** Tests writing uncompressed data blocks and reading them back. */
+	@Test
+	public void testWriteUncompressed() throws IOException, FormatException {
+		final SDTFiles sdt = single();
+		copy(new SCIFIOConfig(), 1, 0);
+		assertWritten(sdt, 1, sdt.planes, false);
+	}
+
+	/** Tests writing zip-compressed data blocks and reading them back. */
+	@Test
+	public void testWriteCompressed() throws IOException, FormatException {
+		final SDTFiles sdt = perPixel();
+		copy(new SCIFIOConfig().writerSetCompression(SDTFormat.Writer.ZIP), 1,
+			0);
+		assertWritten(sdt, 1, sdt.planes, true);
+	}
+
+	/** Tests writing a file with several measurements. */
+	@Test
+	public void testWriteMeasurements() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.measurements = 2;
+		sdt.write(source);
+		copy(new SCIFIOConfig(), 2, 0);
+		assertWritten(sdt, 2, sdt.planes, false);
+	}
+
+	/**
+	 * Tests that a writer closed early leaves a file of the images and planes
+	 * written so far.
+	 */
+	@Test
+	public void testWritePartial() throws IOException, FormatException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.measurements = 2;
+		sdt.planes = 3;
+		sdt.write(source);
+		copy(new SCIFIOConfig(), 1, 2);
+		assertWritten(sdt, 2, 2, false);
+		copy(new SCIFIOConfig(), 1, 0);
+		assertWritten(sdt, 1, sdt.planes, false);
+		copy(new SCIFIOConfig(), 0, 1);
+		assertWritten(sdt, 1, 1, false);
+	}
+
+	/** Tests that planes written out of order are rejected. */
+	@Test(expected = FormatException.class)
+	public void testWriteOutOfOrder() throws IOException, FormatException {
+		single();
+		try (final Reader reader = format.createReader();
+				final Writer writer = format.createWriter())
+		{
+			reader.setSource(new FileLocation(source));
+			writer.setMetadata(reader.getMetadata());
+			writer.setDest(new FileLocation(dest));
+			writer.savePlane(0, 1, reader.openPlane(0, 1));
+		}
+	}
+
+	/** Tests that planes holding too few bytes are rejected. */
+	@Test(expected = FormatException.class)
+	public void testWriteShortPlane() throws IOException, FormatException {
+		single();
+		try (final Reader reader = format.createReader();
+				final Writer writer = format.createWriter())
+		{
+			reader.setSource(new FileLocation(source));
+			writer.setMetadata(reader.getMetadata());
+			writer.setDest(new FileLocation(dest));
+			final ByteArrayPlane plane = (ByteArrayPlane) reader.openPlane(0, 0);
+			plane.setData(new byte[10]);
+			writer.savePlane(0, 0, plane);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Copies the source file to the destination through the writer: every
+	 * plane of the given number of images, then the given number of planes of
+	 * the next image.
+	 */
+	private void copy(final SCIFIOConfig config, final int images,
+		final long planes) throws IOException, FormatException
+	{
+		try (final Reader reader = format.createReader();
+				final Writer writer = format.createWriter())
+		{
+			reader.setSource(new FileLocation(source));
+			writer.setMetadata(reader.getMetadata());
+			writer.setDest(new FileLocation(dest), config);
+			for (int i = 0; i < images; i++) {
+				for (int p = 0; p < reader.getMetadata().get(i).getPlaneCount(); p++) {
+					writer.savePlane(i, p, reader.openPlane(i, p));
+				}
+			}
+			for (int p = 0; p < planes; p++) {
+				writer.savePlane(images, p, reader.openPlane(images, p));
+			}
+		}
+	}
+
+	/**
+	 * Checks every value of the destination file, which must hold the given
+	 * number of images of the source file, the last one with only its first
+	 * {@code planes} planes.
+	 */
+	private void assertWritten(final SDTFiles sdt, final int images,
+		final int planes, final boolean compressed) throws IOException,
+		FormatException
+	{
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(dest));
+			final SDTFormat.Metadata meta = (SDTFormat.Metadata) reader
+				.getMetadata();
+			assertEquals(images, meta.getImageCount());
+			assertTrue(meta.getSDTInfo().isChecksumValid());
+			assertEquals(images, meta.getSDTInfo().getDataBlockCount());
+			for (int i = 0; i < images; i++) {
+				final SDTInfo info = meta.getSDTInfo(i);
+				assertEquals(sdt.width, info.width);
+				assertEquals(sdt.height, info.height);
+				assertEquals(sdt.timeBins, info.timeBins);
+				final int channels = i == images - 1 ? planes : sdt.planes;
+				assertEquals(channels, info.channels);
+				assertEquals(1, meta.getBlockIndex(i).size());
+				assertEquals(compressed, meta.getBlockIndex(i).isCompressed(0));
+				for (int c = 0; c < channels; c++) {
+					assertDecays(sdt, i * sdt.planes + c, 0, 0, sdt.width, sdt.height,
+						reader.openPlane(i, c).getBytes());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the images of a file with several measurements, read with and
+	 * without memory mapping.
+	 */
+	private void assertMeasurements(final SDTFiles sdt) throws IOException,
+		FormatException
+	{
+		final SCIFIOConfig mapped = new SCIFIOConfig();
+		mapped.put(SDTFormat.MEMORY_MAP_KEY, true);
+		for (final SCIFIOConfig config : Arrays.asList(new SCIFIOConfig(),
+			mapped))
+		{
+			try (final Reader reader = format.createReader()) {
+				reader.setSource(new FileLocation(source), config);
+				final SDTFormat.Metadata meta = (SDTFormat.Metadata) reader
+					.getMetadata();
+				assertEquals(sdt.measurements, meta.getImageCount());
+				for (int i = 0; i < sdt.measurements; i++) {
+					final SDTInfo info = meta.getSDTInfo(i);
+					assertEquals(String.format("12:00:%02d", i), info.time);
+					assertEquals(sdt.blocks(), info.getDataBlockCount());
+					assertEquals(sdt.blocks(), meta.getBlockIndex(i).size());
+					assertEquals(sdt.planes, meta.getChannels(i));
+					assertEquals(sdt.timeBins, meta.getTimeBins(i));
+				}
+				// alternate between images, so that each read switches caches
+				for (int c = 0; c < sdt.planes; c++) {
+					for (int i = sdt.measurements - 1; i >= 0; i--) {
+						assertDecays(sdt, i * sdt.planes + c, 0, 0, sdt.width, sdt.height,
+							reader.openPlane(i, c, config).getBytes());
+					}
+				}
+			}
+		}
+	}
+
+	private SDTFormat.Metadata parse(final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		return (SDTFormat.Metadata) format.createParser().parse(new FileLocation(
+			source), config);
+	}
+
+	/** Writes a file with a single data block. */
+	private SDTFiles single() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.write(source);
+		return sdt;
+	}
+
+	/** Writes a file with one data block per pixel. */
+	private SDTFiles perPixel() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.PER_PIXEL;
+		sdt.planes = 3;
+		sdt.write(source);
+		return sdt;
+	}
+
+	/**
+	 * Checks every value of a cell image view of the source, with cells of 3 x
+	 * 2 x 2 pixels.
+	 */
+	private void assertCachedImg(final SDTFiles sdt, final long maxCachedCells)
+		throws IOException, FormatException
+	{
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			final CachedCellImg<UnsignedShortType, ?> img = reader.openCachedImg(0,
+				new int[] { 3, 2, 2 }, maxCachedCells, new SCIFIOConfig());
+			assertEquals(sdt.timeBins, img.dimension(0));
+			assertEquals(sdt.width, img.dimension(1));
+			assertEquals(sdt.height, img.dimension(2));
+			assertEquals(sdt.planes, img.dimension(3));
+			final RandomAccess<UnsignedShortType> access = img.randomAccess();
+			for (int c = 0; c < sdt.planes; c++) {
+				for (int y = 0; y < sdt.height; y++) {
+					for (int x = 0; x < sdt.width; x++) {
+						for (int t = 0; t < sdt.timeBins; t++) {
+							access.setPosition(new long[] { t, x, y, c });
+							assertEquals(SDTFiles.value(c, y, x, t), access.get().get());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/** Truncates the source file to the given length. */
+	private void truncate(final long length) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+			raf.setLength(length);
+		}
+	}
+
+	/**
+	 * Checks the decay of every pixel of every plane of the given file, read
+	 * twice to go through the decay cache, optionally after filling the plane
+	 * cache.
+	 */
+	private void assertReadDecay(final SDTFiles sdt, final boolean cached)
+		throws IOException, FormatException
+	{
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			if (cached) reader.openPlane(0, 0);
+			final short[] dest = new short[sdt.timeBins];
+			for (int pass = 0; pass < 2; pass++) {
+				for (int c = 0; c < sdt.planes; c++) {
+					for (int y = 0; y < sdt.height; y++) {
+						for (int x = 0; x < sdt.width; x++) {
+							final short[] decay = pass == 0 ? reader.readDecay(0, c, x, y)
+								: reader.readDecay(0, c, x, y, dest);
+							assertEquals(sdt.timeBins, decay.length);
+							if (pass == 1) assertSame(dest, decay);
+							for (int t = 0; t < sdt.timeBins; t++) {
+								assertEquals(SDTFiles.value(c, y, x, t), decay[t]);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/** Checks decay sums over the pixels accepted by the given filter. */
+	private static void assertSums(final SDTFiles sdt, final long[][] sums,
+		final BiPredicate<Integer, Integer> filter)
+	{
+		assertEquals(sdt.planes, sums.length);
+		for (int c = 0; c < sdt.planes; c++) {
+			assertEquals(sdt.timeBins, sums[c].length);
+			for (int t = 0; t < sdt.timeBins; t++) {
+				long expected = 0;
+				for (int y = 0; y < sdt.height; y++) {
+					for (int x = 0; x < sdt.width; x++) {
+						if (filter.test(x, y)) expected += SDTFiles.value(c, y, x, t);
+					}
+				}
+				assertEquals(expected, sums[c][t]);
+			}
+		}
+	}
+
+	/** Checks every value of every decay plane of the given file. */
+	private void assertPlanes(final SDTFiles sdt, final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			assertEquals(sdt.planes, reader.getMetadata().get(0).getPlaneCount());
+			for (int c = 0; c < sdt.planes; c++) {
+				assertDecays(sdt, c, 0, 0, sdt.width, sdt.height, reader.openPlane(0,
+					c, config).getBytes());
+			}
+		}
+	}
+
+	/** Checks the values of a crop of the last plane of the given file. */
+	private void assertCrop(final SDTFiles sdt, final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			final int c = sdt.planes - 1;
+			final FinalInterval bounds = new FinalInterval(new long[] { 0, 1, 1 },
+				new long[] { sdt.timeBins - 1, 3, 2 });
+			assertDecays(sdt, c, 1, 1, 3, 2, reader.openPlane(0, c, bounds, config)
+				.getBytes());
+		}
+	}
+
+	/** Checks the merged intensities of every pixel of plane 1. */
+	private static void assertIntensities(final SDTFiles sdt,
+		final byte[] bytes, final boolean floats)
+	{
+		final ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(sdt.width * sdt.height * (floats ? 4 : 2), bytes.length);
+		for (int y = 0; y < sdt.height; y++) {
+			for (int x = 0; x < sdt.width; x++) {
+				assertEquals(intensity(1, y, x, sdt.timeBins), floats ? b.getFloat()
+					: b.getShort(), 0);
+			}
+		}
+	}
+
+	/** Checks a narrow and a wide gate of a crop of each plane. */
+	private void assertGates(final SDTFiles sdt, final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		try (final Reader reader = format.createReader()) {
+			reader.setSource(new FileLocation(source));
+			for (int c = 0; c < sdt.planes; c++) {
+				for (final int[] gate : new int[][] { { 3, 5 }, { 1, 7 } }) {
+					final FinalInterval bounds = new FinalInterval(new long[] { gate[0],
+						1, 0 }, new long[] { gate[1] - 1, 4, 2 });
+					assertDecays(sdt, c, 1, 0, 4, 3, gate[0], gate[1], reader.openPlane(
+						0, c, bounds, config).getBytes());
+				}
+			}
+		}
+	}
+
+	/** Checks every plane read with a spatial binning of 2. */
+	private void assertSpatialBinning(final SDTFiles sdt,
+		final SCIFIOConfig config) throws IOException, FormatException
+	{
+		try (final SDTFormat.Reader reader = (SDTFormat.Reader) format
+			.createReader())
+		{
+			reader.setSource(new FileLocation(source));
+			reader.getMetadata().setSpatialBinning(2);
+			// the trailing column and row are dropped
+			final int w = 2, h = 1;
+			for (int c = 0; c < sdt.planes; c++) {
+				final ByteBuffer b = ByteBuffer.wrap(reader.openPlane(0, c, config)
+					.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+				assertEquals(w * h * sdt.timeBins * 2, b.capacity());
+				for (int x = 0; x < w; x++) {
+					for (int t = 0; t < sdt.timeBins; t++) {
+						assertEquals(spatial(c, 0, x, 2, t, t + 1), b.getShort());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the sum of time bins [t0, t1) of the pixels of block (x, y) of plane
+	 * c, with the given spatial binning factor.
+	 */
+	private static int spatial(final int c, final int y, final int x,
+		final int factor, final int t0, final int t1)
+	{
+		int sum = 0;
+		for (int dy = 0; dy < factor; dy++) {
+			for (int dx = 0; dx < factor; dx++) {
+				sum += intensity(c, y * factor + dy, x * factor + dx, t0, t1);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Checks binned time bins [b0, b1) of every pixel of plane c, with the given
+	 * time binning factor.
+	 */
+	private static void assertBinned(final SDTFiles sdt, final int c,
+		final int factor, final int b0, final int b1, final byte[] bytes)
+	{
+		final ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(sdt.width * sdt.height * (b1 - b0) * 2, bytes.length);
+		for (int y = 0; y < sdt.height; y++) {
+			for (int x = 0; x < sdt.width; x++) {
+				for (int bin = b0; bin < b1; bin++) {
+					assertEquals(binned(c, y, x, factor, bin), b.getShort());
+				}
+			}
+		}
+	}
+
+	/** Gets binned time bin {@code bin} of pixel (x, y) of plane c. */
+	private static int binned(final int c, final int y, final int x,
+		final int factor, final int bin)
+	{
+		return intensity(c, y, x, bin * factor, (bin + 1) * factor);
+	}
+
+	/**
+	 * Checks phasor components [p0, p1) of every pixel of plane c, stored one
+	 * component plane after the other.
+	 */
+	private static void assertPhasor(final SDTFiles sdt, final int c,
+		final double timeBase, final double omega, final int p0, final int p1,
+		final byte[] bytes)
+	{
+		final ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(sdt.width * sdt.height * (p1 - p0) * 4, bytes.length);
+		final double binWidth = timeBase / sdt.timeBins;
+		for (int p = p0; p < p1; p++) {
+			for (int y = 0; y < sdt.height; y++) {
+				for (int x = 0; x < sdt.width; x++) {
+					double sum = 0, g = 0, s = 0;
+					for (int t = 0; t < sdt.timeBins; t++) {
+						final double phase = omega * (t + 0.5) * binWidth;
+						final int v = SDTFiles.value(c, y, x, t);
+						sum += v;
+						g += v * Math.cos(phase);
+						s += v * Math.sin(phase);
+					}
+					final double expected = p == 0 ? g / sum : p == 1 ? s / sum : sum;
+					assertEquals(expected, b.getFloat(), 1e-4 * Math.max(1, expected));
+				}
+			}
+		}
+	}
+
+	/** Gets the sum of the decay of pixel (x, y) of plane c. */
+	private static int intensity(final int c, final int y, final int x,
+		final int timeBins)
+	{
+		return intensity(c, y, x, 0, timeBins);
+	}
+
+	/** Gets the sum of time bins [t0, t1) of pixel (x, y) of plane c. */
+	static int intensity(final int c, final int y, final int x, final int t0,
+		final int t1)
+	{
+		int sum = 0;
+		for (int t = t0; t < t1; t++) {
+			sum += SDTFiles.value(c, y, x, t);
+		}
+		return sum;
+	}
+
+	/** Checks the decays of every pixel of the given region of a plane. */
+	static void assertDecays(final SDTFiles sdt, final int c, final int x0,
+		final int y0, final int w, final int h, final byte[] bytes)
+	{
+		assertDecays(sdt, c, x0, y0, w, h, 0, sdt.timeBins, bytes);
+	}
+
+	/** Checks the decays of every pixel of the given region of a plane. */
+	static void assertDecays(final SDTFiles sdt, final int c, final int x0,
+		final int y0, final int w, final int h, final short[] values)
+	{
+		assertDecays(sdt, c, x0, y0, w, h, 0, sdt.timeBins, values);
+	}
+
+	/**
+	 * Checks the time bins [t0, t1) of every pixel of the given region of a
+	 * plane.
+	 */
+	static void assertDecays(final SDTFiles sdt, final int c, final int x0,
+		final int y0, final int w, final int h, final int t0, final int t1,
+		final byte[] bytes)
+	{
+		assertEquals(w * h * (t1 - t0) * 2, bytes.length);
+		final short[] values = new short[bytes.length / 2];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(
+			values);
+		assertDecays(sdt, c, x0, y0, w, h, t0, t1, values);
+	}
+
+	/**
+	 * Checks the time bins [t0, t1) of every pixel of the given region of a
+	 * plane.
+	 */
+	static void assertDecays(final SDTFiles sdt, final int c, final int x0,
+		final int y0, final int w, final int h, final int t0, final int t1,
+		final short[] values)
+	{
+		assertEquals(w * h * (t1 - t0), values.length);
+		int i = 0;
+		for (int y = y0; y < y0 + h; y++) {
+			for (int x = x0; x < x0 + w; x++) {
+				for (int t = t0; t < t1; t++) {
+					assertEquals("plane " + c + " at (" + x + ", " + y + ", " + t + ")",
+						SDTFiles.value(c, y, x, t), values[i++]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.SCIFIO;
+import io.scif.config.SCIFIOConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Tests {@link SDTIndexCache}.
+ */
+public class SDTIndexCacheTest {
+
+	private SCIFIO scifio;
+
+	private Format format;
+
+	private File source;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException, FormatException {
+		scifio = new SCIFIO();
+		format = scifio.format().getFormatFromClass(SDTFormat.class);
+		source = File.createTempFile("sdt-index-cache-test", ".sdt");
+		dir = File.createTempFile("sdt-index-cache-test", "");
+		dir.delete();
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		source.delete();
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Tests that a header read from the cache is the same as one parsed from
+	 * the file, in every field and every table entry.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException, FormatException,
+		IllegalAccessException
+	{
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.zipMethod = ZipEntry.DEFLATED;
+		sdt.write(source);
+		final SDTFormat.Metadata uncached = parse(new SCIFIOConfig());
+
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.INDEX_CACHE_KEY, dir);
+		parse(config);
+		assertEquals(1, dir.listFiles().length);
+
+		// change the header in place, so only a cache hit keeps the old values
+		final long modified = source.lastModified();
+		try (final RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+			raf.seek(uncached.getSDTInfo().infoOffs);
+			raf.write('X');
+		}
+		assertTrue(source.setLastModified(modified));
+		final SDTFormat.Metadata cached = parse(config);
+
+		assertEquals(uncached.getTable(), cached.getTable());
+		assertInfoEquals(uncached.getSDTInfo(), cached.getSDTInfo());
+		final SDTBlockIndex expected = uncached.getBlockIndex();
+		final SDTBlockIndex actual = cached.getBlockIndex();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getDataOffset(i), actual.getDataOffset(i));
+			assertEquals(expected.getLength(i), actual.getLength(i));
+			assertEquals(expected.getMeasDescBlockNo(i), actual
+				.getMeasDescBlockNo(i));
+			assertEquals(expected.getBlockType(i), actual.getBlockType(i));
+			assertTrue(actual.isCompressed(i));
+		}
+	}
+
+	/** Tests that an index is ignored once its file has been modified. */
+	@Test
+	public void testStale() throws IOException, FormatException {
+		new SDTFiles().write(source);
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SDTFormat.INDEX_CACHE_KEY, dir.getPath());
+		final SDTFormat.Metadata first = parse(config);
+
+		try (final RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+			raf.seek(first.getSDTInfo().infoOffs);
+			raf.write('X');
+		}
+		assertTrue(source.setLastModified(source.lastModified() + 2000));
+		final SDTFormat.Metadata second = parse(config);
+		assertNotEquals(first.getSDTInfo().info, second.getSDTInfo().info);
+		assertEquals(1, dir.listFiles().length);
+	}
+
+	// -- Helper methods --
+
+	private SDTFormat.Metadata parse(final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		return (SDTFormat.Metadata) format.createParser().parse(new FileLocation(
+			source), config);
+	}
+
+	/** Checks that every instance field of the given headers is equal. */
+	private static void assertInfoEquals(final SDTInfo expected,
+		final SDTInfo actual) throws IllegalAccessException
+	{
+		for (final Field field : SDTInfo.class.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers())) continue;
+			field.setAccessible(true);
+			assertTrue(field.getName(), Objects.deepEquals(field.get(expected), field
+				.get(actual)));
+		}
+	}
+}
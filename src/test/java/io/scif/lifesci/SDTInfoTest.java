@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.DefaultMetaTable;
+import io.scif.MetaTable;
+import io.scif.SCIFIO;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+/**
+ * Tests {@link SDTInfo}.
+ */
+public class SDTInfoTest {
+
+	private SCIFIO scifio;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		scifio = new SCIFIO();
+		file = File.createTempFile("sdt-info-test", ".sdt");
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		file.delete();
+	}
+
+	/** Tests reading the dimensions and table entries of the setup text. */
+	@Test
+	public void testSetupScan() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.planes = 3;
+		sdt.setupLines = "  #DI [DI_MODE,I,3]  \r\n" + //
+			"#TR [1,2,3]\r\n" + //
+			"#WI [main, 0]\r\n" + //
+			"#MP [MP_LIST,S,x,y]\r\n" + //
+			"#PR [PR_EMPTY,S,]\r\n" + //
+			"#SP [BROKEN]\r\n" + //
+			"#SP [SP_OPEN,I,\r\n" + //
+			"#XX [XX_OTHER,I,1]\r\n";
+		sdt.write(file);
+
+		final MetaTable table = new DefaultMetaTable();
+		final SDTInfo info = read(table);
+		assertEquals(sdt.width, info.width);
+		assertEquals(sdt.height, info.height);
+		assertEquals(sdt.timeBins, info.timeBins);
+		assertEquals(sdt.planes, info.channels);
+
+		assertEquals(String.valueOf(sdt.width), table.get("SP_SCAN_X"));
+		assertEquals(String.valueOf(sdt.timeBins), table.get("SP_ADC_RE"));
+		assertEquals("3", table.get("DI_MODE"));
+		assertEquals("1,2,3", table.get("#TR"));
+		assertEquals("main, 0", table.get("#WI"));
+		assertEquals("y", table.get("MP_LIST"));
+		assertEquals("", table.get("PR_EMPTY"));
+		assertFalse(table.containsKey("BROKEN"));
+		assertFalse(table.containsKey("SP_OPEN"));
+		assertFalse(table.containsKey("XX_OTHER"));
+	}
+
+	/**
+	 * Tests the header checksum with short fields that have their top bit
+	 * set, and with the validity flag cleared.
+	 */
+	@Test
+	public void testChecksum() throws IOException {
+		new SDTFiles().write(file);
+		assertTrue(header().isHeaderValid());
+
+		SDTFiles.patchHeader(file, 0, (short) 0x808e, true); // revision
+		SDTFiles.patchHeader(file, 32, (short) 0, true); // headerValid
+		SDTInfo info = header();
+		assertTrue(info.isChecksumValid());
+		assertTrue(info.isHeaderValid());
+
+		SDTFiles.patchHeader(file, 40, (short) 0, false); // chksum
+		info = header();
+		assertFalse(info.isChecksumValid());
+		assertFalse(info.isHeaderValid());
+	}
+
+	/** Tests that a minimal read gets the same dimensions as a full one. */
+	@Test
+	public void testMinimal() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.write(file);
+		final SDTInfo full = read(null, false);
+		final SDTInfo minimal = read(new DefaultMetaTable(), true);
+		assertEquals(full.width, minimal.width);
+		assertEquals(full.height, minimal.height);
+		assertEquals(full.timeBins, minimal.timeBins);
+		assertEquals(full.channels, minimal.channels);
+		assertEquals(full.measMode, minimal.measMode);
+		assertEquals(full.tacR, minimal.tacR, 0);
+		assertEquals(full.tacG, minimal.tacG);
+		assertNull(minimal.info);
+		assertNull(minimal.setup);
+		assertFalse(minimal.hasBlockHeader);
+	}
+
+	/** Tests that a minimal read rejects a file whose header is truncated. */
+	@Test(expected = EOFException.class)
+	public void testMinimalTruncated() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.write(file);
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(sdt.dataOffset(0) - 1);
+		}
+		read(null, true);
+	}
+
+	/** Tests the headers of the measurements of a file. */
+	@Test
+	public void testForMeasDescBlock() throws IOException {
+		final SDTFiles sdt = new SDTFiles();
+		sdt.layout = SDTFiles.Layout.FIFO;
+		sdt.planes = 4;
+		sdt.measurements = 2;
+		sdt.write(file);
+		final DataHandleService dataHandleService = scifio.getContext()
+			.getService(DataHandleService.class);
+		try (final DataHandle<Location> handle = dataHandleService.create(
+			new FileLocation(file)))
+		{
+			handle.setLittleEndian(true);
+			final SDTInfo info = new SDTInfo(handle, null);
+			assertEquals(4, info.getDataBlockCount());
+
+			final SDTInfo second = info.forMeasDescBlock(handle, 1, 2, false);
+			assertEquals("12:00:01", second.time);
+			assertEquals(2, second.getDataBlockCount());
+			assertEquals(sdt.planes, second.channels);
+			assertEquals(sdt.width, second.width);
+			assertEquals("12:00:00", info.time);
+
+			// counts from 0x7fff on are kept in reserved1, as in the file header
+			final SDTInfo large = info.forMeasDescBlock(handle, 0, 0x7fff + 5,
+				true);
+			assertEquals(0x7fff, large.noOfDataBlocks);
+			assertEquals(0x7fff + 5, large.reserved1);
+			assertEquals(0x7fff + 5, large.getDataBlockCount());
+			assertEquals(2L * (0x7fff + 5), large.channels);
+		}
+	}
+
+	// -- Helper methods --
+
+	private SDTInfo read(final MetaTable table) throws IOException {
+		return read(table, false);
+	}
+
+	private SDTInfo read(final MetaTable table, final boolean minimal)
+		throws IOException
+	{
+		final DataHandleService dataHandleService = scifio.getContext()
+			.getService(DataHandleService.class);
+		try (final DataHandle<Location> handle = dataHandleService.create(
+			new FileLocation(file)))
+		{
+			handle.setLittleEndian(true);
+			return new SDTInfo(handle, table, minimal);
+		}
+	}
+
+	private SDTInfo header() throws IOException {
+		final DataHandleService dataHandleService = scifio.getContext()
+			.getService(DataHandleService.class);
+		try (final DataHandle<Location> handle = dataHandleService.create(
+			new FileLocation(file)))
+		{
+			handle.setLittleEndian(true);
+			return SDTInfo.readFileHeader(handle);
+		}
+	}
+}
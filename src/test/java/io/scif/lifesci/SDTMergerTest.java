@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+
+import io.scif.util.FormatTools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SDTMerger}.
+ */
+public class SDTMergerTest {
+
+	/** Tests summing decays into unsigned 16-bit values. */
+	@Test
+	public void testMergeUint16() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 3, 4, (short) 7);
+		// the last pixel overflows 16 bits
+		put(merger, 2 * 4, (short) 0xffff, (short) 0xffff);
+		final ByteBuffer out = merge(merger, 3, 4, FormatTools.UINT16);
+		assertEquals(28, out.getShort(0));
+		assertEquals(28, out.getShort(2));
+		assertEquals(0xffff, out.getShort(4) & 0xffff);
+	}
+
+	/** Tests summing decays into unsigned 32-bit values. */
+	@Test
+	public void testMergeUint32() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 2, 4, (short) 0xffff);
+		final ByteBuffer out = merge(merger, 2, 4, FormatTools.UINT32);
+		assertEquals(4 * 0xffffL, out.getInt(0) & 0xffffffffL);
+		assertEquals(4 * 0xffffL, out.getInt(4) & 0xffffffffL);
+	}
+
+	/** Tests that 32-bit sums saturate rather than wrapping. */
+	@Test
+	public void testMergeUint32Saturation() {
+		final SDTMerger merger = SDTMerger.get();
+		final int timeBins = 70000;
+		fill(merger, 1, timeBins, (short) 0xffff);
+		final ByteBuffer out = merge(merger, 1, timeBins, FormatTools.UINT32);
+		assertEquals(0xffffffffL, out.getInt(0) & 0xffffffffL);
+	}
+
+	/** Tests summing decays into float values. */
+	@Test
+	public void testMergeFloat() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 2, 3, (short) 0x8000);
+		put(merger, 3, (short) 1, (short) 2, (short) 3);
+		final ByteBuffer out = merge(merger, 2, 3, FormatTools.FLOAT);
+		assertEquals(3 * 0x8000, out.getFloat(0), 0);
+		assertEquals(6, out.getFloat(4), 0);
+	}
+
+	/** Tests combining adjacent bins, saturating at 16 bits. */
+	@Test
+	public void testBin() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 2, 5, (short) 3);
+		put(merger, 5, (short) 0xffff, (short) 1);
+		final short[] dest = new short[4];
+		merger.bin(2, 5, 2, dest, 0);
+		assertEquals(6, dest[0]);
+		assertEquals(6, dest[1]);
+		assertEquals(0xffff, dest[2] & 0xffff);
+		assertEquals(6, dest[3]);
+	}
+
+	/** Tests the rapid lifetime determination of falling and rising decays. */
+	@Test
+	public void testRapidLifetime() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 2, 5, (short) 0);
+		// the trailing odd bin is ignored
+		put(merger, 0, (short) 6, (short) 2, (short) 2, (short) 1, (short) 99);
+		put(merger, 5, (short) 1, (short) 2, (short) 3, (short) 4, (short) 0);
+		merger.clear(2 * 5);
+		merger.accumulate(2, 5, 1);
+		final byte[] dest = new byte[2 * 4];
+		merger.storeRapidLifetime(2, 5, 0.5, dest, 0);
+		final ByteBuffer out = ByteBuffer.wrap(dest).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(1 / Math.log(8 / 3.0), out.getFloat(0), 1e-6);
+		assertEquals(0, out.getFloat(4), 0);
+	}
+
+	/** Tests the mean arrival time of a decay and of an empty pixel. */
+	@Test
+	public void testMeanArrivalTime() {
+		final SDTMerger merger = SDTMerger.get();
+		fill(merger, 2, 3, (short) 0);
+		put(merger, 0, (short) 1, (short) 0, (short) 3);
+		merger.clear(2 * 3);
+		merger.accumulate(2, 3, 1);
+		final byte[] dest = new byte[2 * 4];
+		merger.storeMeanArrivalTime(2, 3, 2, dest, 0);
+		final ByteBuffer out = ByteBuffer.wrap(dest).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals((6 / 4.0 + 0.5) * 2, out.getFloat(0), 1e-6);
+		assertEquals(0, out.getFloat(4), 0);
+	}
+
+	// -- Helper methods --
+
+	/** Fills the scratch row with the given number of equal bins. */
+	private static void fill(final SDTMerger merger, final int pixels,
+		final int timeBins, final short value)
+	{
+		final ByteBuffer raw = ByteBuffer.wrap(merger.rawRow(pixels * timeBins *
+			2)).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < pixels * timeBins; i++) {
+			raw.putShort(value);
+		}
+	}
+
+	/** Puts the given bins into the scratch row, starting at bin {@code i}. */
+	private static void put(final SDTMerger merger, final int i,
+		final short... values)
+	{
+		final ByteBuffer raw = ByteBuffer.wrap(merger.rawRow(0)).order(
+			ByteOrder.LITTLE_ENDIAN);
+		for (int v = 0; v < values.length; v++) {
+			raw.putShort(2 * (i + v), values[v]);
+		}
+	}
+
+	private static ByteBuffer merge(final SDTMerger merger, final int pixels,
+		final int timeBins, final int pixelType)
+	{
+		final byte[] dest = new byte[pixels * FormatTools.getBytesPerPixel(
+			pixelType)];
+		merger.merge(pixels, timeBins, pixelType, dest, 0);
+		return ByteBuffer.wrap(dest).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * #%L
+ * SCIFIO Life Sciences Extension
+ * %%
+ * Copyright (C) 2013 - 2016 Open Microscopy Environment:
+ * 	- Board of Regents of the University of Wisconsin-Madison
+ * 	- Glencoe Software, Inc.
+ * 	- University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package io.scif.lifesci;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.ByteArrayPlane;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.SCIFIO;
+import io.scif.config.SCIFIOConfig;
+import io.scif.util.FormatTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.FinalInterval;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Tests {@link SPCFormat}.
+ */
+public class SPCFormatTest {
+
+	/** Macro time clock of 50 ns, two routing bits. */
+	private static final int HEADER = 500 | 2 << 24;
+
+	private static final int MARK = 1 << 28, MTOV = 1 << 30, INVALID = 1 << 31;
+
+	private static final int WIDTH = 3, HEIGHT = 2, CHANNELS = 2, TIME_BINS = 4;
+
+	private SCIFIO scifio;
+
+	private Format format;
+
+	private File source;
+
+	@Before
+	public void setUp() throws IOException, FormatException {
+		scifio = new SCIFIO();
+		format = scifio.format().getFormatFromClass(SPCFormat.class);
+		source = File.createTempFile("spc-format-test", ".spc");
+	}
+
+	@After
+	public void tearDown() {
+		scifio.getContext().dispose();
+		source.delete();
+	}
+
+	/** Tests recognizing photon streams by their file header. */
+	@Test
+	public void testChecker() throws IOException, FormatException {
+		writeFrames(1);
+		assertTrue(format.createChecker().isFormat(new FileLocation(source)));
+		write(0x0f000000);
+		assertFalse(format.createChecker().isFormat(new FileLocation(source)));
+	}
+
+	/** Tests finding the dimensions of a stream with pixel markers. */
+	@Test
+	public void testParse() throws IOException, FormatException {
+		writeFrames(2);
+		final SPCFormat.Metadata meta = parse();
+		assertEquals(WIDTH, meta.getWidth());
+		assertEquals(HEIGHT, meta.getHeight());
+		assertEquals(CHANNELS, meta.getChannels());
+		assertEquals(2, meta.getFrames());
+		assertTrue(meta.hasPixelMarkers());
+		assertEquals(50, meta.getMacroTimeUnit(), 1e-9);
+		assertEquals(FormatTools.UINT16, meta.get(0).getPixelType());
+	}
+
+	/**
+	 * Tests histogramming planes and crops, from kept histograms of all channels
+	 * or of a region, or from a decode per plane.
+	 */
+	@Test
+	public void testPlanes() throws IOException, FormatException {
+		writeFrames(2);
+		final long full = (long) WIDTH * HEIGHT * TIME_BINS * CHANNELS * 4;
+		final long crop = 2L * 1 * 2 * CHANNELS * 4;
+		for (final long cacheSize : new long[] { full, crop, 0 }) {
+			final SCIFIOConfig config = config(SPCFormat.CACHE_SIZE_KEY, cacheSize);
+			try (final SPCFormat.Reader reader = open(config)) {
+				for (int c = 0; c < CHANNELS; c++) {
+					assertCounts(c, 0, 0, WIDTH, HEIGHT, 0, TIME_BINS, 2, reader
+						.openPlane(0, c, config).getBytes(), false);
+				}
+				final FinalInterval bounds = new FinalInterval(new long[] { 1, 1, 0 },
+					new long[] { 2, 2, 0 });
+				for (int c = CHANNELS - 1; c >= 0; c--) {
+					assertCounts(c, 1, 0, 2, 1, 1, 3, 2, reader.openPlane(0, c, bounds,
+						config).getBytes(), false);
+				}
+			}
+		}
+	}
+
+	/** Tests histogramming several planes at once. */
+	@Test
+	public void testOpenPlanes() throws IOException, FormatException {
+		writeFrames(1);
+		final SCIFIOConfig config = config(SPCFormat.CACHE_SIZE_KEY, 0);
+		try (final SPCFormat.Reader reader = open(config)) {
+			final FinalInterval bounds = new FinalInterval(new long[] { 0, 1, 1 },
+				new long[] { TIME_BINS - 1, 2, 1 });
+			final ByteArrayPlane[] planes = reader.openPlanes(0, new long[] { 1, 0 },
+				bounds, config);
+			assertEquals(2, planes.length);
+			assertCounts(1, 1, 1, 2, 1, 0, TIME_BINS, 1, planes[0].getBytes(),
+				false);
+			assertCounts(0, 1, 1, 2, 1, 0, TIME_BINS, 1, planes[1].getBytes(),
+				false);
+		}
+	}
+
+	/**
+	 * Tests placing photons by macro time in streams without pixel markers,
+	 * across single and multiple macro time overflows.
+	 */
+	@Test
+	public void testMacroTimeOverflows() throws IOException, FormatException {
+		final int lineTime = 3 << 12;
+		write(HEADER, //
+			marker(0, SPCDecoder.FRAME_MARKER | SPCDecoder.LINE_MARKER), //
+			INVALID | MTOV | 2, // two overflows without records in between
+			photon(1024, 0, 0), // 3/4 into line 0
+			MTOV | marker(0, SPCDecoder.LINE_MARKER), // line 1 after an overflow
+			photon(100, 1, 0), // start of line 1
+			INVALID | MTOV | 3, // next frame
+			marker(0, SPCDecoder.FRAME_MARKER | SPCDecoder.LINE_MARKER));
+		final SCIFIOConfig config = config(SPCFormat.WIDTH_KEY, 2);
+		try (final SPCFormat.Reader reader = open(config)) {
+			final SPCFormat.Metadata meta = reader.getMetadata();
+			assertFalse(meta.hasPixelMarkers());
+			assertEquals(lineTime, meta.getLineTime());
+			assertEquals(2, meta.getWidth());
+			final ByteBuffer b0 = counts(reader.openPlane(0, 0, config));
+			final ByteBuffer b1 = counts(reader.openPlane(0, 1, config));
+			for (int i = 0; i < 2 * 2 * TIME_BINS; i++) {
+				// pixel (1, 0) of channel 0 and pixel (0, 1) of channel 1
+				assertEquals(i == TIME_BINS ? 1 : 0, b0.getShort());
+				assertEquals(i == 2 * TIME_BINS ? 1 : 0, b1.getShort());
+			}
+		}
+	}
+
+	/**
+	 * Tests that 16-bit counts saturate, and that 32-bit counts can be read
+	 * instead.
+	 */
+	@Test
+	public void testPixelType() throws IOException, FormatException {
+		final int photons = 70000;
+		final List<Integer> records = new ArrayList<>();
+		records.add(HEADER);
+		records.add(marker(0, SPCDecoder.FRAME_MARKER | SPCDecoder.LINE_MARKER |
+			SPCDecoder.PIXEL_MARKER));
+		for (int i = 0; i < photons; i++) {
+			records.add(photon(0, 0, 0));
+		}
+		write(records.stream().mapToInt(Integer::intValue).toArray());
+
+		final SCIFIOConfig config = config(SPCFormat.WIDTH_KEY, 1);
+		try (final SPCFormat.Reader reader = open(config)) {
+			assertEquals(0xffff, counts(reader.openPlane(0, 0, config)).getShort() &
+				0xffff);
+		}
+		config.put(SPCFormat.PIXEL_TYPE_KEY, FormatTools.UINT32);
+		try (final SPCFormat.Reader reader = open(config)) {
+			assertEquals(FormatTools.UINT32, reader.getMetadata().get(0)
+				.getPixelType());
+			assertEquals(photons, counts(reader.openPlane(0, 0, config)).getInt());
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Gets a configuration with the given option and 4 time bins. */
+	private static SCIFIOConfig config(final String key, final Object value) {
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(SPCFormat.TIME_BINS_KEY, TIME_BINS);
+		config.put(key, value);
+		return config;
+	}
+
+	private SPCFormat.Metadata parse() throws IOException, FormatException {
+		return (SPCFormat.Metadata) format.createParser().parse(new FileLocation(
+			source), config(SPCFormat.TIME_BINS_KEY, TIME_BINS));
+	}
+
+	private SPCFormat.Reader open(final SCIFIOConfig config)
+		throws IOException, FormatException
+	{
+		final SPCFormat.Reader reader = (SPCFormat.Reader) format.createReader();
+		reader.setSource(new FileLocation(source), config);
+		return reader;
+	}
+
+	/**
+	 * Writes a stream of the given number of frames, with pixel markers. Each
+	 * frame holds {@link #count} photons in each time bin of each pixel of each
+	 * channel.
+	 */
+	private void writeFrames(final int frames) throws IOException {
+		final List<Integer> records = new ArrayList<>();
+		records.add(HEADER);
+		int macroTime = 0;
+		for (int f = 0; f < frames; f++) {
+			records.add(marker(macroTime, SPCDecoder.FRAME_MARKER));
+			for (int y = 0; y < HEIGHT; y++) {
+				records.add(marker(macroTime, SPCDecoder.LINE_MARKER));
+				for (int x = 0; x < WIDTH; x++) {
+					records.add(marker(macroTime, SPCDecoder.PIXEL_MARKER));
+					for (int c = 0; c < CHANNELS; c++) {
+						for (int t = 0; t < TIME_BINS; t++) {
+							for (int n = 0; n < count(c, y, x, t); n++) {
+								// the macro time overflows while a pixel is in progress
+								macroTime = (macroTime + 1000) & 0xfff;
+								final int overflow = macroTime < 1000 ? MTOV : 0;
+								records.add(overflow | photon(macroTime, c, t << 10 | n));
+							}
+						}
+					}
+				}
+			}
+		}
+		write(records.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/** Gets the photons per frame in time bin t of pixel (x, y) of channel c. */
+	private static int count(final int c, final int y, final int x,
+		final int t)
+	{
+		return (c + 2 * y + x + t) % 3 + c;
+	}
+
+	/** Checks the counts of the given region of a channel. */
+	private static void assertCounts(final int c, final int x0, final int y0,
+		final int w, final int h, final int t0, final int t1, final int frames,
+		final byte[] bytes, final boolean uint32)
+	{
+		final ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(w * h * (t1 - t0) * (uint32 ? 4 : 2), bytes.length);
+		for (int y = y0; y < y0 + h; y++) {
+			for (int x = x0; x < x0 + w; x++) {
+				for (int t = t0; t < t1; t++) {
+					assertEquals("channel " + c + " at (" + x + ", " + y + ", " + t +
+						")", frames * count(c, y, x, t), b.getShort());
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer counts(final ByteArrayPlane plane) {
+		return ByteBuffer.wrap(plane.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int marker(final int macroTime, final int markers) {
+		return INVALID | MARK | markers << 12 | macroTime;
+	}
+
+	/**
+	 * Gets a photon record; the ADC counts down from the photon to the next
+	 * sync pulse.
+	 */
+	private static int photon(final int macroTime, final int routing,
+		final int microTime)
+	{
+		return (0xfff - microTime) << 16 | routing << 12 | macroTime;
+	}
+
+	private void write(final int... records) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocate(records.length * 4).order(
+			ByteOrder.LITTLE_ENDIAN);
+		for (final int record : records) {
+			b.putInt(record);
+		}
+		Files.write(source.toPath(), b.array());
+	}
+}